@@ -0,0 +1,49 @@
+package com.ece420.lab1;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs every harness stage in one JVM over one shared corpus, for the Gradle
+ * check task. A stage that fails or throws does not stop the others; the run
+ * ends with the list of failed stages and exits with status 1 if there are any.
+ * Each stage also has its own main() and task to run it alone.
+ */
+public class AnalysisHarness {
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: AnalysisHarness <baseline.properties>");
+            System.exit(2);
+        }
+        List<HarnessStage> stages = Arrays.asList(
+            new BpmRegressionHarness(new File(args[0]), false, false),
+            new FixedPointRmsCheck(),
+            new ParallelTempoCheck(),
+            new LoudnessMeterCheck(),
+            new AnalysisReuseCheck());
+
+        List<SyntheticCorpus.Case> corpus = HarnessSupport.corpus();
+        List<String> failed = new ArrayList<>();
+        for (HarnessStage stage : stages) {
+            System.out.println("== " + stage.getName());
+            boolean passed;
+            try {
+                passed = stage.run(corpus);
+            } catch (Exception e) {
+                e.printStackTrace(System.out);
+                passed = false;
+            }
+            if (!passed) {
+                failed.add(stage.getName());
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            System.out.println("Analysis harness FAILED: " + String.join(", ", failed));
+            System.exit(1);
+        }
+        System.out.println("Analysis harness passed, " + stages.size() + " stages");
+    }
+}
@@ -0,0 +1,134 @@
+package com.ece420.lab1;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that a TrackAnalysis reset() for each case gives the results of a fresh
+ * one, and that its pass over a case allocates next to nothing once an earlier
+ * pass has sized its scratch arrays.
+ */
+public class AnalysisReuseCheck implements HarnessStage {
+    // Bytes a reused TrackAnalysis may allocate from reset() through finish(), besides the result's arrays
+    private static final long MAX_STEADY_STATE_BYTES = 1024;
+
+    public static void main(String[] args) throws IOException {
+        HarnessSupport.runStandalone(new AnalysisReuseCheck());
+    }
+
+    @Override
+    public String getName() {
+        return "analysis reuse";
+    }
+
+    @Override
+    public boolean run(List<SyntheticCorpus.Case> corpus) {
+        int reuseMismatches = reuseMismatches(corpus);
+        long steadyStateBytes = steadyStateAllocation(corpus);
+
+        boolean passed = HarnessSupport.report("reuse mismatch", reuseMismatches, "<=", 0, reuseMismatches == 0);
+        if (steadyStateBytes >= 0) {
+            passed &= HarnessSupport.report("steady-state bytes", steadyStateBytes, "<=", MAX_STEADY_STATE_BYTES,
+                steadyStateBytes <= MAX_STEADY_STATE_BYTES);
+        } else {
+            System.out.println("steady-state bytes not measured, the JVM does not count thread allocations");
+        }
+        return passed;
+    }
+
+    /**
+     * Analyze the corpus with one TrackAnalysis, reset for each case, and compare
+     * with a fresh instance per case.
+     * @return Number of cases whose results differ in any bit
+     */
+    private static int reuseMismatches(List<SyntheticCorpus.Case> corpus) {
+        TrackAnalysis reused = new TrackAnalysis(SyntheticCorpus.SAMPLE_RATE, 1,
+            TrackAnalysis.DEFAULT_BUDGET_SEC, null);
+        int mismatches = 0;
+        for (SyntheticCorpus.Case c : corpus) {
+            reused.reset(SyntheticCorpus.SAMPLE_RATE, 1, TrackAnalysis.DEFAULT_BUDGET_SEC, null);
+            HarnessSupport.feed(reused, ShortBuffer.wrap(c.pcm));
+            AnalysisResult actual = reused.finish();
+            AnalysisResult expected = HarnessSupport.analyze(c.pcm);
+
+            boolean same = Float.floatToIntBits(actual.getBpm()) == Float.floatToIntBits(expected.getBpm());
+            same &= Float.floatToIntBits(actual.getBpmConfidence())
+                == Float.floatToIntBits(expected.getBpmConfidence());
+            same &= actual.getKeyCode() == expected.getKeyCode();
+            same &= Float.floatToIntBits(actual.getAnalyzedSeconds())
+                == Float.floatToIntBits(expected.getAnalyzedSeconds());
+            same &= Float.floatToIntBits(actual.getBeatOffsetSeconds())
+                == Float.floatToIntBits(expected.getBeatOffsetSeconds());
+            same &= Arrays.equals(actual.getFeatures(), expected.getFeatures());
+            same &= Float.floatToIntBits(actual.getIntegratedLoudness())
+                == Float.floatToIntBits(expected.getIntegratedLoudness());
+            same &= Float.floatToIntBits(actual.getTruePeakDb()) == Float.floatToIntBits(expected.getTruePeakDb());
+            same &= Arrays.equals(actual.getLandmarks(), expected.getLandmarks());
+            if (!same) {
+                System.out.println("  REUSE MISMATCH " + c.name);
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * Analyze the corpus twice with one reused TrackAnalysis and measure the heap
+     * allocated by the second pass over each case, from reset() through finish(),
+     * less the arrays the result itself owns.
+     * @return Largest allocation of a case in bytes, or -1 if the JVM cannot measure it
+     */
+    private static long steadyStateAllocation(List<SyntheticCorpus.Case> corpus) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        // The first pass grows the scratch arrays to the corpus' high-water mark
+        TrackAnalysis analysis = new TrackAnalysis(SyntheticCorpus.SAMPLE_RATE, 1,
+            TrackAnalysis.DEFAULT_BUDGET_SEC, null);
+        ShortBuffer[] buffers = new ShortBuffer[corpus.size()];
+        long worst = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < buffers.length; i++) {
+                if (buffers[i] == null) {
+                    buffers[i] = ShortBuffer.wrap(corpus.get(i).pcm);
+                }
+                long before = allocations.getThreadAllocatedBytes(thread);
+                analysis.reset(SyntheticCorpus.SAMPLE_RATE, 1, TrackAnalysis.DEFAULT_BUDGET_SEC, null);
+                HarnessSupport.feed(analysis, buffers[i]);
+                AnalysisResult result = analysis.finish();
+                long allocated = allocations.getThreadAllocatedBytes(thread) - before
+                    - resultArrayBytes(result);
+                if (pass == 1) {
+                    worst = Math.max(worst, allocated);
+                }
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * @return Heap taken by the arrays a result owns, which finish() has to allocate
+     */
+    private static long resultArrayBytes(AnalysisResult result) {
+        return arrayBytes(4L * result.getFeatures().length) + arrayBytes(8L * result.getLandmarks().length);
+    }
+
+    /**
+     * @return Size of an array with this much payload, assuming a 16-byte header and 8-byte alignment
+     */
+    private static long arrayBytes(long payload) {
+        return (16 + payload + 7) & ~7L;
+    }
+}
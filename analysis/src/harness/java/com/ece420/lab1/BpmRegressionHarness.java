@@ -0,0 +1,183 @@
+package com.ece420.lab1;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Accuracy and throughput regression check for the BPM detector.
+ *
+ * Runs the full analysis pass over a SyntheticCorpus and compares the results
+ * with a stored baseline file:
+ * <pre>
+ *     minAccuracy                      share of cases within ACCURACY_TOLERANCE of the truth
+ *     maxOctaveErrorRate               share of cases locked onto a related tempo instead
+ *     realtimeFactor                   seconds of audio analyzed per second, on the reference machine
+ *     maxThroughputRegressionPercent   allowed drop of realtimeFactor
+ * </pre>
+ * Every half-time, double-time and clamped case must pass as well, and no
+ * estimate may leave the detector's range.
+ *
+ * The realtime factor depends on the machine, so it is only measured with
+ * --throughput, which the bpmThroughput task passes and check does not. Pass
+ * --update-baseline as well to store it as the new baseline.
+ */
+public class BpmRegressionHarness implements HarnessStage {
+    // MIREX "accuracy 1" tolerance
+    private static final float ACCURACY_TOLERANCE = 0.04f;
+
+    // Categories testing findBestTempo's folding and clamping, where every case must pass
+    private static final List<String> FOLD_CATEGORIES = Arrays.asList("half-time", "double-time", "clamped");
+
+    // Tempo ratios counted as octave (metrical level) errors
+    private static final float[] OCTAVE_RATIOS = {0.5f, 2.0f, 1 / 3.0f, 3.0f, 2 / 3.0f, 1.5f, 0.75f, 4 / 3.0f};
+
+    private static final int TIMING_RUNS = 3;
+
+    private final File baselineFile;
+    private final boolean throughput;
+    private final boolean updateBaseline;
+
+    /**
+     * @param throughput Also time the corpus against the baseline's realtime factor
+     * @param updateBaseline Store the measured realtime factor instead of checking it
+     */
+    public BpmRegressionHarness(File baselineFile, boolean throughput, boolean updateBaseline) {
+        this.baselineFile = baselineFile;
+        this.throughput = throughput;
+        this.updateBaseline = throughput && updateBaseline;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: BpmRegressionHarness <baseline.properties> [--throughput [--update-baseline]]");
+            System.exit(2);
+        }
+        List<String> options = Arrays.asList(args).subList(1, args.length);
+        HarnessSupport.runStandalone(new BpmRegressionHarness(new File(args[0]),
+            options.contains("--throughput"), options.contains("--update-baseline")));
+    }
+
+    @Override
+    public String getName() {
+        return "BPM regression";
+    }
+
+    @Override
+    public boolean run(List<SyntheticCorpus.Case> corpus) throws IOException {
+        Properties baseline = new Properties();
+        try (InputStream in = new FileInputStream(baselineFile)) {
+            baseline.load(in);
+        }
+
+        // Accuracy, reported per category
+        int correct = 0;
+        int octaveErrors = 0;
+        int foldMisses = 0;
+        int outOfRange = 0;
+        Map<String, int[]> categories = new LinkedHashMap<>();
+        for (SyntheticCorpus.Case c : corpus) {
+            float bpm = HarnessSupport.analyze(c.pcm).getBpm();
+            boolean isCorrect = withinTolerance(bpm, c.expectedBpm);
+            boolean isOctaveError = !isCorrect && isOctaveError(bpm, c.expectedBpm);
+            if (!isCorrect && FOLD_CATEGORIES.contains(c.category)) {
+                foldMisses++;
+            }
+            if (bpm < BPMSession.MIN_BPM || bpm > BPMSession.MAX_BPM) {
+                System.out.println(String.format(Locale.ROOT, "  OUT OF RANGE %-20s got %6.1f", c.name, bpm));
+                outOfRange++;
+            }
+            if (isCorrect) {
+                correct++;
+            } else {
+                System.out.println(String.format(Locale.ROOT, "  MISS %-28s expected %6.1f got %6.1f%s",
+                    c.name, c.expectedBpm, bpm, isOctaveError ? " (octave error)" : ""));
+            }
+            if (isOctaveError) {
+                octaveErrors++;
+            }
+
+            int[] counts = categories.get(c.category);
+            if (counts == null) {
+                counts = new int[2];
+                categories.put(c.category, counts);
+            }
+            counts[0] += isCorrect ? 1 : 0;
+            counts[1]++;
+        }
+        for (Map.Entry<String, int[]> category : categories.entrySet()) {
+            int[] counts = category.getValue();
+            System.out.println(String.format(Locale.ROOT, "  %-12s %d/%d", category.getKey(), counts[0], counts[1]));
+        }
+
+        float accuracy = correct / (float) corpus.size();
+        float octaveErrorRate = octaveErrors / (float) corpus.size();
+        float minAccuracy = Float.parseFloat(baseline.getProperty("minAccuracy"));
+        float maxOctaveErrorRate = Float.parseFloat(baseline.getProperty("maxOctaveErrorRate"));
+
+        boolean passed = true;
+        passed &= HarnessSupport.report("accuracy", accuracy, ">=", minAccuracy, accuracy >= minAccuracy);
+        passed &= HarnessSupport.report("fold/clamp misses", foldMisses, "<=", 0, foldMisses == 0);
+        passed &= HarnessSupport.report("out-of-range BPM", outOfRange, "<=", 0, outOfRange == 0);
+        passed &= HarnessSupport.report("octave error rate", octaveErrorRate, "<=", maxOctaveErrorRate,
+            octaveErrorRate <= maxOctaveErrorRate);
+        if (throughput) {
+            passed &= checkThroughput(corpus, baseline);
+        }
+        return passed;
+    }
+
+    /**
+     * Time the corpus, best of several passes after the accuracy pass warmed up the JIT
+     */
+    private boolean checkThroughput(List<SyntheticCorpus.Case> corpus, Properties baseline) throws IOException {
+        double bestSeconds = Double.MAX_VALUE;
+        double audioSeconds = 0;
+        for (int run = 0; run < TIMING_RUNS; run++) {
+            audioSeconds = 0;
+            long start = System.nanoTime();
+            for (SyntheticCorpus.Case c : corpus) {
+                audioSeconds += HarnessSupport.analyze(c.pcm).getAnalyzedSeconds();
+            }
+            bestSeconds = Math.min(bestSeconds, (System.nanoTime() - start) / 1e9);
+        }
+        double realtimeFactor = audioSeconds / bestSeconds;
+
+        if (updateBaseline) {
+            baseline.setProperty("realtimeFactor", String.format(Locale.ROOT, "%.0f", realtimeFactor));
+            try (OutputStream out = new FileOutputStream(baselineFile)) {
+                baseline.store(out, "BPM regression baseline, see BpmRegressionHarness");
+            }
+            System.out.println(String.format(Locale.ROOT, "Stored realtime factor %.0fx as the new baseline",
+                realtimeFactor));
+            return true;
+        }
+        double baselineRealtime = Double.parseDouble(baseline.getProperty("realtimeFactor"));
+        double maxRegression = Double.parseDouble(baseline.getProperty("maxThroughputRegressionPercent"));
+        double minRealtime = baselineRealtime * (1 - maxRegression / 100);
+        return HarnessSupport.report("realtime factor", realtimeFactor, ">=", minRealtime,
+            realtimeFactor >= minRealtime);
+    }
+
+    private static boolean withinTolerance(float bpm, float expected) {
+        return Math.abs(bpm - expected) <= ACCURACY_TOLERANCE * expected;
+    }
+
+    private static boolean isOctaveError(float bpm, float expected) {
+        for (float ratio : OCTAVE_RATIOS) {
+            if (withinTolerance(bpm, expected * ratio)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ece420.lab1;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+/**
+ * Checks that the fixed-point frame RMS of AnalysisFrames stays within its
+ * documented tolerance of a float reference, on stereo versions of the corpus.
+ */
+public class FixedPointRmsCheck implements HarnessStage {
+    // One 16-bit LSB plus relative float rounding of the reference sum over a frame
+    private static final float RMS_ABSOLUTE_TOLERANCE = 1 / 32768.0f;
+    private static final float RMS_RELATIVE_TOLERANCE = 1e-4f;
+
+    public static void main(String[] args) throws IOException {
+        HarnessSupport.runStandalone(new FixedPointRmsCheck());
+    }
+
+    @Override
+    public String getName() {
+        return "fixed-point RMS";
+    }
+
+    @Override
+    public boolean run(List<SyntheticCorpus.Case> corpus) {
+        float rmsExcess = fixedPointExcess(corpus);
+        return HarnessSupport.report("fixed-point RMS", rmsExcess, "<=", 0, rmsExcess <= 0);
+    }
+
+    /**
+     * Compare AnalysisFrames.getFrameRms() with a float implementation on stereo
+     * signals built from the corpus.
+     * @return Largest error beyond the documented tolerance, 0 or less if all frames pass
+     */
+    private static float fixedPointExcess(List<SyntheticCorpus.Case> corpus) {
+        float worst = -Float.MAX_VALUE;
+        for (SyntheticCorpus.Case c : corpus) {
+            short[] stereo = HarnessSupport.toStereo(c.pcm);
+
+            float[] fixedRms = new float[c.pcm.length / AnalysisFrames.HOP_LENGTH];
+            int[] frameCount = new int[1];
+            AnalysisFrames frames = new AnalysisFrames(SyntheticCorpus.SAMPLE_RATE, 2);
+            frames.addListener(f -> fixedRms[frameCount[0]++] = f.getFrameRms());
+            frames.feed(ShortBuffer.wrap(stereo));
+
+            // Float reference: downmix sample / 32768.0f, RMS over each frame
+            float[] mono = new float[c.pcm.length];
+            for (int i = 0; i < mono.length; i++) {
+                mono[i] = (stereo[2 * i] / 32768.0f + stereo[2 * i + 1] / 32768.0f) / 2;
+            }
+            for (int frame = 0; frame < frameCount[0]; frame++) {
+                int start = frame * AnalysisFrames.HOP_LENGTH;
+                float sum = 0;
+                for (int i = start; i < start + AnalysisFrames.FRAME_SIZE; i++) {
+                    sum += mono[i] * mono[i];
+                }
+                float floatRms = (float) Math.sqrt(sum / AnalysisFrames.FRAME_SIZE);
+                float tolerance = RMS_ABSOLUTE_TOLERANCE + RMS_RELATIVE_TOLERANCE * floatRms;
+                worst = Math.max(worst, Math.abs(fixedRms[frame] - floatRms) - tolerance);
+            }
+        }
+        return worst;
+    }
+}
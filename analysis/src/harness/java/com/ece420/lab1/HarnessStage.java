@@ -0,0 +1,22 @@
+package com.ece420.lab1;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * One concern checked by the analysis harness. Every stage has its own main()
+ * and Gradle task; AnalysisHarness runs them all and names the ones that fail.
+ */
+public interface HarnessStage {
+    /**
+     * @return Short name the stage is reported under
+     */
+    String getName();
+
+    /**
+     * Run the stage, printing one report line per metric
+     * @param corpus The shared synthetic corpus, see HarnessSupport.corpus()
+     * @return true if every metric is within its limit
+     */
+    boolean run(List<SyntheticCorpus.Case> corpus) throws IOException;
+}
@@ -0,0 +1,77 @@
+package com.ece420.lab1;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Helpers shared by the harness stages
+ */
+public final class HarnessSupport {
+    private static final long CORPUS_SEED = 174;
+
+    private HarnessSupport() {
+    }
+
+    /**
+     * @return The synthetic corpus every stage runs on, identical from run to run
+     */
+    public static List<SyntheticCorpus.Case> corpus() {
+        List<SyntheticCorpus.Case> corpus = new SyntheticCorpus(CORPUS_SEED).generate();
+        System.out.println("Synthetic corpus: " + corpus.size() + " cases");
+        return corpus;
+    }
+
+    /**
+     * Run one stage on its own, exiting with status 1 if it fails
+     */
+    public static void runStandalone(HarnessStage stage) throws IOException {
+        boolean passed = stage.run(corpus());
+        if (!passed) {
+            System.out.println(stage.getName() + " check FAILED");
+            System.exit(1);
+        }
+        System.out.println(stage.getName() + " check passed");
+    }
+
+    /**
+     * Analyze mono corpus PCM with a fresh TrackAnalysis
+     */
+    public static AnalysisResult analyze(short[] pcm) {
+        TrackAnalysis analysis = new TrackAnalysis(SyntheticCorpus.SAMPLE_RATE, 1,
+            TrackAnalysis.DEFAULT_BUDGET_SEC, null);
+        feed(analysis, ShortBuffer.wrap(pcm));
+        return analysis.finish();
+    }
+
+    /**
+     * Feed decoder-sized blocks like the app does
+     */
+    public static void feed(TrackAnalysis analysis, ShortBuffer buffer) {
+        int length = buffer.capacity();
+        int block = 4096;
+        for (int pos = 0; pos < length && analysis.wantsMore(); pos += block) {
+            buffer.limit(Math.min(length, pos + block)).position(pos);
+            analysis.feed(buffer);
+        }
+    }
+
+    /**
+     * @return Interleaved stereo whose right channel is a delayed, attenuated copy, so a downmix has to round
+     */
+    public static short[] toStereo(short[] mono) {
+        short[] stereo = new short[mono.length * 2];
+        for (int i = 0; i < mono.length; i++) {
+            stereo[2 * i] = mono[i];
+            stereo[2 * i + 1] = (short) (mono[(i + 7) % mono.length] * 3 / 5);
+        }
+        return stereo;
+    }
+
+    public static boolean report(String metric, double value, String comparison, double limit, boolean ok) {
+        System.out.println(String.format(Locale.ROOT, "%-18s %8.3f  (%s %.3f)  %s",
+            metric, value, comparison, limit, ok ? "ok" : "FAIL"));
+        return ok;
+    }
+}
@@ -0,0 +1,74 @@
+package com.ece420.lab1;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+/**
+ * Checks that LoudnessMeter reads the EBU Tech 3341 reference tone and an fs/4
+ * true-peak tone within the meter tolerances of that spec, at 44.1 and 48 kHz.
+ * Uses generated tones, not the corpus.
+ */
+public class LoudnessMeterCheck implements HarnessStage {
+    // EBU Tech 3341 test 1: stereo 1 kHz sine at -23 dBFS reads -23 LUFS +-0.1 LU
+    private static final float REFERENCE_TONE_DBFS = -23.0f;
+    private static final float LOUDNESS_TOLERANCE_LU = 0.1f;
+    // A sine at a quarter of the sample rate sampled 45 degrees off its peaks hides 3 dB between samples
+    private static final float TRUE_PEAK_TONE_DBTP = -6.02f;
+    private static final float TRUE_PEAK_TOLERANCE_DB = 0.2f;
+
+    public static void main(String[] args) throws IOException {
+        HarnessSupport.runStandalone(new LoudnessMeterCheck());
+    }
+
+    @Override
+    public String getName() {
+        return "loudness meter";
+    }
+
+    @Override
+    public boolean run(List<SyntheticCorpus.Case> corpus) {
+        float loudnessError = 0;
+        float truePeakError = 0;
+        for (int sampleRate : new int[] {44100, 48000}) {
+            loudnessError = Math.max(loudnessError, referenceToneError(sampleRate));
+            truePeakError = Math.max(truePeakError, truePeakToneError(sampleRate));
+        }
+
+        boolean passed = true;
+        passed &= HarnessSupport.report("loudness error", loudnessError, "<=", LOUDNESS_TOLERANCE_LU,
+            loudnessError <= LOUDNESS_TOLERANCE_LU);
+        passed &= HarnessSupport.report("true peak error", truePeakError, "<=", TRUE_PEAK_TOLERANCE_DB,
+            truePeakError <= TRUE_PEAK_TOLERANCE_DB);
+        return passed;
+    }
+
+    /**
+     * @return Deviation of the measured loudness of the EBU reference tone from REFERENCE_TONE_DBFS, in LU
+     */
+    private static float referenceToneError(int sampleRate) {
+        double amplitude = 32767 * Math.pow(10, REFERENCE_TONE_DBFS / 20);
+        short[] stereo = new short[20 * sampleRate * 2];
+        for (int i = 0; i < stereo.length / 2; i++) {
+            short sample = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 1000 * i / sampleRate));
+            stereo[2 * i] = sample;
+            stereo[2 * i + 1] = sample;
+        }
+        LoudnessMeter meter = new LoudnessMeter(sampleRate, 2);
+        meter.feed(ShortBuffer.wrap(stereo));
+        return Math.abs(meter.getIntegratedLoudness() - REFERENCE_TONE_DBFS);
+    }
+
+    /**
+     * @return Deviation of the measured true peak of a half-scale fs/4 tone from TRUE_PEAK_TONE_DBTP, in dB
+     */
+    private static float truePeakToneError(int sampleRate) {
+        short[] mono = new short[sampleRate];
+        for (int i = 0; i < mono.length; i++) {
+            mono[i] = (short) Math.round(16384 * Math.sin(Math.PI / 2 * i + Math.PI / 4));
+        }
+        LoudnessMeter meter = new LoudnessMeter(sampleRate, 1);
+        meter.feed(ShortBuffer.wrap(mono));
+        return Math.abs(meter.getTruePeakDb() - TRUE_PEAK_TONE_DBTP);
+    }
+}
@@ -0,0 +1,86 @@
+package com.ece420.lab1;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that the fork-join tempo analysis of a decoded track matches the serial
+ * pass exactly, on mono and stereo versions of the corpus.
+ */
+public class ParallelTempoCheck implements HarnessStage {
+    private static final int PARALLEL_THREADS = 4;  // Fixed, so segments split the same on any machine
+
+    public static void main(String[] args) throws IOException {
+        HarnessSupport.runStandalone(new ParallelTempoCheck());
+    }
+
+    @Override
+    public String getName() {
+        return "parallel tempo";
+    }
+
+    @Override
+    public boolean run(List<SyntheticCorpus.Case> corpus) throws IOException {
+        int parallelMismatches = parallelMismatches(corpus);
+        return HarnessSupport.report("parallel mismatch", parallelMismatches, "<=", 0, parallelMismatches == 0);
+    }
+
+    /**
+     * Run the fork-join tempo analysis on mono and stereo versions of the corpus and
+     * compare it with a serial session fed in decoder-sized blocks.
+     * @return Number of cases whose onset envelope, BPM, confidence or beat offset differ in any bit
+     */
+    private static int parallelMismatches(List<SyntheticCorpus.Case> corpus) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(PARALLEL_THREADS);
+        int mismatches = 0;
+        try {
+            for (SyntheticCorpus.Case c : corpus) {
+                for (int channels = 1; channels <= 2; channels++) {
+                    short[] pcm = channels == 2 ? HarnessSupport.toStereo(c.pcm) : c.pcm;
+
+                    // Serial: every frame RMS and the session's results
+                    AnalysisFrames frames = new AnalysisFrames(SyntheticCorpus.SAMPLE_RATE, channels);
+                    float[] serialEnvelope = new float[pcm.length / channels / AnalysisFrames.HOP_LENGTH];
+                    int[] frameCount = new int[1];
+                    frames.addListener(f -> serialEnvelope[frameCount[0]++] = f.getFrameRms());
+                    BPMSession serial = new BPMSession(frames, TrackAnalysis.DEFAULT_BUDGET_SEC, null);
+                    ShortBuffer buffer = ShortBuffer.wrap(pcm);
+                    int block = 4096 * channels;
+                    for (int pos = 0; pos < pcm.length; pos += block) {
+                        buffer.limit(Math.min(pcm.length, pos + block)).position(pos);
+                        frames.feed(buffer);
+                    }
+                    serial.finish();
+
+                    try (SampleStore samples = SampleStore.inMemory(SyntheticCorpus.SAMPLE_RATE, channels)) {
+                        samples.append(ShortBuffer.wrap(pcm));
+                        float[] envelope = OnsetEnvelope.compute(samples, samples.getFrameCount(), pool);
+                        BPMSession parallel = BPMSession.analyze(samples, TrackAnalysis.DEFAULT_BUDGET_SEC, null, pool);
+
+                        boolean same = envelope.length == frameCount[0];
+                        for (int i = 0; same && i < envelope.length; i++) {
+                            same = Float.floatToIntBits(envelope[i]) == Float.floatToIntBits(serialEnvelope[i]);
+                        }
+                        same &= Float.floatToIntBits(parallel.getBpm()) == Float.floatToIntBits(serial.getBpm());
+                        same &= Float.floatToIntBits(parallel.getConfidence())
+                            == Float.floatToIntBits(serial.getConfidence());
+                        same &= Float.floatToIntBits(parallel.getBeatOffsetSeconds())
+                            == Float.floatToIntBits(serial.getBeatOffsetSeconds());
+                        same &= parallel.getAnalyzedFrames() == serial.getAnalyzedFrames();
+                        if (!same) {
+                            System.out.println(String.format(Locale.ROOT, "  PARALLEL MISMATCH %s, %d channels",
+                                c.name, channels));
+                            mismatches++;
+                        }
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return mismatches;
+    }
+}
@@ -0,0 +1,195 @@
+package com.ece420.lab1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic audio with known tempo for the BPM regression harness.
+ *
+ * Every case is mono 16-bit PCM generated from a fixed seed, so the corpus is
+ * identical from run to run. The expected BPM is the true tempo folded into
+ * the detector's 160-190 range, e.g. an 87 BPM half-time groove expects 174,
+ * and clamped to it where no octave fits, e.g. a 200 BPM track expects 190.
+ */
+public class SyntheticCorpus {
+    public static final int SAMPLE_RATE = 44100;
+    private static final float DURATION_SEC = 30.0f;
+
+    /**
+     * One generated track and its ground truth
+     */
+    public static class Case {
+        public final String category;
+        public final String name;
+        public final short[] pcm;
+        public final float expectedBpm;
+
+        Case(String category, String name, short[] pcm, float expectedBpm) {
+            this.category = category;
+            this.name = name;
+            this.pcm = pcm;
+            this.expectedBpm = expectedBpm;
+        }
+    }
+
+    // Drum hits a pattern can place on a beat grid
+    private static final int KICK = 1;
+    private static final int SNARE = 2;
+    private static final int HAT = 4;
+    private static final int CLICK = 8;
+
+    private final Random random;
+
+    public SyntheticCorpus(long seed) {
+        random = new Random(seed);
+    }
+
+    public List<Case> generate() {
+        List<Case> cases = new ArrayList<>();
+
+        // Metronome clicks across the whole detection range
+        for (int bpm = 160; bpm <= 190; bpm += 3) {
+            cases.add(new Case("click", "click " + bpm, render(constantTempo(bpm), CLICK_PATTERN, 0.5f, -1), bpm));
+        }
+
+        // Two-step drum patterns, straight and swung
+        float[] swings = {0.5f, 0.58f, 0.66f};
+        for (int bpm = 162; bpm <= 188; bpm += 4) {
+            for (float swing : swings) {
+                cases.add(new Case("drums", String.format("drums %d swing %.2f", bpm, swing),
+                    render(constantTempo(bpm), TWO_STEP, swing, -1), bpm));
+            }
+        }
+
+        // Half-time grooves with nothing between the beats: the detector must report double the tempo
+        for (int bpm = 82; bpm <= 94; bpm += 4) {
+            cases.add(new Case("half-time", "half-time " + bpm, render(constantTempo(bpm), HALF_TIME, 0.5f, -1),
+                bpm * 2));
+        }
+
+        // Unaccented hats on every eighth note: the onsets run at double the tempo, which must be halved
+        for (int bpm = 164; bpm <= 188; bpm += 8) {
+            cases.add(new Case("double-time", "double-time " + bpm,
+                render(constantTempo(bpm), EVEN_EIGHTHS, 0.5f, -1), bpm));
+        }
+
+        // Just outside the range with no octave in it: the detector must report the nearest end.
+        // Above it the shortest lag reads ~191 BPM, which only the clamp brings to 190
+        float[][] outOfRange = {{155, BPMSession.MIN_BPM}, {158, BPMSession.MIN_BPM},
+            {192, BPMSession.MAX_BPM}, {196, BPMSession.MAX_BPM}, {200, BPMSession.MAX_BPM}};
+        for (float[] tempo : outOfRange) {
+            cases.add(new Case("clamped", String.format("clamped %.0f", tempo[0]),
+                render(constantTempo(tempo[0]), CLICK_PATTERN, 0.5f, -1), tempo[1]));
+        }
+
+        // Drum patterns buried in noise
+        float[] snrs = {20, 10, 5};
+        for (int bpm = 170; bpm <= 180; bpm += 5) {
+            for (float snr : snrs) {
+                cases.add(new Case("noise", String.format("drums %d snr %.0f dB", bpm, snr),
+                    render(constantTempo(bpm), TWO_STEP, 0.5f, snr), bpm));
+            }
+        }
+
+        // Tempo ramps, judged against the mean tempo
+        float[][] ramps = {{168, 176}, {178, 170}, {172, 174}};
+        for (float[] ramp : ramps) {
+            cases.add(new Case("ramp", String.format("ramp %.0f-%.0f", ramp[0], ramp[1]),
+                render(rampTempo(ramp[0], ramp[1]), TWO_STEP, 0.5f, -1), (ramp[0] + ramp[1]) / 2));
+        }
+        return cases;
+    }
+
+    // Patterns over one bar of eighth notes
+    private static final int[] CLICK_PATTERN = {CLICK, 0, CLICK, 0, CLICK, 0, CLICK, 0};
+    private static final int[] TWO_STEP = {KICK | HAT, HAT, SNARE | HAT, HAT, HAT, KICK | HAT, SNARE | HAT, HAT};
+    private static final int[] HALF_TIME = {KICK, 0, HAT, 0, SNARE, 0, HAT, 0};
+    private static final int[] EVEN_EIGHTHS = {HAT, HAT, HAT, HAT, HAT, HAT, HAT, HAT};
+
+    private interface TempoCurve {
+        float bpmAt(float seconds);
+    }
+
+    private static TempoCurve constantTempo(float bpm) {
+        return seconds -> bpm;
+    }
+
+    private static TempoCurve rampTempo(float from, float to) {
+        return seconds -> from + (to - from) * Math.min(1.0f, seconds / DURATION_SEC);
+    }
+
+    /**
+     * Render a pattern over a tempo curve
+     * @param swing Position of the off-beat eighth within the beat, 0.5 is straight
+     * @param snrDb Signal to white noise ratio, or negative for no noise
+     */
+    private short[] render(TempoCurve tempo, int[] pattern, float swing, float snrDb) {
+        int length = (int) (DURATION_SEC * SAMPLE_RATE);
+        float[] signal = new float[length];
+
+        // Walk the beats, integrating the tempo curve
+        float beatTime = 0.1f * random.nextFloat();
+        int step = 0;
+        while (beatTime < DURATION_SEC) {
+            float beatLength = 60.0f / tempo.bpmAt(beatTime);
+            addHits(signal, pattern[step % pattern.length], beatTime);
+            addHits(signal, pattern[(step + 1) % pattern.length], beatTime + swing * beatLength);
+            step += 2;
+            beatTime += beatLength;
+        }
+
+        if (snrDb >= 0) {
+            double power = 0;
+            for (float sample : signal) {
+                power += sample * sample;
+            }
+            float noiseRms = (float) Math.sqrt(power / length / Math.pow(10, snrDb / 10));
+            for (int i = 0; i < length; i++) {
+                signal[i] += noiseRms * (float) random.nextGaussian();
+            }
+        }
+
+        short[] pcm = new short[length];
+        for (int i = 0; i < length; i++) {
+            pcm[i] = (short) (Math.max(-1.0f, Math.min(1.0f, signal[i] * 0.5f)) * 32767);
+        }
+        return pcm;
+    }
+
+    private void addHits(float[] signal, int hits, float seconds) {
+        int start = (int) (seconds * SAMPLE_RATE);
+        if ((hits & KICK) != 0) {
+            // Pitch sweep from 120 Hz down to 50 Hz
+            double phase = 0;
+            for (int i = 0; i < 0.15f * SAMPLE_RATE && start + i < signal.length; i++) {
+                float t = i / (float) SAMPLE_RATE;
+                phase += 2 * Math.PI * (50 + 70 * Math.exp(-t * 30)) / SAMPLE_RATE;
+                signal[start + i] += (float) (Math.sin(phase) * Math.exp(-t * 20));
+            }
+        }
+        if ((hits & SNARE) != 0) {
+            for (int i = 0; i < 0.12f * SAMPLE_RATE && start + i < signal.length; i++) {
+                float t = i / (float) SAMPLE_RATE;
+                float body = (float) Math.sin(2 * Math.PI * 200 * t);
+                signal[start + i] += (float) ((0.6 * random.nextGaussian() + 0.4 * body) * Math.exp(-t * 30));
+            }
+        }
+        if ((hits & HAT) != 0) {
+            // Differenced noise is roughly high-passed
+            float previous = 0;
+            for (int i = 0; i < 0.03f * SAMPLE_RATE && start + i < signal.length; i++) {
+                float t = i / (float) SAMPLE_RATE;
+                float noise = (float) random.nextGaussian();
+                signal[start + i] += 0.25f * (noise - previous) * (float) Math.exp(-t * 150);
+                previous = noise;
+            }
+        }
+        if ((hits & CLICK) != 0) {
+            for (int i = 0; i < 0.02f * SAMPLE_RATE && start + i < signal.length; i++) {
+                float t = i / (float) SAMPLE_RATE;
+                signal[start + i] += (float) (Math.sin(2 * Math.PI * 1000 * t) * Math.exp(-t * 200));
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.ece420.lab1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Directory of precomputed analysis results, one file per track named by its
+ * ContentHash. BatchAnalyzer fills it on a desktop machine and the app reads it
+ * on import, so a crate analyzed ahead of time is not analyzed again on the phone.
+ *
+ * File layout (big-endian):
+ * <pre>
+ *     int magic, int version
+ *     float bpm, float bpmConfidence, int keyCode, float analyzedSeconds, float beatOffsetSeconds
+ *     float integratedLoudness, float truePeakDb
+ *     int featureCount, float[featureCount] features
+ *     int landmarkCount, long[landmarkCount] fingerprint landmarks
+ *     waveform, see Waveform.write()
+ *     seek table, see SeekTable.write()
+ * </pre>
+ */
+public class AnalysisCache {
+    private static final int MAGIC = 0x414E4131;  // "ANA1"
+    private static final int VERSION = 6;  // Older entries lack loudness, fingerprint, seek table or the current waveform and are analyzed again
+    public static final String FILE_SUFFIX = ".ana";
+
+    // Waveform points stored per track, matching what the app displays
+    public static final int WAVEFORM_POINTS = 1500;
+
+    /**
+     * A cached analysis result and the waveform and seek table computed alongside it
+     */
+    public static class Entry {
+        private final AnalysisResult result;
+        private final Waveform waveform;
+        private final SeekTable seekTable;
+
+        Entry(AnalysisResult result, Waveform waveform, SeekTable seekTable) {
+            this.result = result;
+            this.waveform = waveform;
+            this.seekTable = seekTable;
+        }
+
+        public AnalysisResult getResult() {
+            return result;
+        }
+
+        /**
+         * @return Waveform of up to WAVEFORM_POINTS points, or null if none was stored
+         */
+        public Waveform getWaveform() {
+            return waveform;
+        }
+
+        /**
+         * @return Frame index of the compressed file, or null if it has none (e.g. WAV) or none was stored
+         */
+        public SeekTable getSeekTable() {
+            return seekTable;
+        }
+    }
+
+    private final File directory;
+
+    public AnalysisCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File fileFor(long hash) {
+        return new File(directory, String.format("%016x", hash) + FILE_SUFFIX);
+    }
+
+    public boolean contains(long hash) {
+        return fileFor(hash).isFile();
+    }
+
+    /**
+     * Store a result, replacing any previous entry for the hash
+     * @param waveform May be null
+     * @param seekTable May be null
+     */
+    public void put(long hash, AnalysisResult result, Waveform waveform, SeekTable seekTable) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory: " + directory);
+        }
+
+        // Write next to the final name and rename, so readers never see a partial file
+        File target = fileFor(hash);
+        File tmp = new File(directory, target.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeFloat(result.getBpm());
+            out.writeFloat(result.getBpmConfidence());
+            out.writeInt(result.getKeyCode());
+            out.writeFloat(result.getAnalyzedSeconds());
+            out.writeFloat(result.getBeatOffsetSeconds());
+            out.writeFloat(result.getIntegratedLoudness());
+            out.writeFloat(result.getTruePeakDb());
+            writeFloats(out, result.getFeatures());
+            writeLongs(out, result.getLandmarks());
+            Waveform.write(out, waveform);
+            SeekTable.write(out, seekTable);
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Cannot write cache entry: " + target);
+        }
+    }
+
+    /**
+     * @return The cached entry, or null if the track is not cached or the entry is unreadable
+     */
+    public Entry get(long hash) {
+        File file = fileFor(hash);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            float bpm = in.readFloat();
+            float bpmConfidence = in.readFloat();
+            int keyCode = in.readInt();
+            float analyzedSeconds = in.readFloat();
+            float beatOffsetSeconds = in.readFloat();
+            float integratedLoudness = in.readFloat();
+            float truePeakDb = in.readFloat();
+            float[] features = readFloats(in);
+            long[] landmarks = readLongs(in);
+            Waveform waveform = Waveform.read(in);
+            SeekTable seekTable = SeekTable.read(in);
+            if (features != null && features.length != FeatureExtractor.DIMENSIONS) {
+                features = null;  // Written with a different feature layout
+            }
+            return new Entry(new AnalysisResult(bpm, bpmConfidence, keyCode, analyzedSeconds,
+                beatOffsetSeconds, features, integratedLoudness, truePeakDb, landmarks), waveform, seekTable);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(values.length);
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static long[] readLongs(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > 1 << 20) {
+            throw new IOException("Corrupt cache entry");
+        }
+        if (count == 0) {
+            return null;
+        }
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    private static float[] readFloats(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > 1 << 20) {
+            throw new IOException("Corrupt cache entry");
+        }
+        if (count == 0) {
+            return null;
+        }
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readFloat();
+        }
+        return values;
+    }
+}
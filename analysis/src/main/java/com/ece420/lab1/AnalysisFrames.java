@@ -0,0 +1,219 @@
+package com.ece420.lab1;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shared framing stage of the analysis pass.
+ *
+ * Downmixes interleaved 16-bit PCM to mono once and slices it into overlapping
+ * FRAME_SIZE frames every HOP_LENGTH samples. Every registered listener sees the
+ * same frame, and the Hann-windowed FFT magnitude spectrum of a frame is computed
+ * at most once, on first request, no matter how many listeners ask for it.
+ *
+ * The per-sample path is fixed point: PCM is read straight from the ShortBuffer,
+ * downmixed with integer arithmetic into a 16-bit ring and its energy summed per
+ * hop in a long. Floats only appear at the onset-envelope rate, in getFrameRms(),
+ * or when a listener asks for the float frame or its spectrum.
+ *
+ * getFrameRms() matches a float implementation (downmix of sample / 32768.0f,
+ * then sqrt(sum of squares / FRAME_SIZE)) to within one 16-bit LSB, 1 / 32768,
+ * plus the float reference's own rounding: the integer downmix truncates each mono
+ * sample by less than one LSB, and RMS is a norm, so the RMS moves by less too.
+ */
+public class AnalysisFrames {
+    public static final int HOP_LENGTH = 512;
+    public static final int FRAME_SIZE = 2048;
+
+    /**
+     * Receives every analysis frame on the thread that feeds PCM
+     */
+    public interface FrameListener {
+        void onFrame(AnalysisFrames frames);
+    }
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final List<FrameListener> listeners = new ArrayList<>();
+
+    private static final int HOPS_PER_FRAME = FRAME_SIZE / HOP_LENGTH;
+
+    // 16-bit mono ring buffer, and the current frame as floats in time order on demand
+    private final short[] ring = new short[FRAME_SIZE];
+    private final float[] frame = new float[FRAME_SIZE];
+    private long frameConverted = -1;
+    private int ringPos;
+    private long monoSamples;
+    private long frameIndex = -1;
+    private int downmixAccumulator;
+    private int downmixChannel;
+
+    // Sum of squared mono samples per hop; a frame's energy is the last HOPS_PER_FRAME hops
+    private final long[] hopEnergy = new long[HOPS_PER_FRAME];
+    private long currentHopEnergy;
+    private int hopCount;
+    private float frameRms;
+
+    // Spectrum of the current frame, computed lazily
+    private FloatFFT_1D fft;
+    private float[] window;
+    private float[] fftBuffer;
+    private final float[] magnitudes = new float[FRAME_SIZE / 2 + 1];
+    private long magnitudesFrame = -1;
+
+    public AnalysisFrames(int sampleRate, int channelCount) {
+        this.sampleRate = sampleRate;
+        this.channelCount = Math.max(1, channelCount);
+    }
+
+    public void addListener(FrameListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Start over for another track in the same format, keeping the listeners and
+     * the FFT. The listeners reset their own state.
+     */
+    public void reset() {
+        Arrays.fill(ring, (short) 0);
+        frameConverted = -1;
+        ringPos = 0;
+        monoSamples = 0;
+        frameIndex = -1;
+        downmixAccumulator = 0;
+        downmixChannel = 0;
+        Arrays.fill(hopEnergy, 0);
+        currentHopEnergy = 0;
+        hopCount = 0;
+        frameRms = 0;
+        magnitudesFrame = -1;
+    }
+
+    /**
+     * Feed a block of interleaved 16-bit PCM, dispatching every completed frame
+     */
+    public void feed(ShortBuffer pcm) {
+        // Absolute reads straight from the codec buffer, no float conversion per sample
+        int limit = pcm.limit();
+        for (int i = pcm.position(); i < limit; i++) {
+            downmixAccumulator += pcm.get(i);
+            if (++downmixChannel < channelCount) {
+                continue;
+            }
+            int mono = downmixAccumulator / channelCount;
+            downmixAccumulator = 0;
+            downmixChannel = 0;
+
+            ring[ringPos] = (short) mono;
+            ringPos = (ringPos + 1) & (FRAME_SIZE - 1);
+            currentHopEnergy += mono * mono;
+            monoSamples++;
+
+            if (monoSamples % HOP_LENGTH == 0) {
+                hopEnergy[hopCount++ % HOPS_PER_FRAME] = currentHopEnergy;
+                currentHopEnergy = 0;
+
+                // One frame per hop once the first full frame is available
+                if (monoSamples >= FRAME_SIZE) {
+                    dispatchFrame();
+                }
+            }
+        }
+        pcm.position(limit);
+    }
+
+    private void dispatchFrame() {
+        long energy = 0;
+        for (long hop : hopEnergy) {
+            energy += hop;
+        }
+        frameRms = (float) Math.sqrt(energy / (double) FRAME_SIZE) / 32768.0f;
+        frameIndex++;
+
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onFrame(this);
+        }
+    }
+
+    /**
+     * @return RMS of the current mono frame on a 0..1 scale
+     */
+    public float getFrameRms() {
+        return frameRms;
+    }
+
+    /**
+     * @return The current mono frame as floats in -1..1, FRAME_SIZE samples in time order.
+     *         Converted on first request per frame. Read-only.
+     */
+    public float[] getFrame() {
+        if (frameConverted != frameIndex) {
+            // Unroll the ring oldest sample first
+            for (int i = 0; i < FRAME_SIZE; i++) {
+                frame[i] = ring[(ringPos + i) & (FRAME_SIZE - 1)] / 32768.0f;
+            }
+            frameConverted = frameIndex;
+        }
+        return frame;
+    }
+
+    /**
+     * @return Magnitude spectrum of the Hann-windowed current frame, FRAME_SIZE / 2 + 1 bins. Read-only.
+     */
+    public float[] getMagnitudes() {
+        if (magnitudesFrame == frameIndex) {
+            return magnitudes;
+        }
+        if (fft == null) {
+            fft = new FloatFFT_1D(FRAME_SIZE);
+            fftBuffer = new float[FRAME_SIZE];
+            window = new float[FRAME_SIZE];
+            for (int i = 0; i < FRAME_SIZE; i++) {
+                window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / FRAME_SIZE));
+            }
+        }
+
+        float[] samples = getFrame();
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            fftBuffer[i] = samples[i] * window[i];
+        }
+        fft.realForward(fftBuffer);
+
+        // realForward packs Re[0], Re[n/2], then (Re[k], Im[k]) pairs
+        magnitudes[0] = Math.abs(fftBuffer[0]);
+        magnitudes[FRAME_SIZE / 2] = Math.abs(fftBuffer[1]);
+        for (int k = 1; k < FRAME_SIZE / 2; k++) {
+            float re = fftBuffer[2 * k];
+            float im = fftBuffer[2 * k + 1];
+            magnitudes[k] = (float) Math.sqrt(re * re + im * im);
+        }
+        magnitudesFrame = frameIndex;
+        return magnitudes;
+    }
+
+    /**
+     * @return Index of the current frame, 0 for the first one
+     */
+    public long getFrameIndex() {
+        return frameIndex;
+    }
+
+    /**
+     * @return Mono samples consumed so far
+     */
+    public long getSamplePosition() {
+        return monoSamples;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+}
@@ -0,0 +1,91 @@
+package com.ece420.lab1;
+
+/**
+ * Results of one analysis pass over a track
+ */
+public class AnalysisResult {
+    private final float bpm;
+    private final float bpmConfidence;
+    private final int keyCode;
+    private final float analyzedSeconds;
+    private final float beatOffsetSeconds;
+    private final float[] features;
+    private final float integratedLoudness;
+    private final float truePeakDb;
+    private final long[] landmarks;
+
+    public AnalysisResult(float bpm, float bpmConfidence, int keyCode, float analyzedSeconds,
+                          float beatOffsetSeconds, float[] features, float integratedLoudness,
+                          float truePeakDb, long[] landmarks) {
+        this.bpm = bpm;
+        this.bpmConfidence = bpmConfidence;
+        this.keyCode = keyCode;
+        this.analyzedSeconds = analyzedSeconds;
+        this.beatOffsetSeconds = beatOffsetSeconds;
+        this.features = features;
+        this.integratedLoudness = integratedLoudness;
+        this.truePeakDb = truePeakDb;
+        this.landmarks = landmarks;
+    }
+
+    public float getBpm() {
+        return bpm;
+    }
+
+    public float getBpmConfidence() {
+        return bpmConfidence;
+    }
+
+    /**
+     * @return Camelot key code, see KeyDetector
+     */
+    public int getKeyCode() {
+        return keyCode;
+    }
+
+    public float getAnalyzedSeconds() {
+        return analyzedSeconds;
+    }
+
+    /**
+     * @return Time of the first beat, the beat grid continues every 60 / BPM seconds
+     */
+    public float getBeatOffsetSeconds() {
+        return beatOffsetSeconds;
+    }
+
+    /**
+     * @return Similarity feature vector, see FeatureExtractor, or null if unavailable
+     */
+    public float[] getFeatures() {
+        return features;
+    }
+
+    /**
+     * @return BS.1770 integrated loudness in LUFS, negative infinity for silence or if unmeasured
+     */
+    public float getIntegratedLoudness() {
+        return integratedLoudness;
+    }
+
+    /**
+     * @return True peak in dBTP, negative infinity for silence or if unmeasured
+     */
+    public float getTruePeakDb() {
+        return truePeakDb;
+    }
+
+    /**
+     * @return Fingerprint landmarks of the track's opening, see Fingerprinter, or null if unavailable
+     */
+    public long[] getLandmarks() {
+        return landmarks;
+    }
+
+    /**
+     * @return Playback gain in dB that levels the track, see LoudnessMeter.autoGainDb()
+     */
+    public float getAutoGainDb() {
+        return LoudnessMeter.autoGainDb(integratedLoudness, truePeakDb);
+    }
+}
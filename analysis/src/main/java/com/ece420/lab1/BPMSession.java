@@ -0,0 +1,500 @@
+package com.ece420.lab1;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Incremental BPM analysis fed with decoded PCM blocks.
+ *
+ * The session listens to the shared analysis frames, builds the RMS onset
+ * envelope hop by hop and re-runs the autocorrelation tempo search every couple
+ * of seconds of audio. Each estimate is published with a confidence value so the
+ * UI can treat a track as mixable before the whole analysis budget is decoded.
+ *
+ * For a track that is already decoded, analyze() computes the envelope with
+ * OnsetEnvelope and the autocorrelations on a ForkJoinPool, and replays the
+ * envelope through the same estimation schedule, so the estimates, the final BPM
+ * and the beat grid are identical to a serial pass.
+ *
+ * Estimates work in scratch arrays that only grow with the onset envelope's high
+ * water mark, and reset() readies a session for the next track, so a reused
+ * session analyzes it without allocating.
+ */
+public class BPMSession implements AnalysisFrames.FrameListener {
+    // Constants matching the Python implementation
+    static final int HOP_LENGTH = AnalysisFrames.HOP_LENGTH;
+    static final int FRAME_SIZE = AnalysisFrames.FRAME_SIZE;
+    static final int MIN_BPM = 160;
+    static final int MAX_BPM = 190;
+    private static final int WINDOW_SIZE = 16;  // For moving average
+    private static final int MAX_HARMONICS = 8;  // Check up to 8 harmonics
+
+    public static final float DEFAULT_BPM = 175.0f;
+
+    // Progressive estimation parameters
+    private static final float FIRST_ESTIMATE_SEC = 4.0f;   // Provisional estimate after this much audio
+    private static final float UPDATE_INTERVAL_SEC = 2.0f;  // Re-estimate every 2 seconds of audio
+    private static final float MIN_CONVERGE_SEC = 10.0f;    // Never stop before this much audio
+    private static final float CONVERGED_TOLERANCE = 0.5f;  // BPM spread allowed between estimates
+    private static final int CONVERGED_RUN = 3;             // Consecutive agreeing estimates
+    private static final int STABILITY_HISTORY = 4;
+
+    private static final int MAX_AUTOCORRELATION_LAGS = 1000;  // Limit for performance
+
+    // Multiply-adds below which an autocorrelation is not split across the pool
+    private static final long PARALLEL_MIN_WORK = 1 << 20;
+
+    /**
+     * Receives tempo estimates as the session refines them. Called on the thread
+     * that feeds the session.
+     */
+    public interface Listener {
+        void onTempoEstimate(float bpm, float confidence, boolean isFinal);
+    }
+
+    private final AnalysisFrames frames;
+    private final int sampleRate;
+    private long budgetFrames;
+    private Listener listener;
+    private ForkJoinPool pool;  // Null to compute autocorrelations on the calling thread
+    private long monoFrames;
+
+    // Onset envelope, one value per hop
+    private float[] onset = new float[1024];
+    private int onsetCount;
+
+    // Scratch for the estimates, as long as onset
+    private float[] onsetMean = new float[onset.length];
+    private float[] onsetHWR = new float[onset.length];
+    private float[] autocorr = new float[MAX_AUTOCORRELATION_LAGS];
+
+    // Tempo candidates as parallel arrays, one per lag in the search range
+    private int[] candidateLags = new int[16];
+    private float[] candidateScores = new float[16];
+
+    // Estimation state
+    private final float[] recentEstimates = new float[STABILITY_HISTORY];
+    private int estimateCount;
+    private long nextEstimateFrame;
+    private float bpm = DEFAULT_BPM;
+    private float confidence;
+    private float periodicity;
+    private float beatOffsetSec;
+    private float bestScore;
+    private boolean converged;
+    private boolean finished;
+
+    /**
+     * Standalone session with its own framing stage
+     * @param sampleRate Sample rate of the decoded PCM
+     * @param channelCount Number of interleaved channels in the decoded PCM
+     * @param budgetSec Maximum seconds of audio to analyse before the estimate is final
+     * @param listener Receives provisional and final estimates, may be null
+     */
+    public BPMSession(int sampleRate, int channelCount, float budgetSec, Listener listener) {
+        this(new AnalysisFrames(sampleRate, channelCount), budgetSec, listener);
+    }
+
+    /**
+     * Session listening to frames shared with other analysis stages
+     */
+    public BPMSession(AnalysisFrames frames, float budgetSec, Listener listener) {
+        this.frames = frames;
+        this.sampleRate = frames.getSampleRate();
+        this.budgetFrames = (long) (budgetSec * sampleRate);
+        this.listener = listener;
+        this.nextEstimateFrame = (long) (FIRST_ESTIMATE_SEC * sampleRate);
+        frames.addListener(this);
+    }
+
+    /**
+     * Ready the session for another track fed through the same frames, which the
+     * caller resets too. Keeps the envelope and scratch arrays.
+     * @param budgetSec Maximum seconds of audio to analyse before the estimate is final
+     * @param listener Receives provisional and final estimates, may be null
+     */
+    public void reset(float budgetSec, Listener listener) {
+        this.budgetFrames = (long) (budgetSec * sampleRate);
+        this.listener = listener;
+        nextEstimateFrame = (long) (FIRST_ESTIMATE_SEC * sampleRate);
+        monoFrames = 0;
+        onsetCount = 0;
+        Arrays.fill(recentEstimates, 0);
+        estimateCount = 0;
+        bpm = DEFAULT_BPM;
+        confidence = 0;
+        periodicity = 0;
+        beatOffsetSec = 0;
+        bestScore = 0;
+        converged = false;
+        finished = false;
+    }
+
+    /**
+     * Analyze the tempo of a decoded track on a ForkJoinPool: the onset envelope in
+     * segments, then each estimate's autocorrelation split by lag. Gives the same
+     * results as feeding the track through a serial session with the same budget.
+     * @param listener Receives provisional and final estimates on the calling thread, may be null
+     * @return The finished session
+     */
+    public static BPMSession analyze(SampleStore samples, float budgetSec, Listener listener, ForkJoinPool pool) {
+        BPMSession session = new BPMSession(samples.getSampleRate(), samples.getChannelCount(), budgetSec, listener);
+        session.pool = pool;
+        // The last frame taken starts before the budget is used up and ends up to a hop later
+        float[] envelope = OnsetEnvelope.compute(samples, session.budgetFrames + HOP_LENGTH, pool);
+        session.feedEnvelope(envelope);
+        session.finish();
+        return session;
+    }
+
+    /**
+     * Feed a block of interleaved 16-bit PCM through the session's framing stage.
+     * @return true while the session wants more audio, false once it has converged
+     *         or the analysis budget is used up
+     */
+    public boolean feed(ShortBuffer pcm) {
+        if (!wantsMore()) {
+            return false;
+        }
+        frames.feed(pcm);
+        return wantsMore();
+    }
+
+    /**
+     * @return false once the session has converged, finished or used up its budget
+     */
+    public boolean wantsMore() {
+        return !finished && !converged && monoFrames < budgetFrames;
+    }
+
+    @Override
+    public void onFrame(AnalysisFrames frames) {
+        addOnset(frames.getSamplePosition(), frames.getFrameRms());
+    }
+
+    /**
+     * Feed a precomputed onset envelope, one value per analysis frame from the
+     * first, exactly as onFrame() would have seen it
+     */
+    public void feedEnvelope(float[] envelope) {
+        for (int frame = 0; frame < envelope.length && wantsMore(); frame++) {
+            addOnset(FRAME_SIZE + (long) frame * HOP_LENGTH, envelope[frame]);
+        }
+    }
+
+    private void addOnset(long samplePosition, float rms) {
+        if (!wantsMore()) {
+            return;
+        }
+        monoFrames = samplePosition;
+        appendOnset(rms);
+
+        if (monoFrames >= nextEstimateFrame) {
+            estimate();
+            nextEstimateFrame += (long) (UPDATE_INTERVAL_SEC * sampleRate);
+        }
+    }
+
+    /**
+     * Finish the session and publish the final estimate.
+     * @return Final BPM, or the default BPM if too little audio was fed
+     */
+    public float finish() {
+        if (finished) {
+            return bpm;
+        }
+        finished = true;
+
+        if (!converged && onsetCount > 0) {
+            estimate();
+        }
+        if (onsetCount > 1) {
+            halfWaveRectify(onsetCount);
+            beatOffsetSec = findBeatOffset(onsetHWR, onsetCount, bpm);
+        }
+        if (listener != null) {
+            listener.onTempoEstimate(bpm, confidence, true);
+        }
+        return bpm;
+    }
+
+    public float getBpm() {
+        return bpm;
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return How strongly the onset envelope repeats at the detected tempo, 0..1
+     */
+    public float getPeriodicity() {
+        return periodicity;
+    }
+
+    /**
+     * @return Time of the first beat in seconds, valid after finish(). Beats fall on
+     *         this offset plus multiples of 60 / BPM.
+     */
+    public float getBeatOffsetSeconds() {
+        return beatOffsetSec;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * @return Mono frames analyzed so far
+     */
+    public long getAnalyzedFrames() {
+        return monoFrames;
+    }
+
+    public float getAnalyzedSeconds() {
+        return monoFrames / (float) sampleRate;
+    }
+
+    private void appendOnset(float value) {
+        if (onsetCount == onset.length) {
+            onset = Arrays.copyOf(onset, onset.length * 2);
+            onsetMean = new float[onset.length];
+            onsetHWR = new float[onset.length];
+        }
+        onset[onsetCount++] = value;
+    }
+
+    private void estimate() {
+        if (onsetCount < 2) {
+            return;
+        }
+
+        // Half-wave rectification, autocorrelation and multi-harmonic scoring
+        halfWaveRectify(onsetCount);
+        int lags = computeAutocorrelation(onsetCount);
+        float estimate = findBestTempo(lags, sampleRate);
+
+        // Stability: how many recent estimates agree with this one
+        int history = Math.min(estimateCount, STABILITY_HISTORY);
+        int agreeing = 0;
+        for (int i = 0; i < history; i++) {
+            if (Math.abs(recentEstimates[i] - estimate) <= 1.0f) {
+                agreeing++;
+            }
+        }
+        float stability = history > 0 ? agreeing / (float) history : 0;
+
+        // Periodicity: harmonic score of the winning lag relative to signal energy
+        float periodicity = autocorr[0] > 0 ? Math.min(1.0f, 2.0f * bestScore / autocorr[0]) : 0;
+        float coverage = Math.min(1.0f, getAnalyzedSeconds() / MIN_CONVERGE_SEC);
+
+        confidence = 0.5f * stability + 0.3f * periodicity + 0.2f * coverage;
+        this.periodicity = periodicity;
+        bpm = estimate;
+
+        recentEstimates[estimateCount % STABILITY_HISTORY] = estimate;
+        estimateCount++;
+
+        converged = getAnalyzedSeconds() >= MIN_CONVERGE_SEC && hasConverged();
+
+        if (listener != null && !finished) {
+            listener.onTempoEstimate(bpm, confidence, false);
+        }
+    }
+
+    private boolean hasConverged() {
+        if (estimateCount < CONVERGED_RUN) {
+            return false;
+        }
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = 1; i <= CONVERGED_RUN; i++) {
+            float value = recentEstimates[(estimateCount - i) % STABILITY_HISTORY];
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return max - min <= CONVERGED_TOLERANCE;
+    }
+
+    /**
+     * Find the beat phase: the offset whose comb of beat-spaced onset frames
+     * collects the most onset strength.
+     */
+    private float findBeatOffset(float[] onsetHWR, int length, float tempo) {
+        float period = 60.0f * sampleRate / (tempo * HOP_LENGTH);  // In onset frames
+        int bestPhase = 0;
+        float bestStrength = -1;
+        for (int phase = 0; phase < (int) Math.ceil(period); phase++) {
+            float strength = 0;
+            for (float t = phase; t < length; t += period) {
+                strength += onsetHWR[(int) t];
+            }
+            if (strength > bestStrength) {
+                bestStrength = strength;
+                bestPhase = phase;
+            }
+        }
+
+        // RMS rises on the first frame whose window reaches the onset, so the
+        // onset itself sits near the end of that frame
+        float offset = (bestPhase * HOP_LENGTH + FRAME_SIZE - HOP_LENGTH / 2) / (float) sampleRate;
+        float beatPeriodSec = 60.0f / tempo;
+        return offset % beatPeriodSec;
+    }
+
+    /**
+     * Fill onsetHWR with the first length onset values minus their moving average, floored at 0
+     */
+    private void halfWaveRectify(int length) {
+        // Apply moving average
+        movingAverage(onset, length, WINDOW_SIZE, onsetMean);
+
+        // Half-wave rectification: max(0, onset - mean)
+        for (int i = 0; i < length; i++) {
+            onsetHWR[i] = Math.max(0, onset[i] - onsetMean[i]);
+        }
+    }
+
+    private static void movingAverage(float[] signal, int length, int windowSize, float[] averaged) {
+        for (int i = 0; i < length; i++) {
+            int start = Math.max(0, i - windowSize / 2);
+            int end = Math.min(length, i + windowSize / 2 + 1);
+
+            float sum = 0;
+            for (int j = start; j < end; j++) {
+                sum += signal[j];
+            }
+            averaged[i] = sum / (end - start);
+        }
+    }
+
+    /**
+     * Autocorrelate the first length values of onsetHWR into autocorr
+     * @return Number of lags computed
+     */
+    private int computeAutocorrelation(int length) {
+        // Compute autocorrelation for all lags up to signal length
+        int maxLag = Math.min(length, MAX_AUTOCORRELATION_LAGS);
+
+        if (pool != null && (long) maxLag * length >= PARALLEL_MIN_WORK) {
+            // Each lag is still summed in order by one worker, so the values do not change
+            pool.invoke(new AutocorrelationTask(onsetHWR, length, autocorr, 0, maxLag));
+        } else {
+            autocorrelate(onsetHWR, length, autocorr, 0, maxLag);
+        }
+
+        return maxLag;
+    }
+
+    private static void autocorrelate(float[] signal, int length, float[] autocorr, int fromLag, int toLag) {
+        for (int lag = fromLag; lag < toLag; lag++) {
+            float sum = 0;
+            int count = 0;
+
+            for (int i = 0; i < length - lag; i++) {
+                sum += signal[i] * signal[i + lag];
+                count++;
+            }
+
+            autocorr[lag] = count > 0 ? sum / count : 0;
+        }
+    }
+
+    private static class AutocorrelationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] signal;
+        private final int length;
+        private final float[] autocorr;
+        private final int fromLag;
+        private final int toLag;
+
+        AutocorrelationTask(float[] signal, int length, float[] autocorr, int fromLag, int toLag) {
+            this.signal = signal;
+            this.length = length;
+            this.autocorr = autocorr;
+            this.fromLag = fromLag;
+            this.toLag = toLag;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) (toLag - fromLag) * length <= PARALLEL_MIN_WORK || toLag - fromLag < 2) {
+                autocorrelate(signal, length, autocorr, fromLag, toLag);
+                return;
+            }
+            int middle = (fromLag + toLag) >>> 1;
+            invokeAll(new AutocorrelationTask(signal, length, autocorr, fromLag, middle),
+                new AutocorrelationTask(signal, length, autocorr, middle, toLag));
+        }
+    }
+
+    /**
+     * @param lags Number of valid autocorrelation values
+     */
+    private float findBestTempo(int lags, int sampleRate) {
+        // Calculate lag range for 160-190 BPM
+        int minLag = (int) ((60.0f / MAX_BPM) * sampleRate / HOP_LENGTH);  // ~27
+        int maxLag = (int) ((60.0f / MIN_BPM) * sampleRate / HOP_LENGTH);  // ~32
+
+        // Make sure lags are within bounds
+        minLag = Math.max(1, minLag);
+        maxLag = Math.min(lags - 1, maxLag);
+
+        int candidates = Math.max(0, maxLag - minLag + 1);
+        if (candidateLags.length < candidates) {
+            candidateLags = new int[candidates];
+            candidateScores = new float[candidates];
+        }
+
+        // Score each candidate lag using multi-harmonic approach
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            float score = 0;
+            int count = 0;
+
+            // Check harmonics (matching Python implementation)
+            for (int i = 1; i <= MAX_HARMONICS; i++) {
+                int harmonicLag = i * lag;
+                if (harmonicLag < lags) {
+                    score += autocorr[harmonicLag];
+                    count++;
+                }
+            }
+
+            if (count > 0) {
+                score = score / count;
+            }
+
+            candidateLags[lag - minLag] = lag;
+            candidateScores[lag - minLag] = score;
+        }
+
+        if (candidates == 0) {
+            bestScore = 0;
+            return DEFAULT_BPM;
+        }
+
+        // Best lag: the highest score, the shortest lag among equal scores
+        int best = 0;
+        for (int c = 1; c < candidates; c++) {
+            if (Float.compare(candidateScores[c], candidateScores[best]) > 0) {
+                best = c;
+            }
+        }
+        int bestLag = candidateLags[best];
+        bestScore = candidateScores[best];
+
+        // Convert lag to BPM. Only lags in the range are scored, so half and double
+        // time fold into it through the harmonics: an 85 BPM beat at twice the lag
+        // lifts the 170 BPM candidate, and 340 BPM onsets score at every other harmonic
+        float tempo = 60.0f / (bestLag * HOP_LENGTH / (float) sampleRate);
+
+        // The truncated shortest lag reads above MAX_BPM (~191 at 44.1 kHz), e.g. for a 200 BPM track
+        tempo = Math.max(MIN_BPM, Math.min(MAX_BPM, tempo));
+
+        return tempo;
+    }
+}
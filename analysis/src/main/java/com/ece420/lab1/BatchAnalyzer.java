@@ -0,0 +1,185 @@
+package com.ece420.lab1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Command-line batch analyzer for desktop and server JVMs.
+ *
+ * Walks a directory of WAV and raw PCM files and runs the same BPM, key,
+ * feature, beat grid and waveform analysis as the app, one track per thread of a
+ * fork-join pool (--threads, available processors by default). With fewer tracks
+ * than threads, such as a single long mix, each track is decoded first and its
+ * tempo analysis is split across the pool instead. Results go to an AnalysisCache directory; copy it into the app's
+ * external files directory, e.g.
+ * <pre>
+ *     adb push cache/. /sdcard/Android/data/com.ece420.lab1/files/analysis/
+ * </pre>
+ * and importing those tracks skips on-device analysis.
+ */
+public class BatchAnalyzer {
+    private static final String USAGE =
+        "Usage: BatchAnalyzer <input dir> <cache dir> [--threads N] [--budget SECONDS] [--force]";
+
+    private final AnalysisCache cache;
+    private final float budgetSec;
+    private final boolean force;
+    private volatile ForkJoinPool trackPool;  // Set when tracks are split across the pool
+
+    private final AtomicInteger analyzed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong audioMillis = new AtomicLong();
+
+    // One analysis per worker, reset for each of its tracks
+    private final ThreadLocal<TrackAnalysis> analyses = new ThreadLocal<>();
+
+    public BatchAnalyzer(AnalysisCache cache, float budgetSec, boolean force) {
+        this.cache = cache;
+        this.budgetSec = budgetSec;
+        this.force = force;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        float budget = TrackAnalysis.DEFAULT_BUDGET_SEC;
+        boolean force = false;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--budget":
+                    budget = Float.parseFloat(args[++i]);
+                    break;
+                case "--force":
+                    force = true;
+                    break;
+                default:
+                    System.err.println(USAGE);
+                    System.exit(2);
+            }
+        }
+
+        List<Path> inputs;
+        try (Stream<Path> walk = Files.walk(Paths.get(args[0]))) {
+            inputs = walk.filter(Files::isRegularFile)
+                .filter(BatchAnalyzer::isSupported)
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        System.out.println("Analyzing " + inputs.size() + " files on " + threads + " threads");
+
+        BatchAnalyzer analyzer = new BatchAnalyzer(new AnalysisCache(new File(args[1])), budget, force);
+        long start = System.nanoTime();
+        analyzer.run(inputs, threads);
+        analyzer.printSummary((System.nanoTime() - start) / 1e9);
+        System.exit(analyzer.failed.get() > 0 ? 1 : 0);
+    }
+
+    static boolean isSupported(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".wav") || name.endsWith(".pcm");
+    }
+
+    /**
+     * Analyze every input on a pool of the given size, one track per task
+     */
+    public void run(List<Path> inputs, int threads) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        trackPool = inputs.size() < threads ? pool : null;
+        try {
+            // A parallel stream started inside the pool runs on the pool's workers
+            pool.submit(() -> inputs.parallelStream().forEach(this::analyzeFile)).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void analyzeFile(Path path) {
+        File file = path.toFile();
+        try {
+            long hash = ContentHash.of(file);
+            if (!force && cache.contains(hash)) {
+                skipped.incrementAndGet();
+                return;
+            }
+
+            AnalysisResult result;
+            Waveform waveform;
+            try (PcmFileReader reader = new PcmFileReader(file)) {
+                WaveformPeaks peaks = new WaveformPeaks(reader.getChannelCount());
+                WaveformBands bands = new WaveformBands(reader.getSampleRate(), reader.getChannelCount());
+                ForkJoinPool pool = trackPool;
+
+                if (pool != null) {
+                    // Decode the whole track, then analyze it in segments on the pool
+                    try (SampleStore samples = SampleStore.inMemory(reader.getSampleRate(), reader.getChannelCount())) {
+                        ShortBuffer block;
+                        while ((block = reader.read()) != null) {
+                            samples.append(block.duplicate());
+                            bands.add(block);
+                            peaks.add(block);
+                        }
+                        result = TrackAnalysis.analyze(samples, budgetSec, null, pool);
+                    }
+                } else {
+                    TrackAnalysis analysis = analyses.get();
+                    if (analysis == null) {
+                        analysis = new TrackAnalysis(reader.getSampleRate(), reader.getChannelCount(), budgetSec, null);
+                        analyses.set(analysis);
+                    } else {
+                        analysis.reset(reader.getSampleRate(), reader.getChannelCount(), budgetSec, null);
+                    }
+
+                    // Waveform and loudness cover the whole track, the frame stages stop once they have enough
+                    ShortBuffer block;
+                    while ((block = reader.read()) != null) {
+                        analysis.feed(block.duplicate());
+                        bands.add(block);
+                        peaks.add(block);
+                    }
+                    result = analysis.finish();
+                }
+                waveform = Waveform.reduce(peaks, bands, AnalysisCache.WAVEFORM_POINTS);
+                audioMillis.addAndGet((long) (reader.getDurationSeconds() * 1000));
+            }
+
+            cache.put(hash, result, waveform, null);  // PCM and WAV input have no frames to index
+            analyzed.incrementAndGet();
+            String key = KeyDetector.toCamelot(result.getKeyCode());
+            System.out.println(String.format(Locale.ROOT, "%6.1f BPM  %-3s  %s",
+                result.getBpm(), key != null ? key : "-", path));
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            System.err.println("Failed: " + path + ": " + e);
+        }
+    }
+
+    private void printSummary(double seconds) {
+        int done = analyzed.get();
+        System.out.println(String.format(Locale.ROOT,
+            "Analyzed %d tracks (%d already cached, %d failed) in %.1f s: %.1f tracks/s, %.0fx realtime",
+            done, skipped.get(), failed.get(), seconds, done / seconds,
+            audioMillis.get() / 1000.0 / seconds));
+    }
+}
@@ -0,0 +1,50 @@
+package com.ece420.lab1;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Content hash identifying an audio file across copies and devices. The track
+ * library and the analysis cache are both keyed by it.
+ */
+public class ContentHash {
+    private static final int HASH_SAMPLE_BYTES = 256 * 1024;
+
+    /**
+     * 64-bit FNV-1a hash of the file length and its first and last 256 KB.
+     * Cheap enough to run on every import and stable across copies of the same file.
+     */
+    public static long of(File audioFile) throws IOException {
+        long hash = 0xcbf29ce484222325L;
+        long length = audioFile.length();
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ ((length >>> (8 * i)) & 0xFF)) * 0x100000001b3L;
+        }
+
+        try (FileInputStream in = new FileInputStream(audioFile);
+             FileChannel fileChannel = in.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(HASH_SAMPLE_BYTES);
+            hash = hashRange(fileChannel, 0, buffer, hash);
+            if (length > HASH_SAMPLE_BYTES) {
+                hash = hashRange(fileChannel, Math.max(HASH_SAMPLE_BYTES, length - HASH_SAMPLE_BYTES), buffer, hash);
+            }
+        }
+        return hash;
+    }
+
+    private static long hashRange(FileChannel fileChannel, long position, ByteBuffer buffer, long hash)
+        throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && fileChannel.read(buffer, position + buffer.position()) > 0) {
+            // Keep reading until the buffer is full or the file ends
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            hash = (hash ^ (buffer.get() & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
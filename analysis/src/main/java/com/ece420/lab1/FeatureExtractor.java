@@ -0,0 +1,158 @@
+package com.ece420.lab1;
+
+import java.util.Arrays;
+
+/**
+ * Timbre and rhythm feature vector for "sounds like this" suggestions.
+ *
+ * Listens to the shared analysis frames and reuses their FFT spectrum, so the
+ * features come out of the same decode pass as BPM and key. The vector holds:
+ * <pre>
+ *     0..7   energy share of 8 log-spaced bands (40 Hz - 16 kHz), square-rooted
+ *     8      onset density, spectral flux peaks per second / MAX_ONSETS_PER_SEC
+ *     9      tempo stability, the periodicity of the BPM onset envelope
+ *     10     loudness, mean frame RMS mapped from -60..0 dBFS
+ *     11     brightness, spectral centroid / MAX_CENTROID_HZ
+ * </pre>
+ * Every dimension lies in [0, 1] so plain Euclidean distance weighs them evenly.
+ */
+public class FeatureExtractor implements AnalysisFrames.FrameListener {
+    public static final int DIMENSIONS = 12;
+    public static final int BAND_COUNT = 8;
+
+    private static final int SPECTRUM_STRIDE = 4;  // Same spectra the key detector uses
+    private static final float MIN_BAND_HZ = 40.0f;
+    private static final float MAX_BAND_HZ = 16000.0f;
+    private static final float MAX_ONSETS_PER_SEC = 8.0f;
+    private static final float MAX_CENTROID_HZ = 8000.0f;
+    private static final float LOUDNESS_FLOOR_DB = -60.0f;
+
+    // Flux above this multiple of its running mean counts as an onset
+    private static final float ONSET_RATIO = 1.5f;
+    // ...and is at least this share of the frame's spectrum, so steady tones never trigger
+    private static final float MIN_FLUX_SHARE = 0.1f;
+    private static final float FLUX_SMOOTHING = 0.05f;
+
+    private final float[] bandEnergy = new float[BAND_COUNT];
+    private int[] binBand;
+    private float[] binHz;
+    private float[] previousMagnitudes;
+
+    private double centroidSum;
+    private double rmsDbSum;
+    private float fluxMean;
+    private boolean inOnset;
+    private int onsets;
+    private int framesUsed;
+    private long lastSample;
+    private int sampleRate;
+
+    public FeatureExtractor(AnalysisFrames frames) {
+        frames.addListener(this);
+    }
+
+    /**
+     * Start over for another track from the same frames
+     */
+    public void reset() {
+        Arrays.fill(bandEnergy, 0);
+        if (previousMagnitudes != null) {
+            Arrays.fill(previousMagnitudes, 0);
+        }
+        centroidSum = 0;
+        rmsDbSum = 0;
+        fluxMean = 0;
+        inOnset = false;
+        onsets = 0;
+        framesUsed = 0;
+        lastSample = 0;
+    }
+
+    @Override
+    public void onFrame(AnalysisFrames frames) {
+        if (frames.getFrameIndex() % SPECTRUM_STRIDE != 0) {
+            return;
+        }
+        if (binBand == null) {
+            buildBinMap(frames.getSampleRate());
+        }
+        lastSample = frames.getSamplePosition();
+
+        float[] magnitudes = frames.getMagnitudes();
+        float total = 0;
+        float weighted = 0;
+        float flux = 0;
+        for (int k = 1; k < magnitudes.length; k++) {
+            float m = magnitudes[k];
+            float energy = m * m;
+            if (binBand[k] >= 0) {
+                bandEnergy[binBand[k]] += energy;
+            }
+            total += m;
+            weighted += m * binHz[k];
+            flux += Math.max(0, m - previousMagnitudes[k]);
+            previousMagnitudes[k] = m;
+        }
+        if (total > 0) {
+            centroidSum += weighted / total;
+        }
+
+        // Count rising edges of flux peaks, skipping the first frame with no predecessor
+        if (framesUsed > 0) {
+            boolean onset = flux > ONSET_RATIO * fluxMean && flux > MIN_FLUX_SHARE * total;
+            if (onset && !inOnset) {
+                onsets++;
+            }
+            inOnset = onset;
+        }
+        fluxMean += FLUX_SMOOTHING * (flux - fluxMean);
+
+        float rms = frames.getFrameRms();
+        rmsDbSum += Math.max(LOUDNESS_FLOOR_DB, 20 * (float) Math.log10(Math.max(rms, 1e-6f)));
+        framesUsed++;
+    }
+
+    private void buildBinMap(int sampleRate) {
+        this.sampleRate = sampleRate;
+        int bins = AnalysisFrames.FRAME_SIZE / 2 + 1;
+        float hzPerBin = sampleRate / (float) AnalysisFrames.FRAME_SIZE;
+        double bandRatio = Math.log(MAX_BAND_HZ / MIN_BAND_HZ) / BAND_COUNT;
+
+        binBand = new int[bins];
+        binHz = new float[bins];
+        previousMagnitudes = new float[bins];
+        for (int k = 0; k < bins; k++) {
+            float hz = k * hzPerBin;
+            binHz[k] = hz;
+            binBand[k] = hz < MIN_BAND_HZ || hz >= MAX_BAND_HZ
+                ? -1
+                : (int) (Math.log(hz / MIN_BAND_HZ) / bandRatio);
+        }
+    }
+
+    /**
+     * @param tempoStability Periodicity of the onset envelope from BPMSession
+     * @return Feature vector of DIMENSIONS values, or null without enough audio
+     */
+    public float[] getFeatures(float tempoStability) {
+        if (framesUsed < 2) {
+            return null;
+        }
+
+        float[] features = new float[DIMENSIONS];
+        float total = 0;
+        for (float energy : bandEnergy) {
+            total += energy;
+        }
+        for (int i = 0; i < BAND_COUNT; i++) {
+            features[i] = total > 0 ? (float) Math.sqrt(bandEnergy[i] / total) : 0;
+        }
+
+        float seconds = lastSample / (float) sampleRate;
+        features[BAND_COUNT] = Math.min(1.0f, onsets / seconds / MAX_ONSETS_PER_SEC);
+        features[BAND_COUNT + 1] = Math.max(0, Math.min(1.0f, tempoStability));
+        features[BAND_COUNT + 2] = (float) (1.0 - rmsDbSum / framesUsed / LOUDNESS_FLOOR_DB);
+        features[BAND_COUNT + 3] = (float) Math.min(1.0, centroidSum / framesUsed / MAX_CENTROID_HZ);
+        return features;
+    }
+}
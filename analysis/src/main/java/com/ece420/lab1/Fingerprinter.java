@@ -0,0 +1,191 @@
+package com.ece420.lab1;
+
+import java.util.Arrays;
+
+/**
+ * Landmark audio fingerprint of a track's opening seconds, for recognizing the
+ * same recording in another file, container or bitrate.
+ *
+ * Listens to the same analysis frames as KeyDetector and uses the spectra it
+ * already has computed (every SPECTRUM_STRIDE-th frame), so it costs no FFT of its
+ * own. The strongest bin of each frequency band in every block of BLOCK_SPECTRA
+ * spectra is a peak. Each peak is paired with the next FAN_OUT peaks less than
+ * TARGET_ZONE_SEC later, and the pair's two frequencies and time difference
+ * form a 24-bit landmark hash. Times and frequencies are in fixed units rather
+ * than frames and bins, so files at different sample rates give the same hashes.
+ *
+ * Landmarks are packed into longs: the hash in the upper 32 bits, the anchor
+ * peak's time in TIME_UNIT_SEC units in the lower 32.
+ */
+public class Fingerprinter implements AnalysisFrames.FrameListener {
+    // Audio fingerprinted from the start of the track
+    public static final float FINGERPRINT_SEC = 10.0f;
+    public static final float TIME_UNIT_SEC = 0.01f;
+
+    private static final int SPECTRUM_STRIDE = 4;  // The frames KeyDetector takes spectra of
+    private static final int BLOCK_SPECTRA = 2;    // ~93 ms at 44.1 kHz
+    private static final float FREQUENCY_UNIT_HZ = 20.0f;  // 8 bits up to 5.1 kHz
+    private static final float[] BAND_EDGES_HZ = {150, 400, 1000, 2200, 5000};
+    private static final int FAN_OUT = 3;
+    private static final float TARGET_ZONE_SEC = 2.0f;  // Time differences fit in 8 bits of TIME_UNIT_SEC
+    // Peaks weaker than this are silence or noise floor; a full-scale sine reads ~512
+    private static final float MIN_MAGNITUDE = 0.5f;
+
+    private static final int BANDS = BAND_EDGES_HZ.length - 1;
+
+    private final long endSample;
+    private int[] bandStart;
+    private int[] bandEnd;
+    private float binHz;
+
+    // Strongest bin per band in the current block
+    private final float[] blockMagnitude = new float[BANDS];
+    private final int[] blockBin = new int[BANDS];
+    private final int[] blockTime = new int[BANDS];
+    private int blockFill;
+
+    // Peaks in time order: time in TIME_UNIT_SEC units, frequency in FREQUENCY_UNIT_HZ units
+    private int[] peakTimes = new int[256];
+    private int[] peakFrequencies = new int[256];
+    private int peakCount;
+    private boolean complete;
+
+    // Landmarks before they are trimmed to their count, grown to the largest seen
+    private long[] landmarkScratch = new long[256 * FAN_OUT];
+
+    public Fingerprinter(AnalysisFrames frames) {
+        endSample = (long) (FINGERPRINT_SEC * frames.getSampleRate());
+        frames.addListener(this);
+    }
+
+    /**
+     * Start over for another track from the same frames
+     */
+    public void reset() {
+        Arrays.fill(blockMagnitude, 0);
+        Arrays.fill(blockBin, 0);
+        Arrays.fill(blockTime, 0);
+        blockFill = 0;
+        peakCount = 0;
+        complete = false;
+    }
+
+    @Override
+    public void onFrame(AnalysisFrames frames) {
+        if (complete || frames.getFrameIndex() % SPECTRUM_STRIDE != 0) {
+            return;
+        }
+        if (frames.getSamplePosition() > endSample) {
+            closeBlock();
+            complete = true;
+            return;
+        }
+        if (bandStart == null) {
+            buildBands(frames.getSampleRate());
+        }
+
+        float[] magnitudes = frames.getMagnitudes();
+        int time = Math.round(frames.getFrameIndex() * AnalysisFrames.HOP_LENGTH
+            / (float) frames.getSampleRate() / TIME_UNIT_SEC);
+        for (int band = 0; band < BANDS; band++) {
+            for (int k = bandStart[band]; k < bandEnd[band]; k++) {
+                if (magnitudes[k] > blockMagnitude[band]) {
+                    blockMagnitude[band] = magnitudes[k];
+                    blockBin[band] = k;
+                    blockTime[band] = time;
+                }
+            }
+        }
+        if (++blockFill == BLOCK_SPECTRA) {
+            closeBlock();
+        }
+    }
+
+    private void buildBands(int sampleRate) {
+        binHz = sampleRate / (float) AnalysisFrames.FRAME_SIZE;
+        int bins = AnalysisFrames.FRAME_SIZE / 2 + 1;
+        bandStart = new int[BANDS];
+        bandEnd = new int[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            bandStart[band] = Math.min(bins, (int) Math.ceil(BAND_EDGES_HZ[band] / binHz));
+            bandEnd[band] = Math.min(bins, (int) Math.ceil(BAND_EDGES_HZ[band + 1] / binHz));
+        }
+    }
+
+    private void closeBlock() {
+        // Bands in order of their peak times, so the peak list stays sorted
+        for (int added = 0; added < BANDS; added++) {
+            int earliest = -1;
+            for (int band = 0; band < BANDS; band++) {
+                if (blockMagnitude[band] >= MIN_MAGNITUDE
+                        && (earliest < 0 || blockTime[band] < blockTime[earliest])) {
+                    earliest = band;
+                }
+            }
+            if (earliest < 0) {
+                break;
+            }
+            addPeak(blockTime[earliest], Math.min(255, Math.round(blockBin[earliest] * binHz / FREQUENCY_UNIT_HZ)));
+            blockMagnitude[earliest] = 0;
+        }
+        for (int band = 0; band < BANDS; band++) {
+            blockMagnitude[band] = 0;
+        }
+        blockFill = 0;
+    }
+
+    private void addPeak(int time, int frequency) {
+        if (peakCount == peakTimes.length) {
+            peakTimes = Arrays.copyOf(peakTimes, peakCount * 2);
+            peakFrequencies = Arrays.copyOf(peakFrequencies, peakCount * 2);
+        }
+        peakTimes[peakCount] = time;
+        peakFrequencies[peakCount++] = frequency;
+    }
+
+    /**
+     * @return true once FINGERPRINT_SEC of audio have been fingerprinted
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return Landmarks of the audio seen so far, see the class comment
+     */
+    public long[] getLandmarks() {
+        if (!complete && blockFill > 0) {
+            closeBlock();
+        }
+        int zone = Math.round(TARGET_ZONE_SEC / TIME_UNIT_SEC);
+        if (landmarkScratch.length < peakCount * FAN_OUT) {
+            landmarkScratch = new long[peakCount * FAN_OUT];
+        }
+        long[] landmarks = landmarkScratch;
+        int count = 0;
+        for (int anchor = 0; anchor < peakCount; anchor++) {
+            int paired = 0;
+            for (int target = anchor + 1; target < peakCount && paired < FAN_OUT; target++) {
+                int dt = peakTimes[target] - peakTimes[anchor];
+                if (dt > zone) {
+                    break;
+                }
+                if (dt <= 0) {
+                    continue;
+                }
+                int hash = peakFrequencies[anchor] << 16 | peakFrequencies[target] << 8 | dt;
+                landmarks[count++] = (long) hash << 32 | peakTimes[anchor];
+                paired++;
+            }
+        }
+        return Arrays.copyOf(landmarks, count);
+    }
+
+    public static int hashOf(long landmark) {
+        return (int) (landmark >>> 32);
+    }
+
+    public static int timeOf(long landmark) {
+        return (int) landmark;
+    }
+}
@@ -0,0 +1,196 @@
+package com.ece420.lab1;
+
+import java.util.Arrays;
+
+/**
+ * Chroma-based musical key estimator.
+ *
+ * Listens to the same analysis frames as BPMSession and folds the shared FFT
+ * magnitude spectrum into a 12-bin pitch class profile. Only every
+ * SPECTRUM_STRIDE-th frame is used, so the key costs one FFT per 2048 samples.
+ * The accumulated chroma is correlated with the 24 rotated Krumhansl-Kessler
+ * major and minor profiles and the best match is reported in Camelot notation.
+ *
+ * Keys are passed around as codes: 0 is unknown, 1..24 are Camelot keys in
+ * the order 1A, 1B, 2A, 2B, ... 12A, 12B.
+ */
+public class KeyDetector implements AnalysisFrames.FrameListener {
+    public static final int UNKNOWN_KEY = 0;
+
+    // Use every 4th frame: one spectrum per 2048 samples with a 512 hop
+    private static final int SPECTRUM_STRIDE = 4;
+
+    // Bins below this are too coarse to separate semitones with a 2048-point FFT
+    private static final float MIN_FREQ = 300.0f;
+    private static final float MAX_FREQ = 5000.0f;
+
+    // Krumhansl-Kessler key profiles, tonic first
+    private static final float[] MAJOR_PROFILE = {
+        6.35f, 2.23f, 3.48f, 2.33f, 4.38f, 4.09f, 2.52f, 5.19f, 2.39f, 3.66f, 2.29f, 2.88f
+    };
+    private static final float[] MINOR_PROFILE = {
+        6.33f, 2.68f, 3.52f, 5.38f, 2.60f, 3.53f, 2.54f, 4.75f, 3.98f, 2.69f, 3.34f, 3.17f
+    };
+
+    private final float[] chroma = new float[12];
+    private int[] binPitchClass;
+    private int minBin;
+    private int maxBin;
+    private int framesUsed;
+
+    public KeyDetector(AnalysisFrames frames) {
+        frames.addListener(this);
+    }
+
+    /**
+     * Start over for another track from the same frames
+     */
+    public void reset() {
+        Arrays.fill(chroma, 0);
+        framesUsed = 0;
+    }
+
+    @Override
+    public void onFrame(AnalysisFrames frames) {
+        if (frames.getFrameIndex() % SPECTRUM_STRIDE != 0) {
+            return;
+        }
+        if (binPitchClass == null) {
+            buildBinMap(frames.getSampleRate());
+        }
+
+        float[] magnitudes = frames.getMagnitudes();
+        for (int k = minBin; k <= maxBin; k++) {
+            chroma[binPitchClass[k]] += magnitudes[k];
+        }
+        framesUsed++;
+    }
+
+    private void buildBinMap(int sampleRate) {
+        int bins = AnalysisFrames.FRAME_SIZE / 2 + 1;
+        float binHz = sampleRate / (float) AnalysisFrames.FRAME_SIZE;
+        binPitchClass = new int[bins];
+        minBin = Math.max(1, (int) Math.ceil(MIN_FREQ / binHz));
+        maxBin = Math.min(bins - 1, (int) (MAX_FREQ / binHz));
+
+        for (int k = minBin; k <= maxBin; k++) {
+            // MIDI note number, pitch class 0 = C
+            int note = Math.round(69 + 12 * (float) (Math.log(k * binHz / 440.0) / Math.log(2)));
+            binPitchClass[k] = ((note % 12) + 12) % 12;
+        }
+    }
+
+    /**
+     * @return Camelot key code of the best matching key, or UNKNOWN_KEY without enough audio
+     */
+    public int getKeyCode() {
+        if (framesUsed == 0) {
+            return UNKNOWN_KEY;
+        }
+
+        float bestCorrelation = -Float.MAX_VALUE;
+        int bestTonic = 0;
+        boolean bestMinor = false;
+        for (int tonic = 0; tonic < 12; tonic++) {
+            float major = correlate(MAJOR_PROFILE, tonic);
+            if (major > bestCorrelation) {
+                bestCorrelation = major;
+                bestTonic = tonic;
+                bestMinor = false;
+            }
+            float minor = correlate(MINOR_PROFILE, tonic);
+            if (minor > bestCorrelation) {
+                bestCorrelation = minor;
+                bestTonic = tonic;
+                bestMinor = true;
+            }
+        }
+        return toKeyCode(bestTonic, bestMinor);
+    }
+
+    // Pearson correlation between the chroma and a profile rotated to the tonic
+    private float correlate(float[] profile, int tonic) {
+        float chromaMean = 0;
+        float profileMean = 0;
+        for (int i = 0; i < 12; i++) {
+            chromaMean += chroma[i];
+            profileMean += profile[i];
+        }
+        chromaMean /= 12;
+        profileMean /= 12;
+
+        float covariance = 0;
+        float chromaVariance = 0;
+        float profileVariance = 0;
+        for (int i = 0; i < 12; i++) {
+            float c = chroma[(tonic + i) % 12] - chromaMean;
+            float p = profile[i] - profileMean;
+            covariance += c * p;
+            chromaVariance += c * c;
+            profileVariance += p * p;
+        }
+        if (chromaVariance == 0) {
+            return 0;
+        }
+        return covariance / (float) Math.sqrt(chromaVariance * profileVariance);
+    }
+
+    /**
+     * Camelot code for a tonic pitch class (0 = C) and mode
+     */
+    static int toKeyCode(int tonic, boolean minor) {
+        // Camelot numbers walk the circle of fifths, C major = 8B and A minor = 8A
+        int relativeMajor = minor ? (tonic + 3) % 12 : tonic;
+        int number = (relativeMajor * 7 % 12 + 7) % 12 + 1;
+        return (number - 1) * 2 + (minor ? 1 : 2);
+    }
+
+    /**
+     * @return Camelot name such as "8A", or null for UNKNOWN_KEY
+     */
+    public static String toCamelot(int keyCode) {
+        if (keyCode <= UNKNOWN_KEY || keyCode > 24) {
+            return null;
+        }
+        int number = (keyCode - 1) / 2 + 1;
+        return number + ((keyCode - 1) % 2 == 0 ? "A" : "B");
+    }
+
+    /**
+     * Parse a Camelot name such as "8A" or "12b"
+     * @return Key code, or UNKNOWN_KEY if the text is not a Camelot key
+     */
+    public static int parseCamelot(String text) {
+        if (text == null || text.length() < 2) {
+            return UNKNOWN_KEY;
+        }
+        char letter = Character.toUpperCase(text.charAt(text.length() - 1));
+        if (letter != 'A' && letter != 'B') {
+            return UNKNOWN_KEY;
+        }
+        try {
+            int number = Integer.parseInt(text.substring(0, text.length() - 1));
+            if (number < 1 || number > 12) {
+                return UNKNOWN_KEY;
+            }
+            return (number - 1) * 2 + (letter == 'A' ? 1 : 2);
+        } catch (NumberFormatException e) {
+            return UNKNOWN_KEY;
+        }
+    }
+
+    /**
+     * Harmonic mixing rule: same key, one step around the wheel, or the relative major/minor
+     */
+    public static boolean isCompatible(int keyA, int keyB) {
+        if (keyA == UNKNOWN_KEY || keyB == UNKNOWN_KEY) {
+            return false;
+        }
+        int numberA = (keyA - 1) / 2;
+        int numberB = (keyB - 1) / 2;
+        boolean sameLetter = (keyA - 1) % 2 == (keyB - 1) % 2;
+        int steps = Math.abs(numberA - numberB);
+        steps = Math.min(steps, 12 - steps);
+        return sameLetter ? steps <= 1 : steps == 0;
+    }
+}
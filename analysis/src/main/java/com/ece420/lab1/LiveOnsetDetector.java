@@ -0,0 +1,275 @@
+package com.ece420.lab1;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Streaming onset and beat detector for audio while it plays.
+ *
+ * Every HOP_LENGTH samples the last FRAME_SIZE downmixed samples are windowed
+ * and transformed, and the half-wave rectified rise of the log magnitudes
+ * (spectral flux) is compared with an adaptive threshold: the mean plus
+ * THRESHOLD_DEVIATIONS standard deviations of the flux over the last
+ * THRESHOLD_WINDOW_SEC. A local flux peak above it is an onset.
+ *
+ * Intervals between recent onsets, folded into the app's BPM range, vote into a
+ * decaying tempo histogram whose peak is the live BPM. An onset at least
+ * BEAT_GATE periods after the previous beat counts as a beat.
+ *
+ * Each hop costs one fixed-size FFT plus a fixed amount of bookkeeping (running
+ * sums, a fixed-size histogram), however long playback runs, and nothing is
+ * allocated after construction.
+ */
+public class LiveOnsetDetector {
+    // ~5.8 ms hops and ~23 ms windows at 44.1 kHz
+    public static final int HOP_LENGTH = 256;
+    public static final int FRAME_SIZE = 1024;
+
+    private static final float THRESHOLD_WINDOW_SEC = 1.5f;
+    private static final float THRESHOLD_WARMUP_SEC = 0.4f;  // Flux history needed before the first onset
+    private static final float THRESHOLD_DEVIATIONS = 1.5f;
+    private static final float MIN_ONSET_INTERVAL_SEC = 0.08f;
+    private static final float LOG_COMPRESSION = 10.0f;
+
+    // Tempo histogram over the BPMSession range in 0.5 BPM bins
+    private static final float BIN_WIDTH = 0.5f;
+    private static final int BIN_COUNT = (int) ((BPMSession.MAX_BPM - BPMSession.MIN_BPM) / BIN_WIDTH) + 1;
+    private static final int INTERVAL_HISTORY = 8;  // Onsets each new onset is paired with
+    private static final float HISTOGRAM_DECAY = 0.95f;  // Per onset
+    private static final float MIN_TEMPO_VOTES = 2.0f;
+    private static final float BEAT_GATE = 0.7f;
+
+    /**
+     * Receives onsets on the thread that calls feed()
+     */
+    public interface Listener {
+        /**
+         * @param frame Frame index of the onset, in the numbering passed to feed()
+         * @param strength Flux above the threshold, in threshold standard deviations
+         * @param isBeat Whether the onset falls on the tracked beat
+         * @param bpm Live tempo estimate, or 0 until there is one
+         */
+        void onOnset(long frame, float strength, boolean isBeat, float bpm);
+    }
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final Listener listener;
+
+    private final FloatFFT_1D fft = new FloatFFT_1D(FRAME_SIZE);
+    private final float[] window = new float[FRAME_SIZE];
+    private final float[] ring = new float[FRAME_SIZE];
+    private final float[] spectrum = new float[FRAME_SIZE];
+    private final float[] previousLogMagnitudes = new float[FRAME_SIZE / 2];
+    private int ringPosition;
+    private int hopFill;
+    private long samplesSeen;
+
+    // Flux history for the adaptive threshold, with running sums
+    private final float[] fluxHistory;
+    private final int warmupHops;
+    private int fluxPosition;
+    private int fluxCount;
+    private double fluxSum;
+    private double fluxSumSquares;
+
+    // Last two flux values for peak picking
+    private float fluxBefore;
+    private float fluxLast;
+    private float thresholdLast;
+    private long frameLast;
+
+    private final long[] onsetFrames = new long[INTERVAL_HISTORY];
+    private int onsetCount;
+    private final float[] tempoVotes = new float[BIN_COUNT];
+    private long lastBeatFrame = Long.MIN_VALUE;
+    private float bpm;
+
+    public LiveOnsetDetector(int sampleRate, int channelCount, Listener listener) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.listener = listener;
+        fluxHistory = new float[Math.max(2, (int) (THRESHOLD_WINDOW_SEC * sampleRate / HOP_LENGTH))];
+        warmupHops = Math.max(2, (int) (THRESHOLD_WARMUP_SEC * sampleRate / HOP_LENGTH));
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / FRAME_SIZE));
+        }
+    }
+
+    /**
+     * Feed whole frames of interleaved 16-bit PCM, consuming the buffer
+     * @param firstFrame Frame index of the block's first frame; onsets are reported in the same numbering
+     */
+    public void feed(ShortBuffer pcm, long firstFrame) {
+        int limit = pcm.limit();
+        long frame = firstFrame;
+        for (int i = pcm.position(); i + channelCount <= limit; i += channelCount) {
+            int sum = 0;
+            for (int c = 0; c < channelCount; c++) {
+                sum += pcm.get(i + c);
+            }
+            ring[ringPosition] = sum / (channelCount * 32768.0f);
+            ringPosition = (ringPosition + 1) & (FRAME_SIZE - 1);
+            samplesSeen++;
+            frame++;
+
+            if (++hopFill == HOP_LENGTH) {
+                hopFill = 0;
+                if (samplesSeen >= FRAME_SIZE) {
+                    processHop(frame);
+                }
+            }
+        }
+        pcm.position(limit);
+    }
+
+    /**
+     * Forget the audio fed so far, e.g. after a seek. The tempo estimate is kept.
+     */
+    public void reset() {
+        Arrays.fill(ring, 0);
+        Arrays.fill(previousLogMagnitudes, 0);
+        ringPosition = 0;
+        hopFill = 0;
+        samplesSeen = 0;
+        fluxPosition = 0;
+        fluxCount = 0;
+        fluxSum = 0;
+        fluxSumSquares = 0;
+        fluxBefore = 0;
+        fluxLast = 0;
+        onsetCount = 0;
+        lastBeatFrame = Long.MIN_VALUE;
+    }
+
+    public float getBpm() {
+        return bpm;
+    }
+
+    /**
+     * @param endFrame Frame index just past the newest sample in the window
+     */
+    private void processHop(long endFrame) {
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            spectrum[i] = ring[(ringPosition + i) & (FRAME_SIZE - 1)] * window[i];
+        }
+        fft.realForward(spectrum);
+
+        float flux = 0;
+        for (int bin = 1; bin < FRAME_SIZE / 2; bin++) {
+            float re = spectrum[2 * bin];
+            float im = spectrum[2 * bin + 1];
+            float logMagnitude = (float) Math.log1p(LOG_COMPRESSION * Math.sqrt(re * re + im * im));
+            float rise = logMagnitude - previousLogMagnitudes[bin];
+            if (rise > 0) {
+                flux += rise;
+            }
+            previousLogMagnitudes[bin] = logMagnitude;
+        }
+
+        // The previous hop is an onset if it peaks above its threshold
+        if (fluxLast > fluxBefore && fluxLast >= flux && fluxLast > thresholdLast && fluxCount >= warmupHops) {
+            double mean = fluxSum / fluxCount;
+            double deviation = Math.sqrt(Math.max(1e-12, fluxSumSquares / fluxCount - mean * mean));
+            onOnset(frameLast, (float) ((fluxLast - mean) / deviation));
+        }
+
+        double mean = fluxSum / Math.max(1, fluxCount);
+        double deviation = Math.sqrt(Math.max(0, fluxSumSquares / Math.max(1, fluxCount) - mean * mean));
+        fluxBefore = fluxLast;
+        fluxLast = flux;
+        thresholdLast = (float) (mean + THRESHOLD_DEVIATIONS * deviation);
+        // Attribute the onset to the middle of the window
+        frameLast = endFrame - FRAME_SIZE / 2;
+        addFlux(flux);
+    }
+
+    private void addFlux(float flux) {
+        if (fluxCount == fluxHistory.length) {
+            float oldest = fluxHistory[fluxPosition];
+            fluxSum -= oldest;
+            fluxSumSquares -= oldest * (double) oldest;
+        } else {
+            fluxCount++;
+        }
+        fluxHistory[fluxPosition] = flux;
+        fluxSum += flux;
+        fluxSumSquares += flux * (double) flux;
+        fluxPosition = (fluxPosition + 1) % fluxHistory.length;
+    }
+
+    private void onOnset(long frame, float strength) {
+        long newest = onsetCount > 0 ? onsetFrames[(onsetCount - 1) % INTERVAL_HISTORY] : Long.MIN_VALUE;
+        if (onsetCount > 0 && frame - newest < MIN_ONSET_INTERVAL_SEC * sampleRate) {
+            return;
+        }
+
+        // Every interval to a recent onset votes for the tempo it implies
+        for (int k = 1; k <= Math.min(onsetCount, INTERVAL_HISTORY); k++) {
+            long earlier = onsetFrames[(onsetCount - k) % INTERVAL_HISTORY];
+            vote(60.0f * sampleRate / (frame - earlier));
+        }
+        onsetFrames[onsetCount % INTERVAL_HISTORY] = frame;
+        onsetCount++;
+        bpm = estimateTempo();
+
+        boolean isBeat = bpm <= 0 || lastBeatFrame == Long.MIN_VALUE
+            || frame - lastBeatFrame >= BEAT_GATE * 60.0f * sampleRate / bpm;
+        if (isBeat) {
+            lastBeatFrame = frame;
+        }
+        listener.onOnset(frame, strength, isBeat, bpm);
+    }
+
+    private void vote(float intervalBpm) {
+        // Fold into one octave starting at the bottom of the range
+        while (intervalBpm < BPMSession.MIN_BPM) {
+            intervalBpm *= 2;
+        }
+        while (intervalBpm >= 2 * BPMSession.MIN_BPM) {
+            intervalBpm /= 2;
+        }
+        float position = (intervalBpm - BPMSession.MIN_BPM) / BIN_WIDTH;
+        int bin = (int) position;
+        if (bin >= BIN_COUNT) {
+            return;  // Above the range even after folding
+        }
+
+        for (int i = 0; i < BIN_COUNT; i++) {
+            tempoVotes[i] *= HISTOGRAM_DECAY;
+        }
+        // Split the vote between the two nearest bins
+        float fraction = position - bin;
+        tempoVotes[bin] += 1 - fraction;
+        if (bin + 1 < BIN_COUNT) {
+            tempoVotes[bin + 1] += fraction;
+        }
+    }
+
+    private float estimateTempo() {
+        int best = 0;
+        for (int i = 1; i < BIN_COUNT; i++) {
+            if (tempoVotes[i] > tempoVotes[best]) {
+                best = i;
+            }
+        }
+        if (tempoVotes[best] < MIN_TEMPO_VOTES) {
+            return 0;
+        }
+
+        // Parabolic interpolation around the peak
+        float offset = 0;
+        if (best > 0 && best < BIN_COUNT - 1) {
+            float left = tempoVotes[best - 1];
+            float center = tempoVotes[best];
+            float right = tempoVotes[best + 1];
+            float denominator = left - 2 * center + right;
+            if (denominator != 0) {
+                offset = Math.max(-0.5f, Math.min(0.5f, 0.5f * (left - right) / denominator));
+            }
+        }
+        return BPMSession.MIN_BPM + (best + offset) * BIN_WIDTH;
+    }
+}
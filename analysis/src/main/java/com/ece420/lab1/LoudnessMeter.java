@@ -0,0 +1,349 @@
+package com.ece420.lab1;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Streaming ITU-R BS.1770-4 integrated loudness and true-peak meter.
+ *
+ * Each channel is K-weighted by two biquads (a high shelf modelling the head,
+ * then a high pass) and its mean square is summed per 100 ms step. Every step
+ * closes a 400 ms gating block of the last four steps, whose loudness goes into a
+ * histogram of GATE_BIN_WIDTH LU bins that also keeps the blocks' summed energy.
+ * Integrated loudness applies the absolute (-70 LUFS) and relative (-10 LU) gates
+ * to the histogram, so memory stays the same for a jingle or a three-hour mix;
+ * only the relative gate is quantized to a bin edge, which moves the result by a
+ * few hundredths of an LU at most.
+ *
+ * True peak is the largest sample of a 4x oversampled copy of each channel, from a
+ * windowed-sinc polyphase interpolator. Inter-sample peaks sit within a sample of a
+ * large sample, so only the quarter steps around samples that, times the
+ * interpolator's worst-case gain, could beat the true peak found so far are
+ * interpolated; after the first loud passage most samples only cost a compare.
+ *
+ * The meter reads PCM with absolute gets and leaves the buffer's position alone,
+ * so the same block can be passed on to the other analysis stages.
+ */
+public class LoudnessMeter {
+    public static final float ABSOLUTE_GATE_LUFS = -70.0f;
+    private static final float RELATIVE_GATE_LU = -10.0f;
+
+    // Auto-gain: bring tracks to the target, but keep the true peak below the ceiling
+    public static final float TARGET_LUFS = -14.0f;
+    public static final float TRUE_PEAK_CEILING_DBTP = -1.0f;
+    public static final float MAX_GAIN_DB = 12.0f;
+
+    private static final double DENORMAL_GUARD = 1e-20;  // Inaudible DC, removed by the high pass
+
+    private static final float STEP_SEC = 0.1f;
+    private static final int STEPS_PER_BLOCK = 4;  // 400 ms blocks, 75 % overlap
+
+    // Block loudness histogram from the absolute gate up to MAX_BLOCK_LUFS
+    private static final float GATE_BIN_WIDTH = 0.1f;
+    private static final float MAX_BLOCK_LUFS = 6.0f;
+    private static final int GATE_BINS = (int) ((MAX_BLOCK_LUFS - ABSOLUTE_GATE_LUFS) / GATE_BIN_WIDTH);
+
+    private static final int OVERSAMPLING = 4;
+    private static final int TAPS_PER_PHASE = 12;
+    // The interpolator lags its input by ~TAPS_PER_PHASE / 2 samples; outputs 5 and 6
+    // samples later cover the three quarter steps on either side of an input sample
+    private static final int PEAK_NEIGHBOURHOOD = (1 << (TAPS_PER_PHASE / 2 - 1)) | (1 << (TAPS_PER_PHASE / 2));
+
+    private final int channelCount;
+    private final double[] channelWeights;
+
+    // K-weighting coefficients (a0 normalized to 1) and per-channel state
+    private final double shelfB0;
+    private final double shelfB1;
+    private final double shelfB2;
+    private final double shelfA1;
+    private final double shelfA2;
+    private final double highPassA1;
+    private final double highPassA2;
+    private final double[] shelfZ1;
+    private final double[] shelfZ2;
+    private final double[] highPassZ1;
+    private final double[] highPassZ2;
+
+    // Gating blocks
+    private final int stepFrames;
+    private final double[] stepEnergy = new double[STEPS_PER_BLOCK];
+    private double currentStepEnergy;
+    private int stepFill;
+    private long stepCount;
+    private final int[] binCounts = new int[GATE_BINS];
+    private final double[] binEnergy = new double[GATE_BINS];
+
+    // True peak: polyphase coefficients [phase][tap] and the last TAPS_PER_PHASE samples per channel
+    private final float[][] phases = new float[OVERSAMPLING][TAPS_PER_PHASE];
+    private final float interpolatorGain;
+    private final float[][] history;
+    private int historyPos;
+    private final int[] interpolateSchedule;  // Bit k: interpolate k samples from now
+    private float samplePeak;
+    private float truePeak;
+
+    public LoudnessMeter(int sampleRate, int channelCount) {
+        this.channelCount = Math.max(1, channelCount);
+        channelWeights = new double[this.channelCount];
+        for (int c = 0; c < this.channelCount; c++) {
+            channelWeights[c] = channelWeight(c, this.channelCount);
+        }
+
+        // Stage 1 shelf and stage 2 high pass, re-derived for any sample rate
+        double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10, 3.999843853973347 / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        shelfB0 = (vh + vb * k / q + k * k) / a0;
+        shelfB1 = 2 * (k * k - vh) / a0;
+        shelfB2 = (vh - vb * k / q + k * k) / a0;
+        shelfA1 = 2 * (k * k - 1) / a0;
+        shelfA2 = (1 - k / q + k * k) / a0;
+
+        k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+        q = 0.5003270373238773;
+        a0 = 1 + k / q + k * k;
+        highPassA1 = 2 * (k * k - 1) / a0;
+        highPassA2 = (1 - k / q + k * k) / a0;
+
+        shelfZ1 = new double[this.channelCount];
+        shelfZ2 = new double[this.channelCount];
+        highPassZ1 = new double[this.channelCount];
+        highPassZ2 = new double[this.channelCount];
+        stepFrames = Math.max(1, Math.round(STEP_SEC * sampleRate));
+
+        // Hann-windowed sinc at the original Nyquist, each phase normalized to unity DC gain
+        int taps = OVERSAMPLING * TAPS_PER_PHASE;
+        float worstGain = 0;
+        for (int p = 0; p < OVERSAMPLING; p++) {
+            double sum = 0;
+            for (int t = 0; t < TAPS_PER_PHASE; t++) {
+                int i = t * OVERSAMPLING + p;
+                double x = (i - (taps - 1) / 2.0) / OVERSAMPLING;
+                double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+                double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * (i + 0.5) / taps);
+                phases[p][t] = (float) (sinc * window);
+                sum += phases[p][t];
+            }
+            float gain = 0;
+            for (int t = 0; t < TAPS_PER_PHASE; t++) {
+                phases[p][t] /= (float) sum;
+                gain += Math.abs(phases[p][t]);
+            }
+            worstGain = Math.max(worstGain, gain);
+        }
+        interpolatorGain = worstGain;
+        history = new float[this.channelCount][TAPS_PER_PHASE];
+        interpolateSchedule = new int[this.channelCount];
+    }
+
+    /**
+     * Start over for another track at the same sample rate and channel count,
+     * keeping the filter coefficients and interpolator
+     */
+    public void reset() {
+        Arrays.fill(shelfZ1, 0);
+        Arrays.fill(shelfZ2, 0);
+        Arrays.fill(highPassZ1, 0);
+        Arrays.fill(highPassZ2, 0);
+        Arrays.fill(stepEnergy, 0);
+        currentStepEnergy = 0;
+        stepFill = 0;
+        stepCount = 0;
+        Arrays.fill(binCounts, 0);
+        Arrays.fill(binEnergy, 0);
+        for (float[] channelHistory : history) {
+            Arrays.fill(channelHistory, 0);
+        }
+        historyPos = 0;
+        Arrays.fill(interpolateSchedule, 0);
+        samplePeak = 0;
+        truePeak = 0;
+    }
+
+    /**
+     * BS.1770 channel weights: 1 for front channels, 1.41 for the surrounds of a
+     * 5.1 layout (L R C LFE Ls Rs), whose LFE is left out
+     */
+    private static double channelWeight(int channel, int channelCount) {
+        if (channelCount != 6) {
+            return 1.0;
+        }
+        return channel == 3 ? 0.0 : channel >= 4 ? 1.41 : 1.0;
+    }
+
+    /**
+     * Measure a block of interleaved 16-bit PCM without consuming it
+     */
+    public void feed(ShortBuffer pcm) {
+        int start = pcm.position();
+        int end = start + (pcm.remaining() / channelCount) * channelCount;
+        measureLoudness(pcm, start, end);
+        measureTruePeak(pcm, start, end);
+    }
+
+    private void measureLoudness(ShortBuffer pcm, int start, int end) {
+        int i = start;
+        while (i < end) {
+            // Up to the end of the current step, one channel at a time with its state in locals
+            int frames = Math.min((end - i) / channelCount, stepFrames - stepFill);
+            int segmentEnd = i + frames * channelCount;
+            for (int c = 0; c < channelCount; c++) {
+                double s1 = shelfZ1[c];
+                double s2 = shelfZ2[c];
+                double h1 = highPassZ1[c];
+                double h2 = highPassZ2[c];
+                double energy = 0;
+                for (int j = i + c; j < segmentEnd; j += channelCount) {
+                    // The offset keeps the filter state out of subnormals, which are very slow, in digital silence
+                    double x = pcm.get(j) / 32768.0 + DENORMAL_GUARD;
+
+                    // Transposed direct form II
+                    double shelved = shelfB0 * x + s1;
+                    s1 = shelfB1 * x - shelfA1 * shelved + s2;
+                    s2 = shelfB2 * x - shelfA2 * shelved;
+                    double weighted = shelved + h1;
+                    h1 = -2 * shelved - highPassA1 * weighted + h2;
+                    h2 = shelved - highPassA2 * weighted;
+                    energy += weighted * weighted;
+                }
+                shelfZ1[c] = s1;
+                shelfZ2[c] = s2;
+                highPassZ1[c] = h1;
+                highPassZ2[c] = h2;
+                currentStepEnergy += channelWeights[c] * energy;
+            }
+            i = segmentEnd;
+
+            stepFill += frames;
+            if (stepFill == stepFrames) {
+                stepEnergy[(int) (stepCount++ % STEPS_PER_BLOCK)] = currentStepEnergy;
+                currentStepEnergy = 0;
+                stepFill = 0;
+                if (stepCount >= STEPS_PER_BLOCK) {
+                    addBlock();
+                }
+            }
+        }
+    }
+
+    private void addBlock() {
+        double energy = 0;
+        for (double step : stepEnergy) {
+            energy += step;
+        }
+        energy /= STEPS_PER_BLOCK * stepFrames;
+
+        float loudness = toLufs(energy);
+        if (!(loudness > ABSOLUTE_GATE_LUFS)) {
+            return;
+        }
+        int bin = Math.min(GATE_BINS - 1, (int) ((loudness - ABSOLUTE_GATE_LUFS) / GATE_BIN_WIDTH));
+        binCounts[bin]++;
+        binEnergy[bin] += energy;
+    }
+
+    private void measureTruePeak(ShortBuffer pcm, int start, int end) {
+        float peak = truePeak;
+        float trigger = peak / interpolatorGain;
+        for (int i = start; i < end; i += channelCount) {
+            for (int c = 0; c < channelCount; c++) {
+                float x = pcm.get(i + c) / 32768.0f;
+                float[] channelHistory = history[c];
+                channelHistory[historyPos] = x;
+                float magnitude = Math.abs(x);
+                if (magnitude > samplePeak) {
+                    samplePeak = magnitude;
+                }
+                int schedule = interpolateSchedule[c] >>> 1;
+                if (magnitude > trigger) {
+                    // The outputs centred just before and just after this sample
+                    schedule |= PEAK_NEIGHBOURHOOD;
+                }
+                interpolateSchedule[c] = schedule;
+                if ((schedule & 1) == 0) {
+                    continue;
+                }
+
+                for (int p = 0; p < OVERSAMPLING; p++) {
+                    float[] taps = phases[p];
+                    float y = 0;
+                    int h = historyPos;
+                    for (int t = 0; t < TAPS_PER_PHASE; t++) {
+                        y += taps[t] * channelHistory[h];
+                        h = h == 0 ? TAPS_PER_PHASE - 1 : h - 1;
+                    }
+                    if (Math.abs(y) > peak) {
+                        peak = Math.abs(y);
+                        trigger = peak / interpolatorGain;
+                    }
+                }
+            }
+            historyPos = historyPos == TAPS_PER_PHASE - 1 ? 0 : historyPos + 1;
+        }
+        truePeak = Math.max(peak, samplePeak);
+    }
+
+    /**
+     * @return Gated integrated loudness in LUFS, or negative infinity if no block passed the absolute gate
+     */
+    public float getIntegratedLoudness() {
+        int count = 0;
+        double energy = 0;
+        for (int bin = 0; bin < GATE_BINS; bin++) {
+            count += binCounts[bin];
+            energy += binEnergy[bin];
+        }
+        if (count == 0) {
+            return Float.NEGATIVE_INFINITY;
+        }
+
+        // Keep the bins at or above the relative gate, the bin containing it included
+        float relativeGate = toLufs(energy / count) + RELATIVE_GATE_LU;
+        int firstBin = Math.max(0, (int) ((relativeGate - ABSOLUTE_GATE_LUFS) / GATE_BIN_WIDTH));
+        count = 0;
+        energy = 0;
+        for (int bin = firstBin; bin < GATE_BINS; bin++) {
+            count += binCounts[bin];
+            energy += binEnergy[bin];
+        }
+        return count > 0 ? toLufs(energy / count) : Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return Largest 4x oversampled sample magnitude in dBTP
+     */
+    public float getTruePeakDb() {
+        return (float) (20 * Math.log10(truePeak));
+    }
+
+    /**
+     * @return Largest sample magnitude in dBFS
+     */
+    public float getSamplePeakDb() {
+        return (float) (20 * Math.log10(samplePeak));
+    }
+
+    /**
+     * Playback gain that brings a track to TARGET_LUFS. A boost stops where the
+     * true peak would cross TRUE_PEAK_CEILING_DBTP; either way it is limited to MAX_GAIN_DB.
+     * @return Gain in dB, 0 for silent or unmeasured tracks
+     */
+    public static float autoGainDb(float integratedLufs, float truePeakDb) {
+        if (Float.isInfinite(integratedLufs) || Float.isNaN(integratedLufs)) {
+            return 0;
+        }
+        float gain = TARGET_LUFS - integratedLufs;
+        if (gain > 0 && !Float.isNaN(truePeakDb) && !Float.isInfinite(truePeakDb)) {
+            // Only boosts are held back; a hot master still gets turned down to the target
+            gain = Math.min(gain, Math.max(0, TRUE_PEAK_CEILING_DBTP - truePeakDb));
+        }
+        return Math.max(-MAX_GAIN_DB, Math.min(MAX_GAIN_DB, gain));
+    }
+
+    private static float toLufs(double meanSquare) {
+        return (float) (-0.691 + 10 * Math.log10(meanSquare));
+    }
+}
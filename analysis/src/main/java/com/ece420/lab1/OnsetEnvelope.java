@@ -0,0 +1,96 @@
+package com.ece420.lab1;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * RMS onset envelope of a decoded track, computed on a ForkJoinPool.
+ *
+ * The arithmetic is that of AnalysisFrames: an integer downmix and the squared
+ * mono samples summed per HOP_LENGTH hop in a long. The track is split into
+ * segments of whole hops, which workers sum into one shared array of hop
+ * energies. A frame spans FRAME_SIZE / HOP_LENGTH hops, so frames overlap the
+ * segment boundaries; they are stitched from the hop energies after the join.
+ * Integer sums do not depend on the order they are added in, so the envelope is
+ * identical, bit for bit, to the getFrameRms() values of a serial pass.
+ */
+public class OnsetEnvelope {
+    private static final int HOP_LENGTH = AnalysisFrames.HOP_LENGTH;
+    private static final int HOPS_PER_FRAME = AnalysisFrames.FRAME_SIZE / HOP_LENGTH;
+
+    // Hops summed by one task, ~12 s at 44.1 kHz
+    private static final int SEGMENT_HOPS = 1024;
+
+    private OnsetEnvelope() {
+    }
+
+    /**
+     * @param endFrame Frames of the track to cover, clamped to the store
+     * @return One RMS value per analysis frame, in the order AnalysisFrames dispatches them
+     */
+    public static float[] compute(SampleStore samples, long endFrame, ForkJoinPool pool) {
+        long frames = Math.min(endFrame, samples.getFrameCount());
+        int hops = (int) Math.min(Integer.MAX_VALUE, frames / HOP_LENGTH);
+        long[] hopEnergy = new long[hops];
+        pool.invoke(new HopEnergyTask(samples, hopEnergy, 0, hops));
+
+        // A frame is dispatched once its last hop is complete and covers the HOPS_PER_FRAME hops up to it
+        float[] envelope = new float[Math.max(0, hops - HOPS_PER_FRAME + 1)];
+        for (int frame = 0; frame < envelope.length; frame++) {
+            long energy = 0;
+            for (int hop = frame; hop < frame + HOPS_PER_FRAME; hop++) {
+                energy += hopEnergy[hop];
+            }
+            envelope[frame] = (float) Math.sqrt(energy / (double) AnalysisFrames.FRAME_SIZE) / 32768.0f;
+        }
+        return envelope;
+    }
+
+    private static class HopEnergyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SampleStore samples;
+        private final long[] hopEnergy;
+        private final int fromHop;
+        private final int toHop;
+
+        HopEnergyTask(SampleStore samples, long[] hopEnergy, int fromHop, int toHop) {
+            this.samples = samples;
+            this.hopEnergy = hopEnergy;
+            this.fromHop = fromHop;
+            this.toHop = toHop;
+        }
+
+        @Override
+        protected void compute() {
+            if (toHop - fromHop > SEGMENT_HOPS) {
+                int middle = (fromHop + toHop) >>> 1;
+                invokeAll(new HopEnergyTask(samples, hopEnergy, fromHop, middle),
+                    new HopEnergyTask(samples, hopEnergy, middle, toHop));
+                return;
+            }
+
+            int channelCount = samples.getChannelCount();
+            int hop = fromHop;
+            int hopFill = 0;
+            long energy = 0;
+            for (ShortBuffer block : samples.blocks((long) fromHop * HOP_LENGTH, (long) toHop * HOP_LENGTH)) {
+                int limit = block.limit();
+                for (int i = block.position(); i < limit; i += channelCount) {
+                    int sum = 0;
+                    for (int c = 0; c < channelCount; c++) {
+                        sum += block.get(i + c);
+                    }
+                    int mono = sum / channelCount;
+                    energy += mono * mono;
+                    if (++hopFill == HOP_LENGTH) {
+                        hopEnergy[hop++] = energy;
+                        energy = 0;
+                        hopFill = 0;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.ece420.lab1;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams interleaved 16-bit PCM out of WAV and raw PCM files on a desktop JVM,
+ * where no MediaCodec is available.
+ *
+ * WAV files may hold 8, 16, 24 or 32-bit integer or 32-bit float samples, plain
+ * or WAVE_FORMAT_EXTENSIBLE; anything other than 16-bit is converted while
+ * reading. Files without a RIFF header are read as raw 16-bit little-endian PCM
+ * at RAW_SAMPLE_RATE with RAW_CHANNELS.
+ */
+public class PcmFileReader implements Closeable {
+    public static final int RAW_SAMPLE_RATE = 44100;
+    public static final int RAW_CHANNELS = 2;
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    private static final int BLOCK_BYTES = 256 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private short[] converted;
+
+    private int sampleRate = RAW_SAMPLE_RATE;
+    private int channelCount = RAW_CHANNELS;
+    private int bytesPerSample = 2;
+    private boolean floatSamples;
+    private long dataStart;
+    private long dataEnd;
+    private long position;
+
+    public PcmFileReader(File source) throws IOException {
+        file = new RandomAccessFile(source, "r");
+        channel = file.getChannel();
+        try {
+            dataEnd = channel.size();
+            readHeader();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        position = dataStart;
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        if (header.position() < 12 || header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157) {
+            return;  // No "RIFF....WAVE" - raw PCM
+        }
+
+        // Walk the chunks until the data chunk, picking up the format on the way
+        ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = 12;
+        boolean haveFormat = false;
+        while (offset + 8 <= channel.size()) {
+            chunk.clear();
+            channel.read(chunk, offset);
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            long body = offset + 8;
+
+            if (id == 0x20746D66) {  // "fmt "
+                readFormat(body, (int) Math.min(size, 40));
+                haveFormat = true;
+            } else if (id == 0x61746164) {  // "data"
+                if (!haveFormat) {
+                    throw new IOException("WAV data chunk before format chunk");
+                }
+                dataStart = body;
+                dataEnd = Math.min(channel.size(), body + size);
+                return;
+            }
+            offset = body + size + (size & 1);  // Chunks are word aligned
+        }
+        throw new IOException("WAV file has no data chunk");
+    }
+
+    private void readFormat(long offset, int size) throws IOException {
+        ByteBuffer format = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(format, offset);
+        int formatTag = format.getShort(0) & 0xFFFF;
+        channelCount = format.getShort(2);
+        sampleRate = format.getInt(4);
+        int bitsPerSample = format.getShort(14);
+        if (formatTag == FORMAT_EXTENSIBLE && size >= 26) {
+            formatTag = format.getShort(24) & 0xFFFF;  // First two bytes of the sub-format GUID
+        }
+
+        bytesPerSample = (bitsPerSample + 7) / 8;
+        floatSamples = formatTag == FORMAT_FLOAT;
+        boolean supported = floatSamples
+            ? bitsPerSample == 32
+            : formatTag == FORMAT_PCM && bytesPerSample >= 1 && bytesPerSample <= 4;
+        if (!supported || channelCount < 1 || sampleRate <= 0) {
+            throw new IOException("Unsupported WAV format " + formatTag + ", " + bitsPerSample + " bits");
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * @return Duration in seconds
+     */
+    public float getDurationSeconds() {
+        return (dataEnd - dataStart) / (float) (bytesPerSample * channelCount) / sampleRate;
+    }
+
+    /**
+     * Read the next block of interleaved 16-bit samples. The returned buffer is
+     * only valid until the next call.
+     * @return The samples, or null at the end of the file
+     */
+    public ShortBuffer read() throws IOException {
+        // Whole frames only, so channels stay aligned from block to block
+        int frameBytes = bytesPerSample * channelCount;
+        long remaining = dataEnd - position;
+        int length = (int) Math.min(remaining, BLOCK_BYTES / frameBytes * frameBytes);
+        length -= length % frameBytes;
+        if (length <= 0) {
+            return null;
+        }
+
+        block.clear().limit(length);
+        while (block.hasRemaining()) {
+            if (channel.read(block, position + block.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        position += length;
+        block.flip();
+
+        if (bytesPerSample == 2 && !floatSamples) {
+            return block.asShortBuffer();
+        }
+        return convert(length / bytesPerSample);
+    }
+
+    private ShortBuffer convert(int samples) {
+        if (converted == null || converted.length < samples) {
+            converted = new short[samples];
+        }
+        for (int i = 0; i < samples; i++) {
+            int offset = i * bytesPerSample;
+            short value;
+            if (floatSamples) {
+                float sample = Math.max(-1.0f, Math.min(1.0f, block.getFloat(offset)));
+                value = (short) (sample * 32767);
+            } else if (bytesPerSample == 1) {
+                value = (short) (((block.get(offset) & 0xFF) - 128) << 8);  // 8-bit WAV is unsigned
+            } else if (bytesPerSample == 3) {
+                value = block.getShort(offset + 1);  // Top two bytes of the little-endian sample
+            } else {
+                value = (short) (block.getInt(offset) >> 16);
+            }
+            converted[i] = value;
+        }
+        return ShortBuffer.wrap(converted, 0, samples);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+}
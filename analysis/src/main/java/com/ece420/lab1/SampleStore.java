@@ -0,0 +1,266 @@
+package com.ece420.lab1;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A whole decoded track as interleaved 16-bit PCM, held in fixed-size chunks
+ * outside the Java heap.
+ *
+ * Chunks are either direct buffers or mapped segments of a spill file, so a
+ * 90-minute stereo set (about 950 MB of PCM) costs a few hundred small objects on
+ * the heap and the OS pages the samples in and out. Frames are indexed with longs
+ * and never span two chunks, so blocks() hands out frame-aligned views that the
+ * analysis stages can feed one at a time without building one big array:
+ * <pre>
+ *     for (ShortBuffer block : store.blocks(0, store.getFrameCount())) {
+ *         analysis.feed(block);
+ *     }
+ * </pre>
+ * One thread appends; other threads may read any frame below getFrameCount()
+ * while it does. Freshly written mapped chunks are dirty pages the OS cannot simply
+ * drop; flush() writes them back to the spill file so they can be reclaimed under
+ * memory pressure like any other file cache.
+ */
+public class SampleStore implements Closeable {
+    // 2^19 frames per chunk, ~12 s at 44.1 kHz (2 MB of stereo PCM)
+    private static final int CHUNK_SHIFT = 19;
+    public static final int CHUNK_FRAMES = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_FRAMES - 1;
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final int chunkSamples;
+
+    // Null for an in-memory store
+    private final File spillFile;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    // Grown by copy and republished, so readers never see a half-built array
+    private volatile ShortBuffer[] chunks = new ShortBuffer[8];
+    private volatile long sampleCount;
+    private int chunkCount;
+
+    // Mapped chunks in order and how far they have been written back, guarded by this
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+    private long flushedSamples;
+    private volatile boolean closed;  // Not guarded, so close() never waits for a flush
+
+    private SampleStore(int sampleRate, int channelCount, File spillFile) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.chunkSamples = CHUNK_FRAMES * channelCount;
+        this.spillFile = spillFile;
+        if (spillFile != null) {
+            file = new RandomAccessFile(spillFile, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+        } else {
+            file = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * A store backed by direct buffers. Fast, but the samples count against native memory.
+     */
+    public static SampleStore inMemory(int sampleRate, int channelCount) {
+        try {
+            return new SampleStore(sampleRate, channelCount, null);
+        } catch (IOException e) {
+            throw new AssertionError(e);  // No file involved
+        }
+    }
+
+    /**
+     * A store backed by mapped segments of the given file, which is truncated now
+     * and deleted on close(). Use for tracks too long to keep in memory.
+     */
+    public static SampleStore mapped(File spillFile, int sampleRate, int channelCount) throws IOException {
+        return new SampleStore(sampleRate, channelCount, spillFile);
+    }
+
+    /**
+     * Append interleaved samples from the buffer's position to its limit
+     */
+    public void append(ShortBuffer pcm) throws IOException {
+        long count = sampleCount;
+        while (pcm.hasRemaining()) {
+            int chunk = (int) (count / chunkSamples);
+            if (chunk == chunkCount) {
+                addChunk();
+            }
+            ShortBuffer target = chunks[chunk].duplicate();
+            target.position((int) (count % chunkSamples));
+
+            int n = Math.min(pcm.remaining(), target.remaining());
+            int limit = pcm.limit();
+            pcm.limit(pcm.position() + n);
+            target.put(pcm);
+            pcm.limit(limit);
+            count += n;
+        }
+        // Publish only after the samples are written
+        sampleCount = count;
+    }
+
+    private void addChunk() throws IOException {
+        ByteBuffer bytes;
+        if (channel != null) {
+            long offset = (long) chunkCount * chunkSamples * 2;
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, offset, chunkSamples * 2L);
+            synchronized (this) {
+                mappings.add(mapping);
+            }
+            bytes = mapping;
+        } else {
+            bytes = ByteBuffer.allocateDirect(chunkSamples * 2);
+        }
+        ShortBuffer chunk = bytes.order(ByteOrder.nativeOrder()).asShortBuffer();
+
+        ShortBuffer[] current = chunks;
+        if (chunkCount == current.length) {
+            ShortBuffer[] grown = new ShortBuffer[current.length * 2];
+            System.arraycopy(current, 0, grown, 0, chunkCount);
+            current = grown;
+        }
+        current[chunkCount++] = chunk;
+        chunks = current;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public long getFrameCount() {
+        return sampleCount / channelCount;
+    }
+
+    public float getDurationSeconds() {
+        return getFrameCount() / (float) sampleRate;
+    }
+
+    /**
+     * Random access to a single sample
+     */
+    public short getSample(long frame, int channel) {
+        checkFrames(frame, 1);
+        return chunks[(int) (frame >>> CHUNK_SHIFT)].get((int) (frame & CHUNK_MASK) * channelCount + channel);
+    }
+
+    /**
+     * Copy interleaved frames starting at the given frame into dst
+     * @return Number of frames copied, less than requested at the end of the store
+     */
+    public int read(long frame, short[] dst, int offset, int frameCount) {
+        int frames = (int) Math.max(0, Math.min(frameCount, getFrameCount() - frame));
+        checkFrames(frame, frames);
+        int copied = 0;
+        while (copied < frames) {
+            long at = frame + copied;
+            int inChunk = Math.min(frames - copied, CHUNK_FRAMES - (int) (at & CHUNK_MASK));
+            ShortBuffer chunk = chunks[(int) (at >>> CHUNK_SHIFT)].duplicate();
+            chunk.position((int) (at & CHUNK_MASK) * channelCount);
+            chunk.get(dst, offset + copied * channelCount, inChunk * channelCount);
+            copied += inChunk;
+        }
+        return frames;
+    }
+
+    /**
+     * Sequential view of a frame range as read-only buffers of whole frames, at most
+     * one chunk each. Frames appended after the call are not included.
+     */
+    public Iterable<ShortBuffer> blocks(long startFrame, long endFrame) {
+        long end = Math.min(endFrame, getFrameCount());
+        ShortBuffer[] snapshot = chunks;
+        return () -> new Iterator<ShortBuffer>() {
+            private long next = Math.max(0, startFrame);
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public ShortBuffer next() {
+                if (next >= end) {
+                    throw new NoSuchElementException();
+                }
+                int offset = (int) (next & CHUNK_MASK);
+                int frames = (int) Math.min(end - next, CHUNK_FRAMES - offset);
+                ShortBuffer block = snapshot[(int) (next >>> CHUNK_SHIFT)].asReadOnlyBuffer();
+                block.limit((offset + frames) * channelCount).position(offset * channelCount);
+                next += frames;
+                return block;
+            }
+        };
+    }
+
+    /**
+     * @return Bytes of a mapped store written since the last flush(), 0 for an in-memory store
+     */
+    public synchronized long getUnflushedBytes() {
+        return channel != null && !closed ? 2 * (sampleCount - flushedSamples) : 0;
+    }
+
+    /**
+     * Write the samples appended so far back to the spill file. Blocks on I/O, so
+     * call it off the UI thread. Does nothing for an in-memory store.
+     */
+    public synchronized void flush() {
+        long count = sampleCount;
+        if (channel == null || closed || count == flushedSamples) {
+            return;
+        }
+        // Only the chunks holding unflushed samples
+        for (int chunk = (int) (flushedSamples / chunkSamples); chunk < mappings.size(); chunk++) {
+            if ((long) chunk * chunkSamples >= count || closed) {
+                break;
+            }
+            mappings.get(chunk).force();
+        }
+        flushedSamples = count;
+    }
+
+    private void checkFrames(long frame, int count) {
+        if (frame < 0 || frame + count > getFrameCount()) {
+            throw new IndexOutOfBoundsException("Frames " + frame + "+" + count + " of " + getFrameCount());
+        }
+    }
+
+    /**
+     * Release the chunks and delete the spill file, if any. Buffers handed out
+     * by blocks() must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        chunks = new ShortBuffer[0];
+        chunkCount = 0;
+        sampleCount = 0;
+        if (file != null) {
+            // Mappings stay valid until collected; the file itself can go now
+            file.close();
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.ece420.lab1;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Frame index of a compressed audio file: the byte offset and first sample of
+ * every frame, built once by walking the frame headers. In a stream of fixed-size
+ * frames the sample position of a frame is a multiplication and the frame holding
+ * a sample a division, so both directions are O(1) and exact, also for VBR MP3s
+ * without a Xing TOC, whose bitrate-based estimates drift by seconds over a mix.
+ *
+ * Sample positions count decoded frames from the first audio frame; a Xing, Info
+ * or VBRI header frame is not part of the table.
+ *
+ * Stored layout (big-endian), see write():
+ * <pre>
+ *     int frameCount (0 for none), int sampleRate, int samplesPerFrame, int firstOffset
+ *     per frame: unsigned short length, or 0 followed by an int for a longer gap
+ * </pre>
+ */
+public class SeekTable {
+    private static final int MAX_FRAMES = 1 << 24;  // ~100 h at 44.1 kHz
+
+    private final int sampleRate;
+    private final int samplesPerFrame;
+    private final int[] offsets;  // Per frame, plus the end of the last
+
+    /**
+     * @param offsets Byte offset of each frame followed by the end of the last one, not copied
+     */
+    public SeekTable(int sampleRate, int samplesPerFrame, int[] offsets) {
+        this.sampleRate = sampleRate;
+        this.samplesPerFrame = samplesPerFrame;
+        this.offsets = offsets;
+    }
+
+    public int getFrameCount() {
+        return offsets.length - 1;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+
+    /**
+     * @return Byte offset of a frame's header; for getFrameCount() the end of the audio
+     */
+    public long getByteOffset(int frame) {
+        return offsets[frame];
+    }
+
+    /**
+     * @return Decoded frame (sample per channel) at which a compressed frame starts
+     */
+    public long getSamplePosition(int frame) {
+        return (long) frame * samplesPerFrame;
+    }
+
+    /**
+     * @return The compressed frame that decodes to a sample position, clamped to the table
+     */
+    public int frameAt(long samplePosition) {
+        return (int) Math.max(0, Math.min(getFrameCount() - 1, samplePosition / samplesPerFrame));
+    }
+
+    public long getTotalSamples() {
+        return getSamplePosition(getFrameCount());
+    }
+
+    public long getDurationUs() {
+        return getTotalSamples() * 1000000L / sampleRate;
+    }
+
+    /**
+     * Write a table, or none for null, to be read back with read()
+     */
+    public static void write(DataOutputStream out, SeekTable table) throws IOException {
+        if (table == null) {
+            out.writeInt(0);
+            return;
+        }
+        int frames = table.getFrameCount();
+        out.writeInt(frames);
+        out.writeInt(table.sampleRate);
+        out.writeInt(table.samplesPerFrame);
+        out.writeInt(table.offsets[0]);
+        // Frame lengths fit in 16 bits; resynchronizing over junk can leave longer gaps
+        for (int i = 1; i <= frames; i++) {
+            int length = table.offsets[i] - table.offsets[i - 1];
+            if (length > 0 && length <= 0xFFFF) {
+                out.writeShort(length);
+            } else {
+                out.writeShort(0);
+                out.writeInt(length);
+            }
+        }
+    }
+
+    /**
+     * @return The table stored by write(), or null if none was
+     */
+    public static SeekTable read(DataInputStream in) throws IOException {
+        int frames = in.readInt();
+        if (frames == 0) {
+            return null;
+        }
+        int sampleRate = in.readInt();
+        int samplesPerFrame = in.readInt();
+        if (frames < 0 || frames > MAX_FRAMES || sampleRate <= 0 || samplesPerFrame <= 0) {
+            throw new IOException("Corrupt seek table");
+        }
+        int[] offsets = new int[frames + 1];
+        offsets[0] = in.readInt();
+        for (int i = 1; i <= frames; i++) {
+            int length = in.readUnsignedShort();
+            if (length == 0) {
+                length = in.readInt();
+            }
+            offsets[i] = offsets[i - 1] + length;
+        }
+        return new SeekTable(sampleRate, samplesPerFrame, offsets);
+    }
+}
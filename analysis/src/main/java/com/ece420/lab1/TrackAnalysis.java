@@ -0,0 +1,164 @@
+package com.ece420.lab1;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * One analysis pass over a track: BPM, key, similarity features and the
+ * fingerprint computed from the same downmixed frames, and loudness from the PCM
+ * itself.
+ *
+ * The frame stages stop once the BPM has converged or the budget is used up,
+ * and the final BPM is published right then. Loudness needs the whole track, so
+ * callers that can keep feeding after wantsMore() turns false get integrated
+ * loudness and true peak over everything fed at a fraction of the cost.
+ *
+ * The app drives it from its MediaCodec decoder and BatchAnalyzer from WAV
+ * files, so both produce identical results for the same audio.
+ *
+ * An instance can be reset() and reused for the next track. In the same format
+ * every stage keeps its tables and scratch arrays, so after the first track the
+ * pass allocates nothing until the result is built.
+ */
+public class TrackAnalysis {
+    // Analyze at most this much audio unless the caller asks otherwise
+    public static final float DEFAULT_BUDGET_SEC = 30.0f;
+
+    private BPMSession session;
+    private AnalysisFrames frames;
+    private KeyDetector keyDetector;
+    private FeatureExtractor featureExtractor;
+    private Fingerprinter fingerprinter;
+    private LoudnessMeter loudnessMeter;
+
+    /**
+     * @param budgetSec Stop analyzing after this much audio, earlier if the BPM converges
+     * @param listener Receives provisional and final BPM estimates, may be null
+     */
+    public TrackAnalysis(int sampleRate, int channelCount, float budgetSec, BPMSession.Listener listener) {
+        build(sampleRate, channelCount, budgetSec, listener);
+    }
+
+    /**
+     * Pass around a tempo analysis that was already done; the session does not listen to the frames
+     */
+    private TrackAnalysis(BPMSession session, int sampleRate, int channelCount) {
+        frames = new AnalysisFrames(sampleRate, channelCount);
+        this.session = session;
+        keyDetector = new KeyDetector(frames);
+        featureExtractor = new FeatureExtractor(frames);
+        fingerprinter = new Fingerprinter(frames);
+        loudnessMeter = new LoudnessMeter(sampleRate, channelCount);
+    }
+
+    /**
+     * Start a new pass, reusing the stages when the format has not changed
+     * @param budgetSec Stop analyzing after this much audio, earlier if the BPM converges
+     * @param listener Receives provisional and final BPM estimates, may be null
+     */
+    public void reset(int sampleRate, int channelCount, float budgetSec, BPMSession.Listener listener) {
+        if (sampleRate != frames.getSampleRate() || Math.max(1, channelCount) != frames.getChannelCount()) {
+            build(sampleRate, channelCount, budgetSec, listener);
+            return;
+        }
+        frames.reset();
+        session.reset(budgetSec, listener);
+        keyDetector.reset();
+        featureExtractor.reset();
+        fingerprinter.reset();
+        loudnessMeter.reset();
+    }
+
+    private void build(int sampleRate, int channelCount, float budgetSec, BPMSession.Listener listener) {
+        frames = new AnalysisFrames(sampleRate, channelCount);
+        session = new BPMSession(frames, budgetSec, listener);
+        keyDetector = new KeyDetector(frames);
+        featureExtractor = new FeatureExtractor(frames);
+        fingerprinter = new Fingerprinter(frames);
+        loudnessMeter = new LoudnessMeter(sampleRate, channelCount);
+    }
+
+    /**
+     * Analyze a decoded track held in a SampleStore, one chunk at a time
+     * @param budgetSec Stop analyzing after this much audio, earlier if the BPM converges
+     * @param listener Receives provisional and final BPM estimates, may be null
+     */
+    public static AnalysisResult analyze(SampleStore samples, float budgetSec, BPMSession.Listener listener) {
+        TrackAnalysis analysis = new TrackAnalysis(samples.getSampleRate(), samples.getChannelCount(),
+            budgetSec, listener);
+        for (ShortBuffer block : samples.blocks(0, samples.getFrameCount())) {
+            analysis.feed(block);
+        }
+        return analysis.finish();
+    }
+
+    /**
+     * Analyze a decoded track with the tempo computed on a ForkJoinPool, see
+     * BPMSession.analyze(). The final BPM is published as soon as that returns; key
+     * and features then take one serial pass over the frames the tempo analysis
+     * used, and loudness one over the whole track.
+     * @param budgetSec Stop analyzing after this much audio, earlier if the BPM converges
+     * @param listener Receives provisional and final BPM estimates, may be null
+     */
+    public static AnalysisResult analyze(SampleStore samples, float budgetSec, BPMSession.Listener listener,
+                                         ForkJoinPool pool) {
+        BPMSession tempo = BPMSession.analyze(samples, budgetSec, listener, pool);
+        TrackAnalysis analysis = new TrackAnalysis(tempo, samples.getSampleRate(), samples.getChannelCount());
+        for (ShortBuffer block : samples.blocks(0, tempo.getAnalyzedFrames())) {
+            analysis.frames.feed(block);
+        }
+        for (ShortBuffer block : samples.blocks(0, samples.getFrameCount())) {
+            analysis.loudnessMeter.feed(block);
+        }
+        return analysis.finish();
+    }
+
+    /**
+     * Feed a block of interleaved 16-bit PCM, consuming it
+     * @return true while the BPM analysis wants more audio; later blocks only go to the loudness meter
+     */
+    public boolean feed(ShortBuffer pcm) {
+        loudnessMeter.feed(pcm);
+        if (!session.wantsMore()) {
+            pcm.position(pcm.limit());
+            return false;
+        }
+        frames.feed(pcm);
+        if (!session.wantsMore()) {
+            // Publish the final BPM now rather than after the rest of the track
+            session.finish();
+            return false;
+        }
+        return true;
+    }
+
+    public boolean wantsMore() {
+        return session.wantsMore();
+    }
+
+    /**
+     * @return true once the fingerprint covers Fingerprinter.FINGERPRINT_SEC or the
+     *         frame stages have stopped, so getLandmarks() will not grow any more
+     */
+    public boolean isFingerprintComplete() {
+        return fingerprinter.isComplete() || !session.wantsMore();
+    }
+
+    /**
+     * @return Fingerprint landmarks of the audio fed so far, to look for a duplicate before the pass ends
+     */
+    public long[] getLandmarks() {
+        return fingerprinter.getLandmarks();
+    }
+
+    /**
+     * Finish the pass and publish the final BPM estimate if that has not happened yet
+     */
+    public AnalysisResult finish() {
+        float bpm = session.finish();
+        return new AnalysisResult(bpm, session.getConfidence(), keyDetector.getKeyCode(),
+            session.getAnalyzedSeconds(), session.getBeatOffsetSeconds(),
+            featureExtractor.getFeatures(session.getPeriodicity()),
+            loudnessMeter.getIntegratedLoudness(), loudnessMeter.getTruePeakDb(), fingerprinter.getLandmarks());
+    }
+}
@@ -0,0 +1,244 @@
+package com.ece420.lab1;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A track's waveform as displayed, in a compact byte format that the caches store
+ * and WaveformView draws from as is: per point the smallest and largest sample as
+ * signed 8-bit values and, when it came from decoded PCM, the low/mid/high band
+ * energies that color it.
+ *
+ * The 8-bit values are relative to the loudest sample of the track, so quiet
+ * tracks keep their resolution; the header's scale is the amplitude of 127.
+ * A point takes 2 bytes, 5 with bands, against 4 for the single float peak that
+ * was kept before.
+ *
+ * Byte layout (big-endian):
+ * <pre>
+ *     byte format, byte flags (FLAG_BANDS), short unused
+ *     int pointCount, int framesPerPoint (0 if unknown), float scale
+ *     byte[pointCount * 2] min, max per point
+ *     byte[pointCount * WaveformBands.BANDS] band energies, only with FLAG_BANDS
+ * </pre>
+ */
+public class Waveform {
+    public static final int HEADER_BYTES = 16;
+    private static final byte FORMAT = 1;
+    private static final int FLAG_BANDS = 1;
+    private static final int MAX_POINTS = 1 << 20;
+    private static final int LEVELS = 127;  // Largest quantized magnitude
+
+    private final byte[] data;
+    private final int pointCount;
+    private final int framesPerPoint;
+    private final float scale;
+    private final boolean hasBands;
+
+    private Waveform(byte[] data) {
+        ByteBuffer header = ByteBuffer.wrap(data);
+        this.data = data;
+        hasBands = (header.get(1) & FLAG_BANDS) != 0;
+        pointCount = header.getInt(4);
+        framesPerPoint = header.getInt(8);
+        scale = header.getFloat(12);
+    }
+
+    private static byte[] allocate(int pointCount, int framesPerPoint, float scale, boolean hasBands) {
+        int size = HEADER_BYTES + pointCount * (2 + (hasBands ? WaveformBands.BANDS : 0));
+        byte[] data = new byte[size];
+        ByteBuffer.wrap(data)
+            .put(0, FORMAT)
+            .put(1, (byte) (hasBands ? FLAG_BANDS : 0))
+            .putInt(4, pointCount)
+            .putInt(8, framesPerPoint)
+            .putFloat(12, scale);
+        return data;
+    }
+
+    /**
+     * Downsample what was collected in one pass to targetPoints points, keeping the
+     * smallest and largest sample of each
+     * @return The waveform, or null if no peaks were collected
+     */
+    public static Waveform reduce(WaveformPeaks peaks, WaveformBands bands, int targetPoints) {
+        int windows = peaks.getWindowCount();
+        if (windows == 0) {
+            return null;
+        }
+        short[] minima = peaks.getMinima();
+        short[] maxima = peaks.getMaxima();
+        int points = Math.min(windows, targetPoints);
+        int windowSize = windows / points;
+
+        byte[] shownBands = null;
+        if (bands != null) {
+            // A partial last bin is dropped by both, so the counts only differ for odd channel layouts
+            byte[] allBands = bands.getBands();
+            if (allBands.length == windows * WaveformBands.BANDS) {
+                shownBands = WaveformBands.downsample(allBands, targetPoints);
+            }
+        }
+
+        int loudest = 0;
+        for (int i = 0; i < windows; i++) {
+            loudest = Math.max(loudest, Math.max(-minima[i], maxima[i]));
+        }
+
+        byte[] data = allocate(points, windowSize * peaks.getWindowFrames(), loudest / 32768.0f,
+            shownBands != null);
+        for (int i = 0; i < points; i++) {
+            int start = i * windowSize;
+            int end = Math.min(start + windowSize, windows);
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int j = start; j < end; j++) {
+                if (minima[j] < min) min = minima[j];
+                if (maxima[j] > max) max = maxima[j];
+            }
+            data[HEADER_BYTES + 2 * i] = quantize(min, loudest);
+            data[HEADER_BYTES + 2 * i + 1] = quantize(max, loudest);
+        }
+        if (shownBands != null) {
+            System.arraycopy(shownBands, 0, data, HEADER_BYTES + 2 * points, shownBands.length);
+        }
+        return new Waveform(data);
+    }
+
+    private static byte quantize(int sample, int loudest) {
+        if (loudest == 0) {
+            return 0;
+        }
+        // Round away from zero, so a window with any signal keeps a visible bar
+        int magnitude = (Math.abs(sample) * LEVELS + loudest - 1) / loudest;
+        return (byte) (sample < 0 ? -magnitude : magnitude);
+    }
+
+    /**
+     * Build a symmetric waveform from an envelope without band energies, such as the
+     * MP3 preview
+     * @param envelope Amplitudes (0 to 1)
+     */
+    public static Waveform fromEnvelope(float[] envelope) {
+        float loudest = 0;
+        for (float value : envelope) {
+            loudest = Math.max(loudest, Math.abs(value));
+        }
+        byte[] data = allocate(envelope.length, 0, loudest, false);
+        for (int i = 0; i < envelope.length; i++) {
+            int magnitude = loudest > 0 ? Math.round(Math.abs(envelope[i]) / loudest * LEVELS) : 0;
+            data[HEADER_BYTES + 2 * i] = (byte) -magnitude;
+            data[HEADER_BYTES + 2 * i + 1] = (byte) magnitude;
+        }
+        return new Waveform(data);
+    }
+
+    /**
+     * Use bytes from toByteArray() without copying them
+     * @return The waveform, or null if the bytes are not one
+     */
+    public static Waveform fromByteArray(byte[] data) {
+        if (data.length < HEADER_BYTES || data[0] != FORMAT) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(data);
+        int points = header.getInt(4);
+        boolean bands = (data[1] & FLAG_BANDS) != 0;
+        if (points <= 0 || points > MAX_POINTS
+                || data.length != HEADER_BYTES + points * (2 + (bands ? WaveformBands.BANDS : 0))) {
+            return null;
+        }
+        return new Waveform(data);
+    }
+
+    /**
+     * @return The backing bytes, to be stored as they are and not modified
+     */
+    public byte[] toByteArray() {
+        return data;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return Frames of the track behind each point, 0 if unknown
+     */
+    public int getFramesPerPoint() {
+        return framesPerPoint;
+    }
+
+    /**
+     * @return Amplitude (0 to 1) of a quantized value of 127
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * @return Smallest sample of a point, -127 to 127 in units of getScale() / 127
+     */
+    public int getMin(int point) {
+        return data[HEADER_BYTES + 2 * point];
+    }
+
+    /**
+     * @return Largest sample of a point, -127 to 127 in units of getScale() / 127
+     */
+    public int getMax(int point) {
+        return data[HEADER_BYTES + 2 * point + 1];
+    }
+
+    public boolean hasBands() {
+        return hasBands;
+    }
+
+    /**
+     * @return Energy of a WaveformBands band at a point, 0 to 255; only with hasBands()
+     */
+    public int getBand(int point, int band) {
+        return data[HEADER_BYTES + 2 * pointCount + point * WaveformBands.BANDS + band] & 0xFF;
+    }
+
+    /**
+     * @return Bytes held
+     */
+    public long getSizeBytes() {
+        return data.length;
+    }
+
+    /**
+     * Write a waveform, or none for null, to be read back with read()
+     */
+    public static void write(DataOutputStream out, Waveform waveform) throws IOException {
+        if (waveform == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(waveform.data.length);
+        out.write(waveform.data);
+    }
+
+    /**
+     * @return The waveform stored by write(), or null if none was
+     */
+    public static Waveform read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == 0) {
+            return null;
+        }
+        if (length < HEADER_BYTES || length > HEADER_BYTES + MAX_POINTS * (2 + WaveformBands.BANDS)) {
+            throw new IOException("Corrupt waveform");
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        Waveform waveform = fromByteArray(data);
+        if (waveform == null) {
+            throw new IOException("Corrupt waveform");
+        }
+        return waveform;
+    }
+}
@@ -0,0 +1,220 @@
+package com.ece420.lab1;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Low, mid and high band energies of a stream of interleaved 16-bit PCM, one
+ * triple per waveform bin, for a colored waveform.
+ *
+ * The mono downmix goes through a crossover of streaming Butterworth biquads:
+ * a low pass at LOW_CROSSOVER_HZ for the kicks and bass, a band pass between the
+ * two crossovers for vocals and leads, and a high pass at HIGH_CROSSOVER_HZ for
+ * hi-hats and cymbals. Each band's RMS over a bin is quantized to a byte, with 255
+ * for a full-scale sine. A bin spans the frames of one WaveformPeaks window, so the
+ * two line up and are fed from the same decode.
+ *
+ * Like LoudnessMeter, the PCM is read with absolute gets and the buffer's position
+ * is left alone.
+ */
+public class WaveformBands {
+    public static final int BANDS = 3;  // Low, mid, high; interleaved in getBands()
+
+    private static final double LOW_CROSSOVER_HZ = 200.0;
+    private static final double HIGH_CROSSOVER_HZ = 2000.0;
+    private static final double Q = 0.7071067811865476;  // Butterworth
+
+    private static final double DENORMAL_GUARD = 1e-20;  // Keeps the filter state out of subnormals in silence
+    private static final double FULL_SCALE_RMS = Math.sqrt(0.5);  // RMS of a full-scale sine
+
+    private final int channelCount;
+    private final int binFrames;
+
+    // Coefficients (a0 normalized to 1): low pass and high pass at each crossover
+    private final Biquad lowLowPass;
+    private final Biquad lowHighPass;
+    private final Biquad highLowPass;
+    private final Biquad highHighPass;
+
+    // Filter state, transposed direct form II
+    private double lowZ1, lowZ2;
+    private double midHpZ1, midHpZ2, midLpZ1, midLpZ2;
+    private double highZ1, highZ2;
+
+    // Current bin
+    private double lowEnergy;
+    private double midEnergy;
+    private double highEnergy;
+    private int binFill;
+
+    private byte[] bands = new byte[BANDS * 4096];
+    private int binCount;
+
+    private static class Biquad {
+        final double b0, b1, b2, a1, a2;
+
+        Biquad(double b0, double b1, double b2, double a1, double a2) {
+            this.b0 = b0;
+            this.b1 = b1;
+            this.b2 = b2;
+            this.a1 = a1;
+            this.a2 = a2;
+        }
+
+        static Biquad lowPass(double cutoffHz, int sampleRate) {
+            double k = Math.tan(Math.PI * Math.min(cutoffHz, 0.45 * sampleRate) / sampleRate);
+            double a0 = 1 + k / Q + k * k;
+            double b0 = k * k / a0;
+            return new Biquad(b0, 2 * b0, b0, 2 * (k * k - 1) / a0, (1 - k / Q + k * k) / a0);
+        }
+
+        static Biquad highPass(double cutoffHz, int sampleRate) {
+            double k = Math.tan(Math.PI * Math.min(cutoffHz, 0.45 * sampleRate) / sampleRate);
+            double a0 = 1 + k / Q + k * k;
+            double b0 = 1 / a0;
+            return new Biquad(b0, -2 * b0, b0, 2 * (k * k - 1) / a0, (1 - k / Q + k * k) / a0);
+        }
+    }
+
+    public WaveformBands(int sampleRate, int channelCount) {
+        this.channelCount = Math.max(1, channelCount);
+        binFrames = Math.max(1, WaveformPeaks.PEAK_WINDOW / this.channelCount);
+        lowLowPass = Biquad.lowPass(LOW_CROSSOVER_HZ, sampleRate);
+        lowHighPass = Biquad.highPass(LOW_CROSSOVER_HZ, sampleRate);
+        highLowPass = Biquad.lowPass(HIGH_CROSSOVER_HZ, sampleRate);
+        highHighPass = Biquad.highPass(HIGH_CROSSOVER_HZ, sampleRate);
+    }
+
+    /**
+     * Filter a block of interleaved 16-bit PCM without consuming it
+     */
+    public void add(ShortBuffer pcm) {
+        int start = pcm.position();
+        int end = start + (pcm.remaining() / channelCount) * channelCount;
+        double scale = 1.0 / (32768.0 * channelCount);
+
+        Biquad lp = lowLowPass;
+        Biquad hp = lowHighPass;
+        Biquad lp2 = highLowPass;
+        Biquad hp2 = highHighPass;
+        double l1 = lowZ1, l2 = lowZ2;
+        double m1 = midHpZ1, m2 = midHpZ2, n1 = midLpZ1, n2 = midLpZ2;
+        double h1 = highZ1, h2 = highZ2;
+
+        int i = start;
+        while (i < end) {
+            // Up to the end of the current bin, with the state in locals
+            int frames = Math.min((end - i) / channelCount, binFrames - binFill);
+            int segmentEnd = i + frames * channelCount;
+            double low = 0, mid = 0, high = 0;
+            for (; i < segmentEnd; i += channelCount) {
+                int sum = 0;
+                for (int c = 0; c < channelCount; c++) {
+                    sum += pcm.get(i + c);
+                }
+                double x = sum * scale + DENORMAL_GUARD;
+
+                double y = lp.b0 * x + l1;
+                l1 = lp.b1 * x - lp.a1 * y + l2;
+                l2 = lp.b2 * x - lp.a2 * y;
+                low += y * y;
+
+                double u = hp.b0 * x + m1;
+                m1 = hp.b1 * x - hp.a1 * u + m2;
+                m2 = hp.b2 * x - hp.a2 * u;
+                y = lp2.b0 * u + n1;
+                n1 = lp2.b1 * u - lp2.a1 * y + n2;
+                n2 = lp2.b2 * u - lp2.a2 * y;
+                mid += y * y;
+
+                y = hp2.b0 * x + h1;
+                h1 = hp2.b1 * x - hp2.a1 * y + h2;
+                h2 = hp2.b2 * x - hp2.a2 * y;
+                high += y * y;
+            }
+            lowEnergy += low;
+            midEnergy += mid;
+            highEnergy += high;
+
+            binFill += frames;
+            if (binFill == binFrames) {
+                closeBin();
+            }
+        }
+
+        lowZ1 = l1;
+        lowZ2 = l2;
+        midHpZ1 = m1;
+        midHpZ2 = m2;
+        midLpZ1 = n1;
+        midLpZ2 = n2;
+        highZ1 = h1;
+        highZ2 = h2;
+    }
+
+    /**
+     * Add every sample of a decoded track, one chunk at a time
+     */
+    public void add(SampleStore samples) {
+        for (ShortBuffer block : samples.blocks(0, samples.getFrameCount())) {
+            add(block);
+        }
+    }
+
+    private void closeBin() {
+        if (binCount * BANDS == bands.length) {
+            byte[] grown = new byte[bands.length * 2];
+            System.arraycopy(bands, 0, grown, 0, bands.length);
+            bands = grown;
+        }
+        int offset = binCount++ * BANDS;
+        bands[offset] = quantize(lowEnergy);
+        bands[offset + 1] = quantize(midEnergy);
+        bands[offset + 2] = quantize(highEnergy);
+        lowEnergy = 0;
+        midEnergy = 0;
+        highEnergy = 0;
+        binFill = 0;
+    }
+
+    private byte quantize(double energy) {
+        double level = Math.sqrt(energy / binFrames) / FULL_SCALE_RMS;
+        return (byte) Math.min(255, (int) Math.round(level * 255));
+    }
+
+    /**
+     * @return Band energies collected so far, BANDS unsigned bytes per bin
+     */
+    public byte[] getBands() {
+        byte[] result = new byte[binCount * BANDS];
+        System.arraycopy(bands, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Reduce band energies to targetPoints bins, keeping each band's maximum, with
+     * the same windows as Waveform.reduce()
+     */
+    public static byte[] downsample(byte[] bands, int targetPoints) {
+        int bins = bands.length / BANDS;
+        if (bins <= targetPoints) {
+            return bands;
+        }
+
+        byte[] downsampled = new byte[targetPoints * BANDS];
+        int windowSize = bins / targetPoints;
+
+        for (int i = 0; i < targetPoints; i++) {
+            int start = i * windowSize;
+            int end = Math.min(start + windowSize, bins);
+            for (int b = 0; b < BANDS; b++) {
+                int max = 0;
+                for (int j = start; j < end; j++) {
+                    max = Math.max(max, bands[j * BANDS + b] & 0xFF);
+                }
+                downsampled[i * BANDS + b] = (byte) max;
+            }
+        }
+
+        return downsampled;
+    }
+}
@@ -0,0 +1,97 @@
+package com.ece420.lab1;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Reduces a stream of interleaved 16-bit PCM to a min/max envelope.
+ *
+ * The smallest and largest sample of every PEAK_WINDOW interleaved samples are
+ * kept as 16-bit values, so a whole track is reduced while it is decoded and only
+ * the envelope is held in memory. Samples are compared as integers straight from
+ * the buffer; Waveform.reduce() turns the envelope into what is displayed.
+ */
+public class WaveformPeaks {
+    // Interleaved samples reduced to one min/max pair while decoding (~11.6 ms of 44.1 kHz stereo)
+    public static final int PEAK_WINDOW = 1024;
+
+    private final int windowFrames;
+    private short[] minima = new short[4096];
+    private short[] maxima = new short[4096];
+    private int windowCount;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private int windowFill;
+
+    public WaveformPeaks(int channelCount) {
+        windowFrames = Math.max(1, PEAK_WINDOW / Math.max(1, channelCount));
+    }
+
+    public void add(ShortBuffer pcm) {
+        int limit = pcm.limit();
+        for (int i = pcm.position(); i < limit; i++) {
+            int sample = pcm.get(i);
+            if (sample > max) max = sample;
+            if (sample < min) min = sample;
+
+            if (++windowFill == PEAK_WINDOW) {
+                if (windowCount == minima.length) {
+                    minima = grow(minima, windowCount);
+                    maxima = grow(maxima, windowCount);
+                }
+                minima[windowCount] = (short) min;
+                maxima[windowCount++] = (short) max;
+                min = Integer.MAX_VALUE;
+                max = Integer.MIN_VALUE;
+                windowFill = 0;
+            }
+        }
+        pcm.position(limit);
+    }
+
+    /**
+     * Add every sample of a decoded track, one chunk at a time
+     */
+    public void add(SampleStore samples) {
+        for (ShortBuffer block : samples.blocks(0, samples.getFrameCount())) {
+            add(block);
+        }
+    }
+
+    private static short[] grow(short[] values, int count) {
+        short[] grown = new short[values.length * 2];
+        System.arraycopy(values, 0, grown, 0, count);
+        return grown;
+    }
+
+    /**
+     * @return Number of complete windows so far
+     */
+    public int getWindowCount() {
+        return windowCount;
+    }
+
+    /**
+     * @return Frames covered by one window
+     */
+    public int getWindowFrames() {
+        return windowFrames;
+    }
+
+    /**
+     * @return Smallest sample of each window collected so far
+     */
+    public short[] getMinima() {
+        short[] values = new short[windowCount];
+        System.arraycopy(minima, 0, values, 0, windowCount);
+        return values;
+    }
+
+    /**
+     * @return Largest sample of each window collected so far
+     */
+    public short[] getMaxima() {
+        short[] values = new short[windowCount];
+        System.arraycopy(maxima, 0, values, 0, windowCount);
+        return values;
+    }
+}
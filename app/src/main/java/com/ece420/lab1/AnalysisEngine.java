@@ -0,0 +1,471 @@
+package com.ece420.lab1;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Analyzes imported tracks in the background for as long as the process lives,
+ * independently of DJActivity, which is recreated on rotation and destroyed when
+ * backgrounded mid-import.
+ *
+ * There is one engine per process, created on first use. It owns the track
+ * library, the fingerprint index and the analysis cache, so an analysis is saved
+ * whether or not an activity is attached when it finishes. A job is a file already
+ * copied into the library folder: the picker's URI permission does not outlive the
+ * process, the copy does. Unfinished jobs are checkpointed to a file whenever the
+ * queue changes and resumed when the engine is next created.
+ *
+ * Queue file layout (big-endian):
+ * <pre>
+ *     int magic, int version, int jobCount
+ *     per job: UTF name, UTF filePath
+ * </pre>
+ */
+public class AnalysisEngine {
+    private static final String TAG = "AnalysisEngine";
+
+    private static final int MAGIC = 0x41515545;  // "AQUE"
+    private static final int VERSION = 1;
+
+    private static final String LIBRARY_FILE_NAME = "library.bin";
+    private static final String FINGERPRINT_FILE_NAME = "fingerprints.bin";
+    private static final String QUEUE_FILE_NAME = "analysis-queue.bin";
+    private static final String ANALYSIS_CACHE_DIR_NAME = "analysis";
+
+    private static AnalysisEngine instance;
+
+    /**
+     * Receives the engine's progress on the main thread
+     */
+    public interface Listener {
+        /**
+         * A provisional or final BPM of the track being analyzed
+         */
+        void onTempoEstimate(Track track, float bpm, float confidence, boolean isFinal);
+
+        /**
+         * The track's key, features, beat grid and gain are set and it is saved to the library
+         * @param libraryIndex The track's index in the library
+         */
+        void onTrackAnalyzed(Track track, int libraryIndex);
+
+        /**
+         * The imported file was a copy of a library track, which it was dropped for
+         * @param importPath The dropped copy's path, as enqueued
+         * @param libraryIndex The library track's index
+         */
+        void onAlreadyInLibrary(String importPath, int libraryIndex);
+
+        /**
+         * The track's fingerprint matched a library track in another file, whose analysis
+         * it was given; called before onTrackAnalyzed()
+         * @param originalPath The library track's path
+         */
+        void onSameRecording(Track track, String originalPath);
+
+        void onAnalysisFailed(String fileName, Exception e);
+
+        /**
+         * @param pending Jobs queued or running
+         * @param completed Jobs finished since the queue was last empty
+         * @param tracksPerMinute Throughput since the queue was last empty
+         */
+        void onQueueChanged(int pending, int completed, float tracksPerMinute);
+    }
+
+    private static class Job {
+        final String fileName;
+        final String filePath;
+        final DecodedTrack decode;  // Held for the job, null to decode the file itself; not checkpointed
+
+        Job(String fileName, String filePath, DecodedTrack decode) {
+            this.fileName = fileName;
+            this.filePath = filePath;
+            this.decode = decode;
+        }
+    }
+
+    private final File queueFile;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final SimpleBPMDetector bpmDetector = new SimpleBPMDetector();
+    private final Future<TrackLibrary> trackLibrary;
+    private final Future<FingerprintIndex> fingerprintIndex;
+    private final AnalysisCache analysisCache;
+
+    // Guarded by this
+    private final List<Job> pending = new ArrayList<>();
+    private int completed;
+    private long batchStartNanos;
+
+    private Listener listener;  // Only touched on the main thread
+
+    private AnalysisEngine(Context context) {
+        File filesDir = context.getFilesDir();
+        queueFile = new File(filesDir, QUEUE_FILE_NAME);
+        trackLibrary = executor.submit(() -> TrackLibrary.open(new File(filesDir, LIBRARY_FILE_NAME)));
+        fingerprintIndex = executor.submit(() -> FingerprintIndex.open(new File(filesDir, FINGERPRINT_FILE_NAME)));
+        File externalFiles = context.getExternalFilesDir(null);
+        analysisCache = new AnalysisCache(new File(
+            externalFiles != null ? externalFiles : filesDir, ANALYSIS_CACHE_DIR_NAME));
+
+        // Jobs left over from the last process are read back on the engine thread, before any
+        // new import can checkpoint over them
+        executor.execute(() -> {
+            for (Job job : readQueue(queueFile)) {
+                submit(job);
+            }
+        });
+    }
+
+    /**
+     * @return The process's engine, created and resuming its checkpointed queue on first use
+     */
+    public static synchronized AnalysisEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new AnalysisEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public Future<TrackLibrary> getTrackLibrary() {
+        return trackLibrary;
+    }
+
+    public AnalysisCache getAnalysisCache() {
+        return analysisCache;
+    }
+
+    /**
+     * Attach the UI, or detach it with null. Must be called on the main thread.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener != null) {
+            postQueueChanged();
+        }
+    }
+
+    /**
+     * Queue a file in the library folder for analysis
+     * @param fileName Name shown for the track
+     */
+    public void enqueue(String fileName, File libraryFile) {
+        submit(new Job(fileName, libraryFile.getAbsolutePath(), null));
+    }
+
+    /**
+     * Queue a file that the deck is decoding anyway; the analysis reads the deck's
+     * samples as they arrive instead of decoding the file again
+     * @param decode The file's decode, retained until the analysis is done
+     */
+    public void enqueue(String fileName, File libraryFile, DecodedTrack decode) {
+        submit(new Job(fileName, libraryFile.getAbsolutePath(), decode.retain() ? decode : null));
+    }
+
+    private void submit(Job job) {
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                completed = 0;
+                batchStartNanos = System.nanoTime();
+            }
+            pending.add(job);
+        }
+        // Written on the engine thread, enqueue() is called from the UI
+        executor.execute(this::checkpoint);
+        postQueueChanged();
+        executor.execute(() -> {
+            try {
+                analyze(job);
+            } catch (Exception e) {
+                Log.e(TAG, "Error analyzing " + job.filePath, e);
+                deliver(listener -> listener.onAnalysisFailed(job.fileName, e));
+            } finally {
+                if (job.decode != null) {
+                    job.decode.release();
+                }
+            }
+            synchronized (this) {
+                pending.remove(job);
+                completed++;
+            }
+            checkpoint();
+            postQueueChanged();
+        });
+    }
+
+    private void analyze(Job job) throws Exception {
+        File file = new File(job.filePath);
+        if (!file.isFile()) {
+            Log.w(TAG, "Queued file is gone: " + job.filePath);
+            return;
+        }
+
+        // Skip analysis if the same file was imported before
+        long hash = ContentHash.of(file);
+        TrackLibrary library = trackLibrary.get();
+        int existing = library.indexOfHash(hash);
+        if (existing >= 0) {
+            String existingPath = library.getFilePath(existing);
+            if (existingPath.equals(job.filePath)) {
+                return;  // Saved just before the process died, the checkpoint was not updated yet
+            }
+            Log.d(TAG, "Already in library, reusing analysis");
+            file.delete();
+            deliver(listener -> listener.onAlreadyInLibrary(job.filePath, existing));
+            return;
+        }
+
+        // Create track object, its BPM is refined while analysis runs
+        Track track = new Track(job.fileName, job.filePath, BPMSession.DEFAULT_BPM);
+
+        // An MP3's frame index is built once here and cached; it also gives the exact duration,
+        // where MediaMetadataRetriever estimates a VBR file without a Xing TOC from its first frame
+        SeekTable seekTable = file.getName().toLowerCase(Locale.ROOT).endsWith(".mp3")
+            ? readSeekTable(file) : null;
+        track.setDurationMs(seekTable != null
+            ? (int) (seekTable.getDurationUs() / 1000) : readDurationMs(job.filePath));
+
+        // Use a batch-analyzed result if one was synced to the device
+        AnalysisCache.Entry cached = analysisCache.get(hash);
+        if (cached != null) {
+            Log.d(TAG, "Using precomputed analysis");
+            if (seekTable != null && cached.getSeekTable() == null) {
+                cache(hash, cached.getResult(), cached.getWaveform(), seekTable);
+            }
+            complete(track, hash, cached.getResult());
+            return;
+        }
+
+        // Detect BPM and key, publishing provisional BPM estimates as audio is decoded.
+        // Stops after the opening if its fingerprint is a library track in another file
+        Log.d(TAG, "Starting analysis of " + job.fileName);
+        FingerprintIndex fingerprints = fingerprintIndex.get();
+        FingerprintIndex.Match[] duplicate = new FingerprintIndex.Match[1];
+        BPMSession.Listener estimates = (estimate, confidence, isFinal) -> deliver(listener ->
+            listener.onTempoEstimate(track, estimate, confidence, isFinal));
+        SimpleBPMDetector.DuplicateCheck duplicateCheck = landmarks -> {
+            duplicate[0] = fingerprints.find(landmarks);
+            return duplicate[0] != null && library.indexOfHash(duplicate[0].getContentHash()) >= 0;
+        };
+        // The deck's samples if it is decoding the file, fed to the pass as they arrive
+        AnalysisResult result = job.decode != null
+            ? bpmDetector.analyze(job.decode, estimates, duplicateCheck)
+            : bpmDetector.analyze(job.filePath, estimates, duplicateCheck);
+        if (result == null) {
+            long originalHash = duplicate[0].getContentHash();
+            Track original = library.getTrack(library.indexOfHash(originalHash));
+            Log.d(TAG, "Same recording as " + original.getName() + " (" + duplicate[0].getVotes()
+                + " votes, offset " + duplicate[0].getOffsetSeconds() + " s), reusing its analysis");
+            completeDuplicate(track, hash, seekTable, original, originalHash, duplicate[0].getOffsetSeconds());
+            return;
+        }
+        Log.d(TAG, "Analysis complete: " + result.getBpm() + " BPM, key "
+            + KeyDetector.toCamelot(result.getKeyCode()));
+        fingerprints.add(hash, result.getLandmarks());
+        if (seekTable != null) {
+            // The deck decode adds nothing to the entry, its waveform is kept in the WaveformCache
+            cache(hash, result, null, seekTable);
+        }
+        complete(track, hash, result);
+    }
+
+    private void complete(Track track, long hash, AnalysisResult result) throws Exception {
+        track.setBpm(result.getBpm());
+        track.setKeyCode(result.getKeyCode());
+        track.setFeatures(result.getFeatures());
+        track.setBeatOffsetSeconds(result.getBeatOffsetSeconds());
+        track.setGainDb(result.getAutoGainDb());
+        float bpm = result.getBpm();
+        float confidence = result.getBpmConfidence();
+        save(track, hash, bpm, confidence);
+    }
+
+    /**
+     * Take the analysis of a library track that the new file's fingerprint matched,
+     * with the beat grid moved by the offset between the two files, and its cached waveform
+     * @param offsetSeconds Seconds to add to a time in the new file to get the same audio in the original
+     */
+    private void completeDuplicate(Track track, long hash, SeekTable seekTable, Track original,
+                                   long originalHash, float offsetSeconds) throws Exception {
+        track.setBpm(original.getBpm());
+        track.setKeyCode(original.getKeyCode());
+        track.setFeatures(original.getFeatures());
+        float beatPeriod = 60.0f / original.getBpm();
+        float beatOffset = (original.getBeatOffsetSeconds() - offsetSeconds) % beatPeriod;
+        track.setBeatOffsetSeconds(beatOffset < 0 ? beatOffset + beatPeriod : beatOffset);
+        track.setGainDb(original.getGainDb());
+        cacheDuplicate(track, hash, originalHash, seekTable);
+        deliver(listener -> listener.onSameRecording(track, original.getFilePath()));
+        save(track, hash, original.getBpm(), 1.0f);
+    }
+
+    /**
+     * Store the original's cache entry under the duplicate's hash, with the duplicate's beat
+     * offset and seek table, so loading it skips the extraction decode. The waveform is not
+     * shifted by the offset between the files.
+     */
+    private void cacheDuplicate(Track track, long hash, long originalHash, SeekTable seekTable) {
+        AnalysisCache.Entry original = analysisCache.get(originalHash);
+        if (original == null || (original.getWaveform() == null && seekTable == null)) {
+            return;
+        }
+        AnalysisResult result = original.getResult();
+        cache(hash, new AnalysisResult(result.getBpm(), result.getBpmConfidence(), result.getKeyCode(),
+            result.getAnalyzedSeconds(), track.getBeatOffsetSeconds(), result.getFeatures(),
+            result.getIntegratedLoudness(), result.getTruePeakDb(), result.getLandmarks()),
+            original.getWaveform(), seekTable);
+    }
+
+    private void save(Track track, long hash, float bpm, float confidence) throws Exception {
+        int index = trackLibrary.get().append(track, hash);
+        Log.d(TAG, "Saved to library: " + track.getName());
+        deliver(listener -> {
+            listener.onTempoEstimate(track, bpm, confidence, true);
+            listener.onTrackAnalyzed(track, index);
+        });
+    }
+
+    private void cache(long hash, AnalysisResult result, Waveform waveform, SeekTable seekTable) {
+        try {
+            analysisCache.put(hash, result, waveform, seekTable);
+        } catch (IOException e) {
+            Log.e(TAG, "Error caching analysis", e);
+        }
+    }
+
+    /**
+     * @return The MP3 file's frame index, or null if it has no MP3 frames
+     */
+    private static SeekTable readSeekTable(File file) {
+        long start = System.nanoTime();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            SeekTable table = Mp3FrameParser.buildSeekTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            if (table != null) {
+                Log.d(TAG, "Indexed " + table.getFrameCount() + " MP3 frames in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+            return table;
+        } catch (IOException e) {
+            Log.e(TAG, "Error indexing " + file, e);
+            return null;
+        }
+    }
+
+    private static int readDurationMs(String filePath) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(filePath);
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return duration != null ? Integer.parseInt(duration) : 0;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error reading duration of " + filePath, e);
+            return 0;
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException e) {
+                Log.e(TAG, "Error releasing metadata retriever", e);
+            }
+        }
+    }
+
+    private interface Delivery {
+        void to(Listener listener);
+    }
+
+    /**
+     * Run a callback on the main thread if a listener is attached by then
+     */
+    private void deliver(Delivery delivery) {
+        mainHandler.post(() -> {
+            if (listener != null) {
+                delivery.to(listener);
+            }
+        });
+    }
+
+    private void postQueueChanged() {
+        int pendingCount;
+        int completedCount;
+        float tracksPerMinute;
+        synchronized (this) {
+            pendingCount = pending.size();
+            completedCount = completed;
+            long elapsed = System.nanoTime() - batchStartNanos;
+            tracksPerMinute = completed > 0 && elapsed > 0 ? completed * 60e9f / elapsed : 0;
+        }
+        deliver(listener -> listener.onQueueChanged(pendingCount, completedCount, tracksPerMinute));
+    }
+
+    /**
+     * Write the unfinished jobs, replacing the file only once it is complete
+     */
+    private synchronized void checkpoint() {
+        File tmp = new File(queueFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(pending.size());
+                for (Job job : pending) {
+                    out.writeUTF(job.fileName);
+                    out.writeUTF(job.filePath);
+                }
+            }
+            if (!tmp.renameTo(queueFile)) {
+                throw new IOException("Cannot replace " + queueFile);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            Log.e(TAG, "Error checkpointing analysis queue", e);
+        }
+    }
+
+    /**
+     * @return The checkpointed jobs, or none if there is no readable checkpoint
+     */
+    private static List<Job> readQueue(File file) {
+        List<Job> jobs = new ArrayList<>();
+        if (!file.isFile()) {
+            return jobs;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return jobs;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                jobs.add(new Job(in.readUTF(), in.readUTF(), null));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading analysis queue", e);
+        }
+        Log.d(TAG, "Resuming " + jobs.size() + " queued analyses");
+        return jobs;
+    }
+}
@@ -0,0 +1,400 @@
+package com.ece420.lab1;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Asynchronous audio decoder shared by the analysis stages.
+ *
+ * MediaCodec runs in callback mode on a dedicated handler thread, so input is fed
+ * as soon as the codec frees a buffer and output is drained as soon as it is ready,
+ * without polling timeouts. Decoded PCM is copied into pooled direct buffers and
+ * handed to the consumer thread through a bounded queue. When the consumer falls
+ * behind, codec output buffers are held back until blocks are recycled.
+ * Recycled blocks and the records of held-back outputs are reused, so a running
+ * decode allocates nothing per buffer.
+ *
+ * Usage:
+ * <pre>
+ *     AudioDecoder decoder = new AudioDecoder(path);
+ *     if (decoder.start()) {
+ *         AudioDecoder.PcmBlock block;
+ *         while ((block = decoder.take()) != null) {
+ *             ... block.asShortBuffer() ...
+ *             decoder.recycle(block);
+ *         }
+ *     }
+ *     decoder.release();
+ * </pre>
+ */
+public class AudioDecoder {
+    private static final String TAG = "AudioDecoder";
+
+    // Decoded blocks allowed in flight before the codec is throttled
+    private static final int MAX_QUEUED_BLOCKS = 8;
+
+    /**
+     * A block of decoded interleaved 16-bit PCM backed by a pooled direct buffer.
+     * A recycled block keeps its buffer and the buffer's short view for the next
+     * output that fits.
+     */
+    public static class PcmBlock {
+        private ByteBuffer data;
+        private ShortBuffer samples;  // View of the whole of data
+        private long presentationTimeUs;
+        private int sampleRate;
+        private int channelCount;
+
+        /**
+         * Copy codec output into the block, first swapping its buffer for a larger pooled one if needed
+         */
+        private void fill(ByteBuffer output, int size, PcmBufferPool pool) {
+            if (data == null || data.capacity() < size) {
+                pool.release(data);
+                data = pool.acquire(size);
+                samples = data.asShortBuffer();
+            }
+            data.clear();
+            data.put(output);
+            data.flip();
+        }
+
+        /**
+         * @return The block's samples; the same view every time, positioned at the start
+         */
+        public ShortBuffer asShortBuffer() {
+            samples.clear();
+            samples.limit(data.limit() / 2);
+            return samples;
+        }
+
+        public ByteBuffer getData() {
+            return data;
+        }
+
+        public long getPresentationTimeUs() {
+            return presentationTimeUs;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getChannelCount() {
+            return channelCount;
+        }
+    }
+
+    // Codec output buffer that could not be copied yet because the queue was full
+    private static class PendingOutput {
+        int index;
+        int offset;
+        int size;
+        long presentationTimeUs;
+        int flags;
+    }
+
+    private static final PcmBlock END_OF_STREAM = new PcmBlock();
+
+    private final String filePath;
+    private final PcmBufferPool bufferPool;
+    private final LinkedBlockingQueue<PcmBlock> readyBlocks = new LinkedBlockingQueue<>();
+    private final ArrayDeque<PendingOutput> pendingOutputs = new ArrayDeque<>();
+    private final ArrayDeque<PendingOutput> freeOutputs = new ArrayDeque<>();  // Codec thread only
+    private final ArrayDeque<PcmBlock> freeBlocks = new ArrayDeque<>();  // Guarded by itself
+
+    private HandlerThread codecThread;
+    private volatile Handler codecHandler;
+    private MediaExtractor extractor;
+    private MediaCodec codec;
+
+    private long maxDurationUs = Long.MAX_VALUE;
+    private long durationUs;
+    private volatile int sampleRate;
+    private volatile int channelCount;
+    private volatile boolean failed;
+
+    // Only touched on the codec thread
+    private boolean inputDone;
+    private boolean outputDone;
+    private boolean released;
+    private int blocksInFlight;
+
+    public AudioDecoder(String filePath) {
+        this(filePath, PcmBufferPool.getShared());
+    }
+
+    public AudioDecoder(String filePath, PcmBufferPool bufferPool) {
+        this.filePath = filePath;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Stop feeding the codec after this presentation time. Must be called before start().
+     */
+    public void setMaxDurationUs(long maxDurationUs) {
+        this.maxDurationUs = maxDurationUs;
+    }
+
+    /**
+     * Open the file and start decoding on the codec thread.
+     * @return false if the file has no decodable audio track
+     */
+    public boolean start() {
+        extractor = new MediaExtractor();
+
+        try {
+            extractor.setDataSource(filePath);
+
+            // Find audio track
+            int audioTrackIndex = -1;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    audioTrackIndex = i;
+                    break;
+                }
+            }
+
+            if (audioTrackIndex == -1) {
+                Log.e(TAG, "No audio track found in " + filePath);
+                extractor.release();
+                extractor = null;
+                return false;
+            }
+
+            extractor.selectTrack(audioTrackIndex);
+            MediaFormat format = extractor.getTrackFormat(audioTrackIndex);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            durationUs = format.containsKey(MediaFormat.KEY_DURATION)
+                ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+
+            codecThread = new HandlerThread(TAG);
+            codecThread.start();
+            codecHandler = new Handler(codecThread.getLooper());
+
+            // Callback must be registered before configure() to run in async mode
+            codec = MediaCodec.createDecoderByType(mime);
+            codec.setCallback(callback, codecHandler);
+            codec.configure(format, null, null, 0);
+            codec.start();
+            return true;
+
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error starting decoder for " + filePath, e);
+            release();
+            return false;
+        }
+    }
+
+    /**
+     * Wait for the next decoded block.
+     * @return the next block, or null at end of stream or on a codec error
+     */
+    public PcmBlock take() throws InterruptedException {
+        PcmBlock block = readyBlocks.take();
+        if (block == END_OF_STREAM) {
+            // Keep the marker so later calls also see the end
+            readyBlocks.offer(END_OF_STREAM);
+            return null;
+        }
+        return block;
+    }
+
+    /**
+     * Return a block obtained from take() so its buffer can be reused
+     */
+    public void recycle(PcmBlock block) {
+        Handler handler = codecHandler;
+        if (handler == null) {
+            // Released, nothing will reuse the block
+            bufferPool.release(block.data);
+            block.data = null;
+            return;
+        }
+        synchronized (freeBlocks) {
+            freeBlocks.addLast(block);
+        }
+        handler.post(onBlockRecycled);
+    }
+
+    private final Runnable onBlockRecycled = () -> {
+        blocksInFlight--;
+        drainPendingOutputs();
+    };
+
+    /**
+     * Stop the codec and release all resources. Safe to call at any time.
+     */
+    public void release() {
+        Handler handler = codecHandler;
+        if (handler != null) {
+            handler.post(this::releaseOnCodecThread);
+        } else if (extractor != null) {
+            extractor.release();
+            extractor = null;
+        }
+        readyBlocks.offer(END_OF_STREAM);
+    }
+
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    private final MediaCodec.Callback callback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec mc, int index) {
+            if (released || inputDone) {
+                return;
+            }
+
+            ByteBuffer inputBuffer = mc.getInputBuffer(index);
+            int sampleSize = extractor.readSampleData(inputBuffer, 0);
+            long presentationTimeUs = extractor.getSampleTime();
+
+            if (sampleSize < 0 || presentationTimeUs > maxDurationUs) {
+                mc.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                inputDone = true;
+            } else {
+                mc.queueInputBuffer(index, 0, sampleSize, presentationTimeUs, 0);
+                extractor.advance();
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec mc, int index, MediaCodec.BufferInfo info) {
+            if (released) {
+                return;
+            }
+
+            PendingOutput output = freeOutputs.pollFirst();
+            if (output == null) {
+                output = new PendingOutput();
+            }
+            output.index = index;
+            output.offset = info.offset;
+            output.size = info.size;
+            output.presentationTimeUs = info.presentationTimeUs;
+            output.flags = info.flags;
+            pendingOutputs.addLast(output);
+
+            drainPendingOutputs();
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec mc, MediaFormat format) {
+            // Output format carries the real sample rate and channel layout
+            sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            Log.d(TAG, "Output format: " + sampleRate + " Hz, " + channelCount + " channels");
+        }
+
+        @Override
+        public void onError(MediaCodec mc, MediaCodec.CodecException e) {
+            Log.e(TAG, "Codec error while decoding " + filePath, e);
+            failed = true;
+            releaseOnCodecThread();
+        }
+    };
+
+    private void drainPendingOutputs() {
+        while (!released && !pendingOutputs.isEmpty() && blocksInFlight < MAX_QUEUED_BLOCKS) {
+            PendingOutput output = pendingOutputs.removeFirst();
+
+            if (output.size > 0) {
+                ByteBuffer outputBuffer = codec.getOutputBuffer(output.index);
+                if (outputBuffer != null) {
+                    outputBuffer.position(output.offset);
+                    outputBuffer.limit(output.offset + output.size);
+
+                    PcmBlock block;
+                    synchronized (freeBlocks) {
+                        block = freeBlocks.pollFirst();
+                    }
+                    if (block == null) {
+                        block = new PcmBlock();
+                    }
+                    block.fill(outputBuffer, output.size, bufferPool);
+                    block.presentationTimeUs = output.presentationTimeUs;
+                    block.sampleRate = sampleRate;
+                    block.channelCount = channelCount;
+
+                    blocksInFlight++;
+                    readyBlocks.offer(block);
+                }
+            }
+
+            codec.releaseOutputBuffer(output.index, false);
+            freeOutputs.addLast(output);
+
+            if ((output.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                outputDone = true;
+                readyBlocks.offer(END_OF_STREAM);
+                releaseOnCodecThread();
+                return;
+            }
+        }
+    }
+
+    private void releaseOnCodecThread() {
+        if (released) {
+            return;
+        }
+        released = true;
+
+        if (!outputDone) {
+            readyBlocks.offer(END_OF_STREAM);
+        }
+        pendingOutputs.clear();
+
+        if (codec != null) {
+            try {
+                codec.stop();
+                codec.release();
+            } catch (Exception e) {
+                Log.e(TAG, "Error releasing decoder", e);
+            }
+            codec = null;
+        }
+        if (extractor != null) {
+            extractor.release();
+            extractor = null;
+        }
+        codecThread.quitSafely();
+        codecHandler = null;
+
+        // Blocks recycled from now on return their buffers themselves
+        synchronized (freeBlocks) {
+            for (PcmBlock block : freeBlocks) {
+                bufferPool.release(block.data);
+                block.data = null;
+            }
+            freeBlocks.clear();
+        }
+    }
+}
@@ -1,58 +1,618 @@
 package com.ece420.lab1;
 
-import android.media.MediaPlayer;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Process;
 import android.util.Log;
 
-import java.io.IOException;
+import java.nio.ShortBuffer;
 
+/**
+ * Playback engine for the loaded deck.
+ *
+ * Plays a decoded SampleStore through a low-latency streaming AudioTrack from its
+ * own thread, BLOCK_FRAMES at a time. Each block is handed to an optional PcmTap
+ * just before it is written, so whatever analyzes the playing audio sees it one
+ * output buffer ahead of the listener; getPresentationNanos() turns a written
+ * frame into the System.nanoTime() at which it leaves the speaker.
+ *
+ * Hot cues and loops play from PcmRegions prepared ahead of time: jumpTo() and
+ * startLoop() only swap the region the playback thread reads from, and the next
+ * block starts exactly on the region's first frame (or wraps exactly at a loop's
+ * end), so both are sample accurate and never wait for the store.
+ *
+ * The track's auto-gain is applied to each block in 16-bit fixed point, saturating,
+ * before the tap sees it, so boosts work too (AudioTrack.setVolume() only attenuates).
+ * A surround track is mixed down to stereo first, so the tap and the AudioTrack
+ * only ever see mono or stereo.
+ *
+ * Control methods are called from the UI thread.
+ */
 public class AudioPlayerManager {
     private static final String TAG = "AudioPlayerManager";
-    private MediaPlayer mediaPlayer;
-    private String currentPath;
+
+    // ~5.8 ms at 44.1 kHz, the granularity of the tap and of pause/stop
+    private static final int BLOCK_FRAMES = 256;
+
+    // Gain is applied as an integer multiplier in Q GAIN_SHIFT
+    private static final int GAIN_SHIFT = 14;
+    private static final int UNITY_GAIN = 1 << GAIN_SHIFT;
+
+    // Written blocks remembered to map the playback head back to a track frame
+    private static final int BLOCK_HISTORY = 64;
+
+    // How long playback that caught up with the decoder waits before reading again
+    private static final long UNDERRUN_WAIT_MS = 5;
+
+    // Speaker positions of decoder output channels
+    private static final int FRONT_LEFT = 0;
+    private static final int FRONT_RIGHT = 1;
+    private static final int FRONT_CENTER = 2;
+    private static final int LOW_FREQUENCY = 3;
+    private static final int BACK_LEFT = 4;
+    private static final int BACK_RIGHT = 5;
+    private static final int BACK_CENTER = 6;
+    private static final int SIDE_LEFT = 7;
+    private static final int SIDE_RIGHT = 8;
+
+    // Channel order of 3 to 8 channel decoder output, that of the AudioFormat channel masks
+    private static final int[][] SURROUND_LAYOUTS = {
+        {FRONT_LEFT, FRONT_RIGHT, FRONT_CENTER},
+        {FRONT_LEFT, FRONT_RIGHT, BACK_LEFT, BACK_RIGHT},
+        {FRONT_LEFT, FRONT_RIGHT, FRONT_CENTER, BACK_LEFT, BACK_RIGHT},
+        {FRONT_LEFT, FRONT_RIGHT, FRONT_CENTER, LOW_FREQUENCY, BACK_LEFT, BACK_RIGHT},
+        {FRONT_LEFT, FRONT_RIGHT, FRONT_CENTER, LOW_FREQUENCY, BACK_LEFT, BACK_RIGHT, BACK_CENTER},
+        {FRONT_LEFT, FRONT_RIGHT, FRONT_CENTER, LOW_FREQUENCY, BACK_LEFT, BACK_RIGHT, SIDE_LEFT, SIDE_RIGHT},
+    };
+
+    /**
+     * Sees the PCM on its way to the speaker
+     */
+    public interface PcmTap {
+        /**
+         * Called on the playback thread for each block before it is written
+         * @param pcm Interleaved 16-bit frames, only valid during the call
+         * @param outputFrame Output frame index of the block's first frame, see getPresentationNanos()
+         */
+        void onPcm(ShortBuffer pcm, int sampleRate, int channelCount, long outputFrame);
+
+        /**
+         * Output frame numbering restarted at 0 because playback jumped
+         */
+        void onDiscontinuity();
+    }
+
+    private final Object lock = new Object();
+    private final AudioTimestamp timestamp = new AudioTimestamp();  // Playback thread only
+    private final Thread playbackThread;
+
+    // Guarded by lock
+    private SampleStore samples;
+    private AudioTrack audioTrack;
+    private long position;  // Next track frame to write
+    private PcmRegion region;  // Read from instead of the store while set
+    private int regionOffset;
+    private boolean regionLoops;
+    private final long[] blockOutputFrames = new long[BLOCK_HISTORY];
+    private final long[] blockTrackFrames = new long[BLOCK_HISTORY];
+    private int blockCount;
+    private int gain = UNITY_GAIN;
+    private long outputFramesWritten;  // Since the last flush
+    private int generation;  // Bumped whenever position jumps or the track changes
+    private boolean playing;
+    private boolean decoding;  // The store is still growing, its end is not the end of the track
+    private boolean released;
+
+    private volatile PcmTap tap;
 
     public AudioPlayerManager() {
-        mediaPlayer = new MediaPlayer();
+        playbackThread = new Thread(this::playbackLoop, TAG);
+        playbackThread.start();
     }
 
-    public void loadTrack(String path) throws IOException {
-        try {
-            mediaPlayer.reset();
-            mediaPlayer.setDataSource(path);
-            mediaPlayer.prepare();
-            currentPath = path;
-        } catch (IOException e) {
-            Log.e(TAG, "Error loading track: " + path, e);
-            throw e;
+    /**
+     * Load a decoded track, stopping whatever was playing. The store must stay
+     * open until another track is loaded, unload() is called or the engine is released.
+     */
+    public void load(SampleStore track) {
+        load(track, false);
+    }
+
+    /**
+     * Load a track that is still being decoded into the store, so playback can start
+     * with the first frames. If it catches up with the decoder it waits for more
+     * instead of ending the track, until decodingFinished() is called.
+     */
+    public void loadDecoding(SampleStore track) {
+        load(track, true);
+    }
+
+    /**
+     * The loaded store has stopped growing, its end is the end of the track again
+     */
+    public void decodingFinished(SampleStore track) {
+        synchronized (lock) {
+            if (samples == track) {
+                decoding = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void load(SampleStore track, boolean stillDecoding) {
+        synchronized (lock) {
+            stopLocked();
+            samples = track;
+            decoding = stillDecoding;
+            int outputChannels = Math.min(track.getChannelCount(), 2);
+            if (audioTrack == null || audioTrack.getSampleRate() != track.getSampleRate()
+                    || audioTrack.getChannelCount() != outputChannels) {
+                if (audioTrack != null) {
+                    audioTrack.release();
+                }
+                audioTrack = createAudioTrack(track.getSampleRate(), outputChannels);
+            }
+        }
+    }
+
+    /**
+     * Stop and forget the loaded track, so its store can be closed
+     */
+    public void unload() {
+        synchronized (lock) {
+            stopLocked();
+            samples = null;
+            decoding = false;
+        }
+    }
+
+    /**
+     * Set the playback gain, e.g. the loaded track's auto-gain. Takes effect with the next block.
+     */
+    public void setGainDb(float gainDb) {
+        synchronized (lock) {
+            gain = Math.round(UNITY_GAIN * (float) Math.pow(10, gainDb / 20));
         }
     }
 
+    public void setPcmTap(PcmTap tap) {
+        this.tap = tap;
+    }
+
     public void play() {
-        if (!mediaPlayer.isPlaying()) {
-            mediaPlayer.start();
+        synchronized (lock) {
+            if (samples != null && !playing) {
+                playing = true;
+                audioTrack.play();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public boolean isPlaying() {
+        synchronized (lock) {
+            return playing;
         }
     }
 
     public void pause() {
-        if (mediaPlayer.isPlaying()) {
-            mediaPlayer.pause();
+        synchronized (lock) {
+            if (playing) {
+                playing = false;
+                audioTrack.pause();
+            }
         }
     }
 
     public void stop() {
-        if (mediaPlayer.isPlaying()) {
-            mediaPlayer.stop();
-            try {
-                mediaPlayer.prepare();
-            } catch (IOException e) {
-                Log.e(TAG, "Error preparing after stop", e);
+        synchronized (lock) {
+            stopLocked();
+        }
+    }
+
+    /**
+     * Move to a track frame, clamped to the track. Playback continues from there if it was running.
+     */
+    public void seekTo(long frame) {
+        synchronized (lock) {
+            if (samples == null) {
+                return;
+            }
+            boolean wasPlaying = playing;
+            stopLocked();
+            position = Math.max(0, Math.min(frame, samples.getFrameCount()));
+            if (wasPlaying) {
+                playing = true;
+                audioTrack.play();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Continue from a hot cue: play the region, then carry on in the track right
+     * after it. Works paused too, playback then resumes from the cue.
+     */
+    public void jumpTo(PcmRegion cue) {
+        synchronized (lock) {
+            if (samples == null || cue.getFrameCount() == 0) {
+                return;
+            }
+            region = cue;
+            regionOffset = 0;
+            regionLoops = false;
+            position = cue.getStartFrame();
+        }
+    }
+
+    /**
+     * Repeat the region until exitLoop(). If the track is already playing inside
+     * it the loop picks up from there, otherwise playback jumps to its start.
+     */
+    public void startLoop(PcmRegion loop) {
+        synchronized (lock) {
+            if (samples == null || loop.getFrameCount() == 0) {
+                return;
+            }
+            long offset = position - loop.getStartFrame();
+            regionOffset = offset >= 0 && offset < loop.getFrameCount() ? (int) offset : 0;
+            region = loop;
+            regionLoops = true;
+            position = loop.getStartFrame() + regionOffset;
+        }
+    }
+
+    /**
+     * Leave the loop and play on in the track from the current point of the loop
+     */
+    public void exitLoop() {
+        synchronized (lock) {
+            if (region != null && regionLoops) {
+                region = null;
+            }
+        }
+    }
+
+    public boolean isLooping() {
+        synchronized (lock) {
+            return region != null && regionLoops;
+        }
+    }
+
+    /**
+     * @return Whether the playback thread may still read the region
+     */
+    public boolean isUsing(PcmRegion candidate) {
+        synchronized (lock) {
+            return region == candidate;
+        }
+    }
+
+    /**
+     * @return Track frame being heard now, estimated from the AudioTrack's playback head
+     */
+    public long getPlaybackFrame() {
+        synchronized (lock) {
+            if (audioTrack == null || blockCount == 0) {
+                return position;
+            }
+            long head = audioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+            // Newest written block that has started playing
+            for (int i = 1; i <= Math.min(blockCount, BLOCK_HISTORY); i++) {
+                int slot = (blockCount - i) % BLOCK_HISTORY;
+                if (blockOutputFrames[slot] <= head) {
+                    return blockTrackFrames[slot] + Math.min(head - blockOutputFrames[slot], BLOCK_FRAMES);
+                }
             }
+            return blockTrackFrames[(blockCount - Math.min(blockCount, BLOCK_HISTORY)) % BLOCK_HISTORY];
+        }
+    }
+
+    private void stopLocked() {
+        playing = false;
+        position = 0;
+        region = null;
+        blockCount = 0;
+        generation++;
+        if (audioTrack != null) {
+            // Paused, so the flush drops what was queued
+            audioTrack.pause();
+            audioTrack.flush();
+        }
+        outputFramesWritten = 0;
+        PcmTap currentTap = tap;
+        if (currentTap != null) {
+            currentTap.onDiscontinuity();
+        }
+    }
+
+    public int getDurationMs() {
+        synchronized (lock) {
+            return samples != null ? (int) (samples.getDurationSeconds() * 1000) : 0;
         }
     }
 
+    /**
+     * Time at which an output frame is heard, from the AudioTrack's latest
+     * timestamp or, before the first one, from its playback head.
+     * Call from the PcmTap, on the playback thread.
+     * @return System.nanoTime() based presentation time
+     */
+    public long getPresentationNanos(long outputFrame) {
+        AudioTrack track;
+        synchronized (lock) {
+            track = audioTrack;
+        }
+        int sampleRate = track.getSampleRate();
+        if (track.getTimestamp(timestamp)) {
+            return timestamp.nanoTime + (outputFrame - timestamp.framePosition) * 1_000_000_000L / sampleRate;
+        }
+        long head = track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+        return System.nanoTime() + (outputFrame - head) * 1_000_000_000L / sampleRate;
+    }
+
     public void release() {
-        if (mediaPlayer != null) {
-            mediaPlayer.release();
-            mediaPlayer = null;
+        synchronized (lock) {
+            stopLocked();
+            samples = null;
+            released = true;
+            lock.notifyAll();
+        }
+        try {
+            playbackThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (audioTrack != null) {
+            audioTrack.release();
+            audioTrack = null;
+        }
+    }
+
+    private static AudioTrack createAudioTrack(int sampleRate, int channelCount) {
+        int channelMask = channelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int minBufferBytes = AudioTrack.getMinBufferSize(sampleRate, channelMask, AudioFormat.ENCODING_PCM_16BIT);
+        return new AudioTrack.Builder()
+            .setAudioAttributes(new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_MEDIA)
+                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                .build())
+            .setAudioFormat(new AudioFormat.Builder()
+                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                .setSampleRate(sampleRate)
+                .setChannelMask(channelMask)
+                .build())
+            .setTransferMode(AudioTrack.MODE_STREAM)
+            .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+            // Smallest buffer the device allows, but at least two blocks
+            .setBufferSizeInBytes(Math.max(minBufferBytes, 2 * BLOCK_FRAMES * channelCount * 2))
+            .build();
+    }
+
+    private void playbackLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        short[] block = new short[0];
+        ShortBuffer blockBuffer = null;
+        int[] downmixWeights = new int[0];
+
+        while (true) {
+            AudioTrack track;
+            int channelCount;
+            int outputChannels;
+            int sampleRate;
+            int frames;
+            long outputFrame;
+            int blockGeneration;
+            int blockGain;
+
+            synchronized (lock) {
+                while (!released && !playing) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (released) {
+                    return;
+                }
+
+                // Read under the lock so unload() can close the store as soon as it returns
+                track = audioTrack;
+                channelCount = samples.getChannelCount();
+                outputChannels = Math.min(channelCount, 2);
+                sampleRate = samples.getSampleRate();
+                if (block.length < BLOCK_FRAMES * channelCount) {
+                    block = new short[BLOCK_FRAMES * channelCount];
+                    blockBuffer = ShortBuffer.wrap(block);
+                }
+                long blockStart = position;
+                frames = readLocked(block, channelCount);
+                if (frames == 0 && decoding) {
+                    // Caught up with the decoder: wait for more frames, the output underruns meanwhile
+                    try {
+                        lock.wait(UNDERRUN_WAIT_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+                if (frames == 0) {
+                    // End of track: let the queued audio drain, then start over from the top
+                    playing = false;
+                    position = 0;
+                    blockCount = 0;
+                    generation++;
+                    track.stop();
+                    outputFramesWritten = 0;
+                    PcmTap currentTap = tap;
+                    if (currentTap != null) {
+                        currentTap.onDiscontinuity();
+                    }
+                    continue;
+                }
+                outputFrame = outputFramesWritten;
+                blockGeneration = generation;
+                blockGain = gain;
+                blockOutputFrames[blockCount % BLOCK_HISTORY] = outputFrame;
+                blockTrackFrames[blockCount % BLOCK_HISTORY] = blockStart;
+                blockCount++;
+            }
+
+            if (channelCount > 2) {
+                if (downmixWeights.length != 2 * channelCount) {
+                    downmixWeights = stereoWeights(channelCount);
+                }
+                downmix(block, frames, channelCount, downmixWeights);
+            }
+            if (blockGain != UNITY_GAIN) {
+                applyGain(block, frames * outputChannels, blockGain);
+            }
+
+            PcmTap currentTap = tap;
+            if (currentTap != null) {
+                blockBuffer.limit(frames * outputChannels).position(0);
+                currentTap.onPcm(blockBuffer, sampleRate, outputChannels, outputFrame);
+            }
+
+            // Blocks while the output buffer is full or the track is paused
+            int written = track.write(block, 0, frames * outputChannels, AudioTrack.WRITE_BLOCKING);
+
+            synchronized (lock) {
+                if (generation != blockGeneration) {
+                    // Stopped or reloaded during the write; drop the stale block
+                    if (!playing && track == audioTrack) {
+                        track.flush();
+                    }
+                    continue;
+                }
+                if (written < 0) {
+                    Log.e(TAG, "AudioTrack write failed: " + written);
+                    playing = false;
+                    continue;
+                }
+                outputFramesWritten += written / outputChannels;
+            }
+        }
+    }
+
+    /**
+     * Left and right weight of each channel in Q GAIN_SHIFT, interleaved. The center
+     * and back channels go in at -3 dB, the LFE is dropped, and the weights are scaled
+     * so a side sums to at most unity and the mix cannot clip. A layout without a
+     * known order keeps its first two channels.
+     */
+    private static int[] stereoWeights(int channelCount) {
+        int[] layout = channelCount - 3 < SURROUND_LAYOUTS.length ? SURROUND_LAYOUTS[channelCount - 3] : null;
+        float[] weights = new float[2 * channelCount];
+        float leftSum = 0;
+        float rightSum = 0;
+        for (int c = 0; c < channelCount; c++) {
+            int speaker = layout != null ? layout[c] : c <= FRONT_RIGHT ? c : LOW_FREQUENCY;
+            float left;
+            float right;
+            switch (speaker) {
+                case FRONT_LEFT:
+                    left = 1;
+                    right = 0;
+                    break;
+                case FRONT_RIGHT:
+                    left = 0;
+                    right = 1;
+                    break;
+                case FRONT_CENTER:
+                case BACK_CENTER:
+                    left = right = (float) Math.sqrt(0.5);
+                    break;
+                case BACK_LEFT:
+                case SIDE_LEFT:
+                    left = (float) Math.sqrt(0.5);
+                    right = 0;
+                    break;
+                case BACK_RIGHT:
+                case SIDE_RIGHT:
+                    left = 0;
+                    right = (float) Math.sqrt(0.5);
+                    break;
+                default:
+                    left = right = 0;
+                    break;
+            }
+            weights[2 * c] = left;
+            weights[2 * c + 1] = right;
+            leftSum += left;
+            rightSum += right;
+        }
+
+        float scale = UNITY_GAIN / Math.max(leftSum, rightSum);
+        int[] fixed = new int[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            fixed[i] = (int) (weights[i] * scale);
+        }
+        return fixed;
+    }
+
+    /**
+     * Mix interleaved frames down to stereo in place, into the start of the block
+     * @param weights See stereoWeights()
+     */
+    private static void downmix(short[] block, int frames, int channelCount, int[] weights) {
+        for (int f = 0; f < frames; f++) {
+            int in = f * channelCount;
+            int left = 0;
+            int right = 0;
+            for (int c = 0; c < channelCount; c++) {
+                left += block[in + c] * weights[2 * c];
+                right += block[in + c] * weights[2 * c + 1];
+            }
+            // Written behind the frames still to be read, the weights keep them within a short
+            block[2 * f] = (short) (left >> GAIN_SHIFT);
+            block[2 * f + 1] = (short) (right >> GAIN_SHIFT);
+        }
+    }
+
+    private static void applyGain(short[] block, int sampleCount, int gain) {
+        for (int i = 0; i < sampleCount; i++) {
+            // LoudnessMeter.MAX_GAIN_DB keeps the product within an int
+            int scaled = (block[i] * gain) >> GAIN_SHIFT;
+            block[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, scaled));
+        }
+    }
+
+    /**
+     * Fill a block from the current region, wrapping loops mid-block, or from the store
+     * @return Frames read, 0 at the end of the track
+     */
+    private int readLocked(short[] block, int channelCount) {
+        int filled = 0;
+        while (filled < BLOCK_FRAMES) {
+            int frames;
+            if (region != null) {
+                frames = Math.min(BLOCK_FRAMES - filled, region.getFrameCount() - regionOffset);
+                System.arraycopy(region.getPcm(), regionOffset * channelCount,
+                    block, filled * channelCount, frames * channelCount);
+                regionOffset += frames;
+                position = region.getStartFrame() + regionOffset;
+                if (regionOffset == region.getFrameCount()) {
+                    if (regionLoops) {
+                        regionOffset = 0;
+                        position = region.getStartFrame();
+                    } else {
+                        // Cue audio used up, the store carries on right after it
+                        region = null;
+                    }
+                }
+            } else {
+                frames = samples.read(position, block, filled * channelCount, BLOCK_FRAMES - filled);
+                if (frames == 0) {
+                    break;
+                }
+                position += frames;
+            }
+            filled += frames;
         }
+        return filled;
     }
 }
\ No newline at end of file
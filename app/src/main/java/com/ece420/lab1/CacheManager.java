@@ -0,0 +1,190 @@
+package com.ece420.lab1;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Central byte budgets for everything the app keeps around to be fast: waveforms,
+ * pooled decoder buffers, prepared cue and loop audio, dirty deck PCM.
+ *
+ * Each cache is registered with a priority and a budget. A cache that grows asks
+ * enforceBudget() to trim it back to its budget. On memory pressure onTrimMemory()
+ * sheds whole priority classes, cheapest to rebuild first:
+ * <pre>
+ *     TRIM_MEMORY_RUNNING_MODERATE              PRIORITY_LOW caches are emptied
+ *     TRIM_MEMORY_RUNNING_LOW                   PRIORITY_NORMAL and below
+ *     TRIM_MEMORY_RUNNING_CRITICAL and higher   everything, also when the UI is hidden
+ * </pre>
+ * Caches above the shed class are only trimmed to their budgets. Each trim logs a
+ * residency report, so a kill in the background can be matched with what was held.
+ *
+ * Caches do their own locking; onTrimMemory() calls them on the main thread.
+ */
+public class CacheManager {
+    private static final String TAG = "CacheManager";
+
+    public static final int PRIORITY_LOW = 0;     // Cheap to rebuild
+    public static final int PRIORITY_NORMAL = 1;  // Rebuilt with some decoding
+    public static final int PRIORITY_HIGH = 2;    // Backs the playing deck
+
+    /**
+     * Something that holds memory it can give back
+     */
+    public interface TrimmableCache {
+        /**
+         * @return Bytes currently held that trimTo() could release
+         */
+        long getResidentBytes();
+
+        /**
+         * Release entries, least valuable first, until at most maxBytes are held or
+         * nothing more can go
+         */
+        void trimTo(long maxBytes);
+    }
+
+    private static class Registration {
+        final String name;
+        final TrimmableCache cache;
+        final int priority;
+        final long budgetBytes;
+        int trimCount;
+        long shedBytes;
+
+        Registration(String name, TrimmableCache cache, int priority, long budgetBytes) {
+            this.name = name;
+            this.cache = cache;
+            this.priority = priority;
+            this.budgetBytes = budgetBytes;
+        }
+    }
+
+    private final List<Registration> registrations = new ArrayList<>();
+
+    public synchronized void register(String name, TrimmableCache cache, int priority, long budgetBytes) {
+        registrations.add(new Registration(name, cache, priority, budgetBytes));
+    }
+
+    /**
+     * Trim a cache back to its budget, on the calling thread. Call after it grew.
+     */
+    public void enforceBudget(TrimmableCache cache) {
+        Registration registration = find(cache);
+        if (registration != null && cache.getResidentBytes() > registration.budgetBytes) {
+            trim(registration, registration.budgetBytes);
+        }
+    }
+
+    /**
+     * Trim every cache to its budget, e.g. after something large was loaded
+     */
+    public void enforceBudgets() {
+        for (Registration registration : snapshot()) {
+            if (registration.cache.getResidentBytes() > registration.budgetBytes) {
+                trim(registration, registration.budgetBytes);
+            }
+        }
+    }
+
+    /**
+     * Shed caches for a ComponentCallbacks2 trim level
+     */
+    public void onTrimMemory(int level) {
+        int shedPriority;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            shedPriority = PRIORITY_HIGH;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            shedPriority = PRIORITY_NORMAL;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            shedPriority = PRIORITY_LOW;
+        } else {
+            return;
+        }
+        shed(shedPriority);
+        Log.i(TAG, "Trimmed for level " + level + "\n" + getResidencyReport());
+    }
+
+    /**
+     * Shed everything, for onLowMemory()
+     */
+    public void onLowMemory() {
+        shed(PRIORITY_HIGH);
+        Log.i(TAG, "Trimmed for low memory\n" + getResidencyReport());
+    }
+
+    private void shed(int shedPriority) {
+        // Lowest priority first, so the most valuable caches go last
+        for (int priority = PRIORITY_LOW; priority <= PRIORITY_HIGH; priority++) {
+            for (Registration registration : snapshot()) {
+                if (registration.priority == priority) {
+                    trim(registration, priority <= shedPriority ? 0 : registration.budgetBytes);
+                }
+            }
+        }
+    }
+
+    private void trim(Registration registration, long maxBytes) {
+        long before = registration.cache.getResidentBytes();
+        registration.cache.trimTo(maxBytes);
+        long shed = before - registration.cache.getResidentBytes();
+        synchronized (this) {
+            registration.trimCount++;
+            registration.shedBytes += Math.max(0, shed);
+        }
+    }
+
+    /**
+     * @return Total bytes held by all registered caches
+     */
+    public long getResidentBytes() {
+        long total = 0;
+        for (Registration registration : snapshot()) {
+            total += registration.cache.getResidentBytes();
+        }
+        return total;
+    }
+
+    /**
+     * @return One line per cache: resident bytes against budget, trims and bytes shed so far
+     */
+    public String getResidencyReport() {
+        StringBuilder report = new StringBuilder();
+        long total = 0;
+        for (Registration registration : snapshot()) {
+            long resident = registration.cache.getResidentBytes();
+            total += resident;
+            int trims;
+            long shed;
+            synchronized (this) {
+                trims = registration.trimCount;
+                shed = registration.shedBytes;
+            }
+            report.append(String.format(Locale.ROOT, "  %-16s p%d %8.2f / %8.2f MB, %d trims, %.2f MB shed%n",
+                registration.name, registration.priority, megabytes(resident),
+                megabytes(registration.budgetBytes), trims, megabytes(shed)));
+        }
+        report.append(String.format(Locale.ROOT, "  total %.2f MB", megabytes(total)));
+        return report.toString();
+    }
+
+    private synchronized Registration find(TrimmableCache cache) {
+        for (Registration registration : registrations) {
+            if (registration.cache == cache) {
+                return registration;
+            }
+        }
+        return null;
+    }
+
+    private synchronized List<Registration> snapshot() {
+        return new ArrayList<>(registrations);
+    }
+
+    private static double megabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
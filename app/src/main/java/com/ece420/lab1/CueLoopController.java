@@ -0,0 +1,304 @@
+package com.ece420.lab1;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.LinearLayout;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Hot cues and beat loops for the deck, snapped to the track's beat grid.
+ *
+ * Setting a cue copies the CUE_AUDIO_SEC after the cue point into a PcmRegion on
+ * a background thread, and engaging a loop copies its whole body the same way.
+ * Triggering a cue afterwards only hands its region to the player, which swaps
+ * it in at the next block. Every slot owns two regions and fills the one the
+ * player is not using, so buffers are reused and never written while playing.
+ *
+ * Tap an empty cue to set it at the nearest beat, tap a set one to jump to it and
+ * long-press it to clear it. The loop button starts a loop of the selected length
+ * on the grid at or before the playhead, or leaves the current loop.
+ *
+ * As a CacheManager cache it gives back the spare regions under memory pressure;
+ * the ones backing set cues and the running loop stay.
+ */
+public class CueLoopController implements CacheManager.TrimmableCache {
+    private static final String TAG = "CueLoopController";
+
+    public static final int HOT_CUE_COUNT = 8;
+    private static final float CUE_AUDIO_SEC = 2.0f;
+
+    private static final float[] LOOP_BEATS = {0.25f, 0.5f, 1, 2, 4, 8, 16, 32};
+    private static final int DEFAULT_LOOP_INDEX = 4;
+
+    private static final float EMPTY_CUE_ALPHA = 0.4f;
+
+    /**
+     * Two regions that take turns, so one can be refilled while the other plays
+     */
+    private static class Slot {
+        final PcmRegion[] regions = {new PcmRegion(), new PcmRegion()};
+        PcmRegion active;  // Main thread; null while empty or still filling
+        boolean filling;  // Main thread; a fill is queued, further presses are ignored
+
+        PcmRegion spare(AudioPlayerManager player) {
+            PcmRegion candidate = regions[0] == active ? regions[1] : regions[0];
+            // The previous region may still be playing after a quick re-set
+            return player.isUsing(candidate) ? new PcmRegion() : candidate;
+        }
+
+        long getResidentBytes() {
+            long bytes = regions[0].getCapacityBytes() + regions[1].getCapacityBytes();
+            if (active != null && active != regions[0] && active != regions[1]) {
+                bytes += active.getCapacityBytes();
+            }
+            return bytes;
+        }
+
+        /**
+         * @return Bytes released
+         */
+        long releaseSpares(AudioPlayerManager player) {
+            if (filling) {
+                return 0;  // The fill thread owns one of them
+            }
+            long released = 0;
+            for (PcmRegion region : regions) {
+                if (region != active && !player.isUsing(region)) {
+                    released += region.getCapacityBytes();
+                    region.release();
+                }
+            }
+            return released;
+        }
+    }
+
+    private final AudioPlayerManager player;
+    private final Button[] cueButtons = new Button[HOT_CUE_COUNT];
+    private final Button btnLoop;
+    private final Slot[] cues = new Slot[HOT_CUE_COUNT];
+    private final Slot loop = new Slot();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Single thread, so fills of the same slot never overlap
+    private final ExecutorService fillExecutor = Executors.newSingleThreadExecutor();
+
+    // Main thread only
+    private SampleStore samples;
+    private double framesPerBeat;
+    private double firstBeatFrame;
+    private int loopIndex = DEFAULT_LOOP_INDEX;
+    private int generation;  // Bumped per track so late fills are dropped
+
+    public CueLoopController(LinearLayout hotCueRow, Button btnLoop, Button btnLoopShorter,
+                             Button btnLoopLonger, AudioPlayerManager player) {
+        this.player = player;
+        this.btnLoop = btnLoop;
+
+        for (int i = 0; i < HOT_CUE_COUNT; i++) {
+            int index = i;
+            cues[i] = new Slot();
+            Button button = new Button(hotCueRow.getContext());
+            button.setText(String.valueOf(i + 1));
+            button.setOnClickListener(v -> onCuePressed(index));
+            button.setOnLongClickListener(v -> {
+                clearCue(index);
+                return true;
+            });
+            hotCueRow.addView(button, new LinearLayout.LayoutParams(0, ViewGroup.LayoutParams.WRAP_CONTENT, 1));
+            cueButtons[i] = button;
+        }
+
+        btnLoop.setOnClickListener(v -> toggleLoop());
+        btnLoopShorter.setOnClickListener(v -> changeLoopLength(-1));
+        btnLoopLonger.setOnClickListener(v -> changeLoopLength(1));
+        setTrack(null, null);
+    }
+
+    /**
+     * Clear all cues and loops and use the beat grid of a newly loaded track
+     * @param track The loaded track, or null when the deck is empty
+     * @param trackSamples Its decoded audio, as loaded into the player
+     */
+    public void setTrack(Track track, SampleStore trackSamples) {
+        generation++;
+        samples = trackSamples;
+        for (int i = 0; i < HOT_CUE_COUNT; i++) {
+            cues[i].active = null;
+            cues[i].filling = false;
+        }
+        loop.active = null;
+        loop.filling = false;
+
+        updateBeatGrid(track);
+        updateButtons();
+    }
+
+    /**
+     * Pick up a BPM or beat offset that changed after the track was loaded.
+     * Cues and loops already set keep their positions.
+     */
+    public void updateBeatGrid(Track track) {
+        framesPerBeat = 0;
+        firstBeatFrame = 0;
+        if (track != null && samples != null && track.getBpm() > 0) {
+            framesPerBeat = 60.0 * samples.getSampleRate() / track.getBpm();
+            firstBeatFrame = track.getBeatOffsetSeconds() * (double) samples.getSampleRate();
+        }
+    }
+
+    private void onCuePressed(int index) {
+        if (samples == null) {
+            return;
+        }
+        PcmRegion cue = cues[index].active;
+        if (cue != null) {
+            player.jumpTo(cue);
+            return;
+        }
+
+        long cueFrame = Math.max(0, snapToGrid(player.getPlaybackFrame(), 1, false));
+        fill(cues[index], cueFrame, (int) (CUE_AUDIO_SEC * samples.getSampleRate()), null);
+    }
+
+    private void clearCue(int index) {
+        cues[index].active = null;
+        updateButtons();
+    }
+
+    private void toggleLoop() {
+        if (samples == null) {
+            return;
+        }
+        if (player.isLooping()) {
+            player.exitLoop();
+            loop.active = null;
+            updateButtons();
+            return;
+        }
+        startLoop(player.getPlaybackFrame());
+    }
+
+    private void changeLoopLength(int direction) {
+        loopIndex = Math.max(0, Math.min(LOOP_BEATS.length - 1, loopIndex + direction));
+        PcmRegion current = loop.active;
+        if (current != null && player.isLooping()) {
+            // Same start, new length
+            startLoop(current.getStartFrame());
+        }
+        updateButtons();
+    }
+
+    /**
+     * Loop the selected number of beats from the grid line at or before the frame.
+     * Loops shorter than a beat snap to their own length.
+     */
+    private void startLoop(long frame) {
+        float beats = LOOP_BEATS[loopIndex];
+        long start = Math.max(0, snapToGrid(frame, Math.min(1, beats), true));
+        int frames = (int) Math.round(beats * framesPerBeat);
+        fill(loop, start, frames, player::startLoop);
+    }
+
+    /**
+     * Copy the region in the background, then publish it on the main thread
+     * @param onReady Called with the filled region on the main thread, may be null
+     */
+    private void fill(Slot slot, long startFrame, int frameCount, RegionAction onReady) {
+        if (slot.filling) {
+            return;
+        }
+        slot.filling = true;
+        SampleStore source = samples;
+        PcmRegion target = slot.spare(player);
+        int fillGeneration = generation;
+        fillExecutor.execute(() -> {
+            boolean filled;
+            try {
+                target.fill(source, startFrame, frameCount);
+                filled = target.getFrameCount() > 0;
+            } catch (RuntimeException e) {
+                // The store was closed because another track was loaded meanwhile
+                Log.w(TAG, "Dropped region fill: " + e);
+                filled = false;
+            }
+            boolean usable = filled;
+            mainHandler.post(() -> {
+                if (fillGeneration != generation) {
+                    return;  // setTrack() already reset the slot
+                }
+                slot.filling = false;
+                if (!usable) {
+                    return;
+                }
+                slot.active = target;
+                if (onReady != null) {
+                    onReady.apply(target);
+                }
+                updateButtons();
+            });
+        });
+    }
+
+    private interface RegionAction {
+        void apply(PcmRegion region);
+    }
+
+    /**
+     * Snap a frame to the beat grid subdivided into steps of the given number of beats
+     * @param floor Snap to the grid line at or before the frame instead of the nearest one
+     */
+    private long snapToGrid(long frame, float stepBeats, boolean floor) {
+        if (framesPerBeat <= 0) {
+            return frame;
+        }
+        double step = stepBeats * framesPerBeat;
+        double steps = (frame - firstBeatFrame) / step;
+        return Math.round(firstBeatFrame + (floor ? Math.floor(steps) : Math.rint(steps)) * step);
+    }
+
+    private void updateButtons() {
+        boolean loaded = samples != null;
+        for (int i = 0; i < HOT_CUE_COUNT; i++) {
+            cueButtons[i].setEnabled(loaded);
+            cueButtons[i].setAlpha(cues[i].active != null ? 1.0f : EMPTY_CUE_ALPHA);
+        }
+
+        float beats = LOOP_BEATS[loopIndex];
+        String length = beats >= 1 ? String.valueOf((int) beats) : "1/" + Math.round(1 / beats);
+        btnLoop.setText(String.format(Locale.ROOT, player.isLooping() ? "Exit %s" : "Loop %s", length));
+        btnLoop.setEnabled(loaded);
+    }
+
+    /**
+     * Main thread only
+     */
+    @Override
+    public long getResidentBytes() {
+        long bytes = loop.getResidentBytes();
+        for (Slot cue : cues) {
+            bytes += cue.getResidentBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Main thread only. Releases spare regions, which are refilled on the next set.
+     */
+    @Override
+    public void trimTo(long maxBytes) {
+        long bytes = getResidentBytes();
+        for (int i = 0; i <= HOT_CUE_COUNT && bytes > maxBytes; i++) {
+            bytes -= (i < HOT_CUE_COUNT ? cues[i] : loop).releaseSpares(player);
+        }
+    }
+
+    public void release() {
+        fillExecutor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+}
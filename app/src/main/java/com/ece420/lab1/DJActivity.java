@@ -1,20 +1,24 @@
 package com.ece420.lab1;
 
 import android.app.Activity;
+import android.content.ClipData;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
-import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.provider.OpenableColumns;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
-import android.widget.ArrayAdapter;
+import android.webkit.MimeTypeMap;
 import android.widget.Button;
-import android.widget.ListView;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.Manifest;
@@ -22,26 +26,50 @@ import android.Manifest;
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class DJActivity extends Activity {
     private static final String TAG = "DJActivity";
     private static final int PERMISSION_REQUEST_CODE = 100;
     private static final int FILE_SELECT_CODE = 101;
 
+    private static final String SESSION_FILE_NAME = "session.bin";
+    private static final String TRACKS_DIR_NAME = "tracks";
+    private static final String TRACK_FILE_PREFIX = "audio_";
+    // Decoded PCM of the loaded track, mapped from a file in the cache directory
+    private static final String DECK_SPILL_PREFIX = "deck";
+    private static final String DECK_SPILL_SUFFIX = ".pcm";
+
+    // Provisional BPM confidence at which a track is shown as mixable
+    private static final float MIXABLE_CONFIDENCE = 0.7f;
+
+    // BPM search tolerance when the query does not give one
+    private static final float DEFAULT_BPM_TOLERANCE = 4.0f;
+
+    // Number of "sounds like" suggestions shown for the current track
+    private static final int SUGGESTION_COUNT = 10;
+
+    // CacheManager budgets
+    private static final long WAVEFORM_CACHE_BYTES = 4L << 20;
+    private static final long DECODER_BUFFER_BYTES = 1L << 20;
+    private static final long CUE_LOOP_AUDIO_BYTES = 16L << 20;
+    private static final long DECK_DIRTY_PCM_BYTES = 32L << 20;
+
     // UI Components
     private Button btnSelectFile;
     private Button btnPlay;
@@ -50,37 +78,96 @@ public class DJActivity extends Activity {
     private TextView tvBPMLabel;
     private TextView tvBPMValue;
     private TextView tvCurrentTrack;
-    private ListView lvTrackList;
+    private TextView tvSuggestions;
+    private RecyclerView rvTrackList;
+    private EditText etSearch;
     private WaveformView waveformView;
+    private View beatPulse;
+    private TextView tvLiveBpm;
+    private TextView tvQueueStatus;
+    private CueLoopController cueLoopController;
 
     // Audio Components
     private AudioPlayerManager audioPlayerManager;
-    private SimpleBPMDetector bpmDetector;
+    private AnalysisEngine analysisEngine;
 
     // Data
-    private List<Track> trackList;
-    private ArrayAdapter<String> trackAdapter;
+    private CacheManager cacheManager;
+    private WaveformCache waveformCache;
+    private Future<TrackLibrary> trackLibrary;  // Owned by analysisEngine
+    private LibraryTrackList trackList;
+    private TrackListAdapter trackAdapter;
     private Track currentTrack;
+    private int currentPosition = -1;  // Of currentTrack in trackList, -1 if not listed
+    private DecodedTrack deckDecode;  // The deck's reference to its track's decode
+    private SampleStore deckSamples;  // Decoded track loaded into the player, growing until onDeckDecoded()
+    private Track deckTrack;  // Track being loaded into the deck
+    private long pendingSeekFrame = -1;  // Restored position, applied once the deck is decoded
+    private String awaitedImportPath;  // Library copy of a single picked file, until it is listed
+
+    // BPM search: trackList positions of the results streamed in so far
+    private TrackQueryIndex queryIndex;  // Only touched on queryExecutor
+    private String activeQuery = "";
+    private int[] visiblePositions = new int[0];
+    private int visibleCount;
+    private volatile int queryGeneration;
+
+    // Next-track suggestions by feature similarity
+    private SimilarityIndex similarityIndex;  // Only touched on similarityExecutor
 
     // Threading
     private ExecutorService executorService;
+    private ExecutorService queryExecutor;
+    private ExecutorService similarityExecutor;
     private Handler mainHandler;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createdAtNanos = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_dj);
 
         // Initialize components
-        executorService = Executors.newSingleThreadExecutor();
+        // Two workers so waveform extraction decodes alongside BPM refinement
+        executorService = Executors.newFixedThreadPool(2);
+        queryExecutor = Executors.newSingleThreadExecutor();
+        queryIndex = new TrackQueryIndex();
+        // Separate thread so retraining the similarity clusters never delays BPM search
+        similarityExecutor = Executors.newSingleThreadExecutor();
+        similarityIndex = new SimilarityIndex();
         mainHandler = new Handler(Looper.getMainLooper());
-        trackList = new ArrayList<>();
+        trackList = new LibraryTrackList();
         audioPlayerManager = new AudioPlayerManager();
-        bpmDetector = new SimpleBPMDetector();
+        cacheManager = new CacheManager();
+        waveformCache = new WaveformCache(cacheManager);
 
         // Initialize UI
         initializeUI();
 
+        // Cheapest to rebuild is shed first under memory pressure
+        cacheManager.register("waveforms", waveformCache, CacheManager.PRIORITY_LOW, WAVEFORM_CACHE_BYTES);
+        cacheManager.register("decoder buffers", PcmBufferPool.getShared(), CacheManager.PRIORITY_LOW,
+            DECODER_BUFFER_BYTES);
+        cacheManager.register("cue/loop audio", cueLoopController, CacheManager.PRIORITY_NORMAL,
+            CUE_LOOP_AUDIO_BYTES);
+        cacheManager.register("deck PCM", deckPcmCache, CacheManager.PRIORITY_HIGH, DECK_DIRTY_PCM_BYTES);
+
+        // Restore the previous session first: the snapshot is tiny, the deck it names is decoded last
+        executorService.execute(() -> {
+            SessionSnapshot snapshot = SessionSnapshot.read(new File(getFilesDir(), SESSION_FILE_NAME));
+            if (snapshot != null) {
+                mainHandler.post(() -> restoreSession(snapshot, createdAtNanos));
+            }
+        });
+
+        // Imports are analyzed by the process-wide engine, which outlives this activity and opens
+        // the persistent library; show what was imported before and follow the queue
+        analysisEngine = AnalysisEngine.getInstance(this);
+        trackLibrary = analysisEngine.getTrackLibrary();
+        loadLibrary();
+        analysisEngine.setListener(engineListener);
+        executorService.execute(this::deleteStaleSpillFiles);
+
         // Check permissions
         checkPermissions();
     }
@@ -94,14 +181,40 @@ public class DJActivity extends Activity {
         tvBPMLabel = findViewById(R.id.tvBPMLabel);
         tvBPMValue = findViewById(R.id.tvBPMValue);
         tvCurrentTrack = findViewById(R.id.tvCurrentTrack);
-        lvTrackList = findViewById(R.id.lvTrackList);
+        tvSuggestions = findViewById(R.id.tvSuggestions);
+        rvTrackList = findViewById(R.id.rvTrackList);
+        etSearch = findViewById(R.id.etSearch);
         waveformView = findViewById(R.id.waveformView);
+        beatPulse = findViewById(R.id.beatPulse);
+        tvLiveBpm = findViewById(R.id.tvLiveBpm);
+        tvQueueStatus = findViewById(R.id.tvQueueStatus);
 
-        // Setup track list adapter
-        trackAdapter = new ArrayAdapter<>(this,
-            android.R.layout.simple_list_item_1,
-            new ArrayList<String>());
-        lvTrackList.setAdapter(trackAdapter);
+        // Pulse and live BPM follow the audio the player is writing
+        audioPlayerManager.setPcmTap(new LiveBeatIndicator(beatPulse, tvLiveBpm, audioPlayerManager));
+        cueLoopController = new CueLoopController(findViewById(R.id.hotCueRow), findViewById(R.id.btnLoop),
+            findViewById(R.id.btnLoopShorter), findViewById(R.id.btnLoopLonger), audioPlayerManager);
+
+        // Setup track list, rows map back to trackList positions on click
+        trackAdapter = new TrackListAdapter(trackList, this::selectTrack);
+        rvTrackList.setLayoutManager(new LinearLayoutManager(this));
+        rvTrackList.setHasFixedSize(true);
+        rvTrackList.setAdapter(trackAdapter);
+
+        // Re-run the BPM query on every keystroke, results stream into the list
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                applyQuery(s.toString());
+            }
+        });
 
         // Setup button listeners
         btnSelectFile.setOnClickListener(new View.OnClickListener() {
@@ -132,11 +245,6 @@ public class DJActivity extends Activity {
             }
         });
 
-        // Track list item click
-        lvTrackList.setOnItemClickListener((parent, view, position, id) -> {
-            selectTrack(position);
-        });
-
         // Initially disable playback buttons
         btnPlay.setEnabled(false);
         btnPause.setEnabled(false);
@@ -181,6 +289,7 @@ public class DJActivity extends Activity {
         Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
         intent.setType("audio/*");
         intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
 
         try {
             startActivityForResult(
@@ -195,101 +304,555 @@ public class DJActivity extends Activity {
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == FILE_SELECT_CODE && resultCode == RESULT_OK) {
-            if (data != null && data.getData() != null) {
+            if (data != null && data.getClipData() != null) {
+                // Several files picked, they are analyzed one after another
+                ClipData clip = data.getClipData();
+                boolean awaited = clip.getItemCount() == 1 && !audioPlayerManager.isPlaying();
+                for (int i = 0; i < clip.getItemCount(); i++) {
+                    handleSelectedFile(clip.getItemAt(i).getUri(), awaited);
+                }
+            } else if (data != null && data.getData() != null) {
                 Uri uri = data.getData();
-                handleSelectedFile(uri);
+                handleSelectedFile(uri, !audioPlayerManager.isPlaying());
             }
         }
         super.onActivityResult(requestCode, resultCode, data);
     }
 
-    private void handleSelectedFile(Uri uri) {
-        // Show loading
-        tvBPMValue.setText("Analyzing...");
-        tvCurrentTrack.setText("Loading...");
+    /**
+     * @param awaited Whether this is the only file picked with the deck stopped, so the user
+     * waits for it to load; files picked together or during a mix are only added to the list
+     */
+    private void handleSelectedFile(Uri uri, boolean awaited) {
+        if (awaited) {
+            // Show loading
+            tvBPMLabel.setText("Estimating BPM:");
+            tvBPMValue.setText("Analyzing...");
+            tvCurrentTrack.setText("Loading...");
+        }
 
         // Get file name
         String fileName = getFileName(uri);
 
-        // Process in background
+        // Copy in the background, the engine analyzes the copy even if this activity goes away
         executorService.execute(() -> {
-            try {
-                // Copy file to cache for processing
-                File tempFile = copyUriToTempFile(uri);
+            // Copy file into the library folder so it survives restarts
+            File libraryFile = copyUriToLibraryFile(uri, fileName);
 
-                if (tempFile != null) {
-                    Log.d(TAG, "Temp file created: " + tempFile.getAbsolutePath());
+            if (libraryFile != null) {
+                Log.d(TAG, "Library file created: " + libraryFile.getAbsolutePath());
+                if (awaited) {
+                    mainHandler.post(() -> loadAwaitedImport(fileName, libraryFile));
+                } else {
+                    analysisEngine.enqueue(fileName, libraryFile);
+                }
+            } else {
+                mainHandler.post(() -> {
+                    if (awaited) {
+                        tvBPMValue.setText("Error");
+                    }
+                    Toast.makeText(DJActivity.this, "Error copying " + fileName, Toast.LENGTH_LONG).show();
+                });
+            }
+        });
+    }
 
-                    // Detect BPM
-                    Log.d(TAG, "Starting BPM detection...");
-                    float bpm = bpmDetector.detectBPM(tempFile.getAbsolutePath());
-                    Log.d(TAG, "BPM detection complete: " + bpm);
+    /**
+     * Load the single picked file into the deck as soon as it is copied, unless a mix
+     * was started meanwhile. The engine analyzes the deck's decode instead of decoding
+     * the file a second time.
+     */
+    private void loadAwaitedImport(String fileName, File libraryFile) {
+        // Set ahead of the engine's first estimate for the file
+        awaitedImportPath = libraryFile.getAbsolutePath();
+        if (isDestroyed() || audioPlayerManager.isPlaying()) {
+            analysisEngine.enqueue(fileName, libraryFile);
+            return;
+        }
 
-                    // Create track object
-                    Track track = new Track(fileName, tempFile.getAbsolutePath(), bpm);
+        Track track = new Track(fileName, libraryFile.getAbsolutePath(), BPMSession.DEFAULT_BPM);
+        currentTrack = track;
+        currentPosition = -1;
+        tvCurrentTrack.setText(track.getName());
+        showSuggestions(track);
+        analysisEngine.enqueue(fileName, libraryFile, loadDeck(track));
+    }
 
-                    // Update UI on main thread
-                    mainHandler.post(() -> {
-                        // Add to list
-                        trackList.add(track);
-                        trackAdapter.add(String.format("%s - %.1f BPM", track.getName(), track.getBpm()));
-                        trackAdapter.notifyDataSetChanged();
-
-                        // Set as current track
-                        currentTrack = track;
-                        tvCurrentTrack.setText(track.getName());
-                        tvBPMValue.setText(String.format("%.1f", track.getBpm()));
-
-                        // Enable playback buttons
-                        btnPlay.setEnabled(true);
-                        btnStop.setEnabled(true);
-
-                        // Load into player and extract waveform
-                        try {
-                            audioPlayerManager.loadTrack(track.getFilePath());
-                            // Extract waveform in background
-                            displayWaveform(tempFile);
-                        } catch (IOException e) {
-                            Log.e(TAG, "Error loading track", e);
-                            Toast.makeText(DJActivity.this, "Error loading track", Toast.LENGTH_SHORT).show();
-                        }
-                    });
+    private final AnalysisEngine.Listener engineListener = new AnalysisEngine.Listener() {
+        @Override
+        public void onTempoEstimate(Track track, float bpm, float confidence, boolean isFinal) {
+            DJActivity.this.onTempoEstimate(track, bpm, confidence, isFinal);
+        }
+
+        @Override
+        public void onTrackAnalyzed(Track track, int libraryIndex) {
+            DJActivity.this.onTrackAnalyzed(track, libraryIndex);
+        }
+
+        @Override
+        public void onAlreadyInLibrary(String importPath, int libraryIndex) {
+            if (importPath.equals(awaitedImportPath)) {
+                awaitedImportPath = null;
+                if (!audioPlayerManager.isPlaying()) {
+                    selectTrack(libraryIndex);
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing file", e);
-                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void onSameRecording(Track track, String originalPath) {
+            // Show the original's waveform for the copy instead of extracting it again
+            Waveform waveform = waveformCache.get(originalPath);
+            if (waveform != null) {
+                waveformCache.put(track.getFilePath(), waveform);
+            }
+        }
+
+        @Override
+        public void onAnalysisFailed(String fileName, Exception e) {
+            // The engine analyzes one track at a time, so a listed unsaved track is the failed one
+            Track failed = trackList.getAnalyzing();
+            if (failed != null) {
+                trackList.setAnalyzing(null);
+                if (failed == currentTrack) {
+                    currentPosition = -1;
+                }
+                rebuildQueryIndex();
+                applyQuery(activeQuery);
+            }
+            tvBPMValue.setText("Error");
+            Toast.makeText(DJActivity.this, "Error processing " + fileName + ": " + e.getMessage(),
+                Toast.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onQueueChanged(int pending, int completed, float tracksPerMinute) {
+            if (pending == 0) {
+                tvQueueStatus.setVisibility(View.GONE);
+                return;
+            }
+            tvQueueStatus.setVisibility(View.VISIBLE);
+            tvQueueStatus.setText(completed == 0
+                ? String.format("Analyzing: %d in queue", pending)
+                : String.format("Analyzing: %d in queue, %d done, %.1f tracks/min", pending, completed, tracksPerMinute));
+        }
+    };
+
+    private void onTempoEstimate(Track track, float bpm, float confidence, boolean isFinal) {
+        track.setBpm(bpm);
+
+        int position = trackList.positionOf(track);
+        if (position < 0) {
+            // Still analyzing - show the provisional value until it is reliable enough to mix
+            if (!isFinal && confidence < MIXABLE_CONFIDENCE) {
+                if (isAwaitedImport(track)) {
+                    tvBPMValue.setText(String.format("~%.1f", bpm));
+                }
+                return;
+            }
+            addMixableTrack(track);
+        } else {
+            refreshTrack(position, track);
+        }
+
+        if (track == currentTrack) {
+            tvBPMLabel.setText(isFinal ? "Detected BPM:" : "Estimating BPM:");
+            tvBPMValue.setText(String.format("%.1f", track.getBpm()));
+        }
+    }
+
+    /**
+     * The engine has set the track's key, features, beat grid and gain and saved it
+     */
+    private void onTrackAnalyzed(Track track, int libraryIndex) {
+        if (track == deckTrack) {
+            cueLoopController.updateBeatGrid(track);
+            audioPlayerManager.setGainDb(track.getGainDb());
+        }
+
+        int listedAt = trackList.positionOf(track);
+        trackList.onSaved(track, libraryIndex);
+        if (trackList.getLibrary() == null) {
+            return;  // Listed once the library is loaded
+        }
+        if (listedAt != libraryIndex) {
+            // Saved without being listed while analyzing, or listed before the library rows arrived
+            rebuildQueryIndex();
+            rebuildSimilarityIndex();
+            applyQuery(activeQuery);
+        } else {
+            refreshTrack(libraryIndex, track);
+            indexFeatures(libraryIndex, track);
+        }
+        if (track == currentTrack) {
+            currentPosition = libraryIndex;
+            tvCurrentTrack.setText(formatTrackTitle(track));
+            showSuggestions(track);
+        }
+    }
+
+    private void refreshTrack(int position, Track track) {
+        indexTrack(position, track);
+        if (isQueryActive()) {
+            applyQuery(activeQuery);
+        } else {
+            // Only the changed row is rebuilt and rebound
+            trackAdapter.refresh(position);
+        }
+    }
+
+    /**
+     * List the library once the engine has opened it. Rows are read from its columns
+     * as they are shown, no Track is built until one is selected.
+     */
+    private void loadLibrary() {
+        executorService.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                TrackLibrary library = trackLibrary.get();
+                int count = library.size();
+                Log.d(TAG, "Opened library of " + count + " tracks in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+
                 mainHandler.post(() -> {
-                    tvBPMValue.setText("Error");
-                    Toast.makeText(DJActivity.this, "Error processing file: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                    // Imports saved meanwhile are counted in by onTrackAnalyzed()
+                    trackList.setLibrary(library, count);
+                    trackAdapter.invalidate();  // An import listed until now moves behind the library rows
+                    adoptRestoredTrack();
+                    rebuildQueryIndex();
+                    rebuildSimilarityIndex();
+                    applyQuery(activeQuery);
                 });
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, "Error opening track library", e);
+                mainHandler.post(() -> Toast.makeText(DJActivity.this,
+                    "Could not open track library", Toast.LENGTH_LONG).show());
             }
         });
     }
 
-    private File copyUriToTempFile(Uri uri) {
-        try {
-            InputStream inputStream = getContentResolver().openInputStream(uri);
-            if (inputStream != null) {
-                File tempFile = new File(getCacheDir(), "temp_audio_" + System.currentTimeMillis() + ".mp3");
-                FileOutputStream outputStream = new FileOutputStream(tempFile);
+    /**
+     * Stage one of a cold start: show the deck of the previous session as it was
+     * left, then decode its track once that frame is on screen
+     */
+    private void restoreSession(SessionSnapshot snapshot, long createdAtNanos) {
+        Track track = snapshot.getTrack();
+        if (isDestroyed() || currentTrack != null || !new File(track.getFilePath()).isFile()) {
+            return;  // Something was picked already, or the file is gone
+        }
+
+        currentTrack = track;
+        currentPosition = -1;  // Found in adoptRestoredTrack() once the library is listed
+        tvCurrentTrack.setText(formatTrackTitle(track));
+        tvBPMLabel.setText("Detected BPM:");
+        tvBPMValue.setText(String.format("%.1f", track.getBpm()));
+        Waveform waveform = snapshot.getWaveform();
+        if (waveform != null) {
+            waveformView.setWaveform(waveform);
+            // The deck decode then skips waveform extraction
+            waveformCache.put(track.getFilePath(), waveform);
+        }
+        if (!snapshot.getQuery().isEmpty()) {
+            etSearch.setText(snapshot.getQuery());
+        }
+
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos -> {
+            Log.i(TAG, "Previous session visible " + (frameTimeNanos - createdAtNanos) / 1000000
+                + " ms after onCreate");
+            if (currentTrack == track && deckTrack == null) {
+                loadDeck(track);
+                pendingSeekFrame = snapshot.getPositionFrame();
+            }
+        });
+    }
+
+    /**
+     * Swap the Track rebuilt from the session snapshot for one read from the library,
+     * which has the features, and note where it is listed
+     */
+    private void adoptRestoredTrack() {
+        if (currentTrack == null || currentPosition >= 0) {
+            return;
+        }
+        int position = trackList.positionOf(currentTrack.getFilePath());
+        if (position >= 0) {
+            Track track = trackList.getTrack(position);
+            if (deckTrack == currentTrack) {
+                deckTrack = track;
+            }
+            currentTrack = track;
+            currentPosition = position;
+            tvCurrentTrack.setText(formatTrackTitle(track));
+            showSuggestions(track);
+        }
+    }
+
+    /**
+     * Write the session snapshot off the UI thread
+     */
+    private void saveSession() {
+        if (deckTrack == null) {
+            return;
+        }
+        long position = pendingSeekFrame >= 0 ? pendingSeekFrame : audioPlayerManager.getPlaybackFrame();
+        SessionSnapshot snapshot = new SessionSnapshot(deckTrack, position, etSearch.getText().toString(),
+            waveformCache.get(deckTrack.getFilePath()));
+        File file = new File(getFilesDir(), SESSION_FILE_NAME);
+        executorService.execute(() -> {
+            try {
+                snapshot.write(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Error saving session", e);
+            }
+        });
+    }
+
+    private boolean isQueryActive() {
+        return !activeQuery.trim().isEmpty();
+    }
+
+    private void indexTrack(int position, Track track) {
+        float bpm = track.getBpm();
+        int keyCode = track.getKeyCode();
+        queryExecutor.execute(() -> queryIndex.put(position, bpm, keyCode));
+    }
 
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
+    /**
+     * Reindex every listed track, copying the library's columns on the query thread
+     */
+    private void rebuildQueryIndex() {
+        TrackLibrary library = trackList.getLibrary();
+        int libraryCount = trackList.getLibraryCount();
+        Track analyzing = trackList.getAnalyzing();
+        float analyzingBpm = analyzing != null ? analyzing.getBpm() : 0;
+        int analyzingKey = analyzing != null ? analyzing.getKeyCode() : KeyDetector.UNKNOWN_KEY;
+        queryExecutor.execute(() -> {
+            int count = libraryCount + (analyzing != null ? 1 : 0);
+            float[] bpms = new float[count];
+            int[] keyCodes = new int[count];
+            if (library != null) {
+                library.copyTempoColumns(libraryCount, bpms, keyCodes);
+            }
+            if (analyzing != null) {
+                bpms[libraryCount] = analyzingBpm;
+                keyCodes[libraryCount] = analyzingKey;
+            }
+            queryIndex.rebuild(bpms, keyCodes, count);
+        });
+    }
+
+    private void indexFeatures(int position, Track track) {
+        float[] features = track.getFeatures();
+        if (features != null) {
+            similarityExecutor.execute(() -> similarityIndex.put(position, features));
+        }
+    }
+
+    /**
+     * Reindex the features of every library track, copied on the similarity thread.
+     * The track being analyzed has none yet.
+     */
+    private void rebuildSimilarityIndex() {
+        TrackLibrary library = trackList.getLibrary();
+        int count = trackList.getLibraryCount();
+        similarityExecutor.execute(() -> {
+            float[] matrix = new float[count * FeatureExtractor.DIMENSIONS];
+            boolean[] present = new boolean[count];
+            if (library != null) {
+                library.copyFeatures(count, matrix, present);
+            }
+            similarityIndex.rebuild(matrix, present, count);
+        });
+    }
+
+    /**
+     * Show the tracks that sound most like the current one, nearest first
+     */
+    private void showSuggestions(Track track) {
+        float[] features = track.getFeatures();
+        if (features == null) {
+            tvSuggestions.setText("");
+            return;
+        }
+
+        int position = currentPosition;
+        similarityExecutor.execute(() -> {
+            int[] results = new int[SUGGESTION_COUNT];
+            int found = similarityIndex.query(features, position, results);
+            mainHandler.post(() -> {
+                if (track != currentTrack) {
+                    return;  // Selection changed while searching
                 }
+                StringBuilder text = new StringBuilder(found > 0 ? "Sounds like: " : "");
+                for (int i = 0; i < found && results[i] < trackList.size(); i++) {
+                    if (i > 0) {
+                        text.append(", ");
+                    }
+                    text.append(trackList.getName(results[i]));
+                }
+                tvSuggestions.setText(text);
+            });
+        });
+    }
+
+    /**
+     * Show tracks matching a query of the form "174" or "174 6" (BPM and +/- percent),
+     * including half- and double-time matches. A Camelot key such as "8A" anywhere in
+     * the query limits results to harmonically compatible keys. An empty query shows
+     * every track.
+     */
+    private void applyQuery(String query) {
+        activeQuery = query;
+        int generation = ++queryGeneration;
+
+        trackAdapter.resetPaging();
+        visibleCount = 0;
+
+        // Split off a Camelot key, the remaining numbers are BPM and tolerance
+        int keyFilter = KeyDetector.UNKNOWN_KEY;
+        List<String> numbers = new ArrayList<>(2);
+        for (String part : query.trim().split("\\s+")) {
+            int keyCode = KeyDetector.parseCamelot(part);
+            if (keyCode != KeyDetector.UNKNOWN_KEY) {
+                keyFilter = keyCode;
+            } else {
+                numbers.add(part);
+            }
+        }
+
+        float targetBpm;
+        float tolerance = DEFAULT_BPM_TOLERANCE;
+        try {
+            targetBpm = Float.parseFloat(numbers.get(0));
+            if (numbers.size() > 1) {
+                tolerance = Float.parseFloat(numbers.get(1));
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            // Empty or incomplete query - show everything
+            activeQuery = "";
+            trackAdapter.showAll();
+            return;
+        }
+        trackAdapter.showPositions(visiblePositions, 0);
+
+        float queryTolerance = tolerance;
+        int queryKey = keyFilter;
+        queryExecutor.execute(() -> queryIndex.query(targetBpm, queryTolerance, true, queryKey, (positions, count) -> {
+            mainHandler.post(() -> showQueryResults(generation, positions, count));
+            // Stop early once the user has typed something newer
+            return generation == queryGeneration;
+        }));
+    }
+
+    private void showQueryResults(int generation, int[] positions, int count) {
+        if (generation != queryGeneration) {
+            return;  // Stale results from an older query
+        }
+        if (visibleCount + count > visiblePositions.length) {
+            visiblePositions = Arrays.copyOf(visiblePositions,
+                Math.max(visibleCount + count, visiblePositions.length * 2));
+        }
+
+        System.arraycopy(positions, 0, visiblePositions, visibleCount, count);
+        visibleCount += count;
+        trackAdapter.showPositions(visiblePositions, visibleCount);
+    }
+
+    private boolean isAwaitedImport(Track track) {
+        return track.getFilePath().equals(awaitedImportPath);
+    }
+
+    private void addMixableTrack(Track track) {
+        // List after the library rows until it is saved
+        trackList.setAnalyzing(track);
+        int position = trackList.positionOf(track);
+        indexTrack(position, track);
+        if (isQueryActive()) {
+            applyQuery(activeQuery);
+        } else {
+            trackAdapter.showAll();
+        }
+
+        boolean awaited = isAwaitedImport(track);
+        if (awaited) {
+            awaitedImportPath = null;
+        }
+        // Loaded as soon as it was copied; the engine's instance carries the analysis from now on
+        boolean onDeck = deckTrack != null && deckTrack.getFilePath().equals(track.getFilePath());
+        if (onDeck) {
+            deckTrack = track;
+        } else if (deckTrack != null) {
+            // Only an empty deck is taken over, a batch import must not unload it once per file
+            if (awaited && currentTrack != null) {
+                // A mix was started while it was copied, show the deck's track again
+                tvCurrentTrack.setText(formatTrackTitle(currentTrack));
+                tvBPMLabel.setText("Detected BPM:");
+                tvBPMValue.setText(String.format("%.1f", currentTrack.getBpm()));
+            }
+            return;
+        }
+
+        // Set as current track
+        currentTrack = track;
+        currentPosition = position;
+        tvCurrentTrack.setText(formatTrackTitle(track));
+        tvBPMValue.setText(String.format("%.1f", track.getBpm()));
+        showSuggestions(track);
 
-                inputStream.close();
-                outputStream.close();
+        if (!onDeck) {
+            // Load into player and extract waveform, playback is enabled once the first frames are decoded
+            loadDeck(track);
+        }
+    }
 
-                return tempFile;
+    private String formatTrackTitle(Track track) {
+        String key = KeyDetector.toCamelot(track.getKeyCode());
+        return key == null ? track.getName() : track.getName() + " (" + key + ")";
+    }
+
+    /**
+     * Copy a picked file under a unique name in the library folder, keeping its
+     * extension, which decides whether the engine indexes it as an MP3
+     */
+    private File copyUriToLibraryFile(Uri uri, String fileName) {
+        File libraryFile = null;
+        try (InputStream inputStream = getContentResolver().openInputStream(uri)) {
+            if (inputStream != null) {
+                File tracksDir = new File(getFilesDir(), TRACKS_DIR_NAME);
+                tracksDir.mkdirs();
+                libraryFile = File.createTempFile(TRACK_FILE_PREFIX, getExtension(uri, fileName), tracksDir);
+                try (FileOutputStream outputStream = new FileOutputStream(libraryFile)) {
+                    byte[] buffer = new byte[4096];
+                    int bytesRead;
+                    while ((bytesRead = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, bytesRead);
+                    }
+                }
+                return libraryFile;
             }
         } catch (IOException e) {
             Log.e(TAG, "Error copying file", e);
+            if (libraryFile != null) {
+                libraryFile.delete();
+            }
         }
         return null;
     }
 
+    /**
+     * @return The picked file's extension with the dot, from its name or else its MIME type,
+     * or an empty string if neither gives one
+     */
+    private String getExtension(Uri uri, String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot >= 0 && dot < fileName.length() - 1 && fileName.indexOf('/', dot) < 0) {
+            return fileName.substring(dot).toLowerCase(Locale.ROOT);
+        }
+        String mimeType = getContentResolver().getType(uri);
+        String extension = mimeType != null ? MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType) : null;
+        return extension != null ? "." + extension : "";
+    }
+
     private String getFileName(Uri uri) {
         String fileName = "Unknown";
         Cursor cursor = getContentResolver().query(uri, null, null, null, null);
@@ -305,24 +868,121 @@ public class DJActivity extends Activity {
 
     private void selectTrack(int position) {
         if (position >= 0 && position < trackList.size()) {
-            currentTrack = trackList.get(position);
-            tvCurrentTrack.setText(currentTrack.getName());
+            awaitedImportPath = null;  // The user chose something else meanwhile
+            // Only the selected track is materialized from the library
+            currentTrack = trackList.getTrack(position);
+            currentPosition = position;
+            tvCurrentTrack.setText(formatTrackTitle(currentTrack));
+            showSuggestions(currentTrack);
+            tvBPMLabel.setText("Detected BPM:");
             tvBPMValue.setText(String.format("%.1f", currentTrack.getBpm()));
 
             // Load track
-            try {
-                audioPlayerManager.loadTrack(currentTrack.getFilePath());
-                btnPlay.setEnabled(true);
-                btnStop.setEnabled(true);
-                // Display waveform
-                displayWaveform(new File(currentTrack.getFilePath()));
-            } catch (IOException e) {
-                Log.e(TAG, "Error loading track", e);
-                Toast.makeText(this, "Error loading track", Toast.LENGTH_SHORT).show();
-            }
+            loadDeck(currentTrack);
+        }
+    }
+
+    /**
+     * Unload the playing track and decode the new one for the player in the
+     * background; playback is enabled in onDeckPlayable().
+     * @return The deck's decode, which the engine may share
+     */
+    private DecodedTrack loadDeck(Track track) {
+        pendingSeekFrame = -1;
+        audioPlayerManager.unload();
+        cueLoopController.setTrack(null, null);
+        releaseDeck();
+        deckTrack = track;
+        deckDecode = new DecodedTrack(track.getFilePath());
+
+        btnPlay.setEnabled(false);
+        btnPause.setEnabled(false);
+        btnStop.setEnabled(false);
+        decodeDeck(deckDecode);
+        return deckDecode;
+    }
+
+    /**
+     * Let go of the deck's decode once the player no longer reads it
+     */
+    private void releaseDeck() {
+        if (deckDecode != null) {
+            deckDecode.release();
+            deckDecode = null;
+        }
+        deckSamples = null;
+    }
+
+    /**
+     * The first frames of the deck's track are decoded: the player reads the store
+     * while it grows, so playback can start now
+     */
+    private void onDeckPlayable(DecodedTrack decode, SampleStore samples) {
+        if (isDestroyed() || decode != deckDecode) {
+            return;  // Another track was selected while this one decoded
+        }
+        deckSamples = samples;
+        if (pendingSeekFrame >= 0) {
+            return;  // A restored position can be anywhere in the track, wait for all of it
         }
+        audioPlayerManager.loadDecoding(samples);
+        audioPlayerManager.setGainDb(deckTrack.getGainDb());
+        btnPlay.setEnabled(true);
+        btnStop.setEnabled(true);
+    }
+
+    /**
+     * The deck's track is decoded to the end, or failed to decode. Cues and loops
+     * need the whole track, so they are set up now.
+     */
+    private void onDeckDecoded(DecodedTrack decode, SampleStore samples) {
+        if (isDestroyed() || decode != deckDecode) {
+            return;
+        }
+        if (samples == null) {
+            Toast.makeText(this, "Error loading track", Toast.LENGTH_SHORT).show();
+            audioPlayerManager.unload();
+            releaseDeck();
+            btnPlay.setEnabled(false);
+            btnPause.setEnabled(false);
+            btnStop.setEnabled(false);
+            return;
+        }
+
+        if (pendingSeekFrame >= 0) {
+            audioPlayerManager.load(samples);
+            audioPlayerManager.setGainDb(deckTrack.getGainDb());
+            audioPlayerManager.seekTo(pendingSeekFrame);
+            pendingSeekFrame = -1;
+            btnPlay.setEnabled(true);
+            btnStop.setEnabled(true);
+        } else {
+            audioPlayerManager.decodingFinished(samples);
+        }
+        cueLoopController.setTrack(deckTrack, samples);
+        // A freshly decoded track is all dirty pages
+        cacheManager.enforceBudgets();
     }
 
+    /**
+     * Dirty pages of the deck's spill file. The OS can only drop them once they are
+     * written back, which trimming starts in the background. Main thread only.
+     */
+    private final CacheManager.TrimmableCache deckPcmCache = new CacheManager.TrimmableCache() {
+        @Override
+        public long getResidentBytes() {
+            return deckSamples != null ? deckSamples.getUnflushedBytes() : 0;
+        }
+
+        @Override
+        public void trimTo(long maxBytes) {
+            SampleStore samples = deckSamples;
+            if (samples != null && samples.getUnflushedBytes() > maxBytes) {
+                executorService.execute(samples::flush);
+            }
+        }
+    };
+
     private void playCurrentTrack() {
         if (currentTrack != null) {
             audioPlayerManager.play();
@@ -343,8 +1003,12 @@ public class DJActivity extends Activity {
         btnPause.setEnabled(false);
     }
 
-    private void displayWaveform(File audioFile) {
-        Log.d(TAG, "displayWaveform called for file: " + audioFile.getAbsolutePath());
+    /**
+     * Decode the whole track for the player and show its waveform
+     */
+    private void decodeDeck(DecodedTrack decode) {
+        File audioFile = new File(decode.getFilePath());
+        Log.d(TAG, "decodeDeck called for file: " + audioFile.getAbsolutePath());
 
         // Show loading indicator on UI thread
         mainHandler.post(() -> {
@@ -354,28 +1018,89 @@ public class DJActivity extends Activity {
         // Extract real waveform from decoded audio
         executorService.execute(() -> {
             try {
+                // A recently shown or batch-analyzed track already has its waveform
+                String filePath = audioFile.getAbsolutePath();
+                Waveform knownWaveform = waveformCache.get(filePath);
+                SeekTable seekTable = null;
+                if (knownWaveform == null) {
+                    AnalysisCache.Entry cached = analysisEngine.getAnalysisCache().get(ContentHash.of(audioFile));
+                    knownWaveform = cached != null ? cached.getWaveform() : null;
+                    seekTable = cached != null ? cached.getSeekTable() : null;
+                    if (knownWaveform != null) {
+                        waveformCache.put(filePath, knownWaveform);
+                    }
+                }
+                boolean haveWaveform = knownWaveform != null;
+                if (haveWaveform) {
+                    Waveform shownWaveform = knownWaveform;
+                    mainHandler.post(() -> waveformView.setWaveform(shownWaveform));
+                } else if (filePath.toLowerCase(Locale.ROOT).endsWith(".mp3")) {
+                    // Show an instant preview from the MP3 frame data while the full decode runs
+                    long previewStart = System.nanoTime();
+                    float[] previewData = Mp3WaveformPreview.generate(audioFile.getAbsolutePath(), seekTable, 1500);
+                    if (previewData != null) {
+                        Log.d(TAG, "Waveform preview built in " + (System.nanoTime() - previewStart) / 1000000 + " ms");
+                        mainHandler.post(() -> waveformView.setWaveformData(previewData));
+                    }
+                }
+
                 Log.d(TAG, "Starting waveform extraction...");
 
+                // Decode the whole track once off the heap; the player streams from these samples
+                // as they arrive, and the engine may analyze them as they arrive too
+                File spillFile = File.createTempFile(DECK_SPILL_PREFIX, DECK_SPILL_SUFFIX, getCacheDir());
+                boolean[] started = new boolean[1];
+                SampleStore samples = WaveformExtractor.decodeToStore(filePath, spillFile,
+                    new WaveformExtractor.DecodeListener() {
+                        @Override
+                        public void onStarted(SampleStore firstFrames) {
+                            started[0] = true;
+                            decode.start(firstFrames);
+                            mainHandler.post(() -> onDeckPlayable(decode, firstFrames));
+                        }
+
+                        @Override
+                        public void onAppended() {
+                            decode.progress();
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return decode.isAbandoned();
+                        }
+                    });
+                if (!started[0]) {
+                    spillFile.delete();  // Otherwise deleted when the store is closed
+                }
+                decode.finish(samples != null);
+                mainHandler.post(() -> onDeckDecoded(decode, samples));
+                if (haveWaveform || samples == null || !decode.retain()) {
+                    return;
+                }
+
                 // Extract waveform with target of 1500 points for good visualization
-                float[] waveformData = WaveformExtractor.extractWaveform(
-                    audioFile.getAbsolutePath(),
-                    1500
-                );
+                Waveform waveformData;
+                try {
+                    waveformData = WaveformExtractor.extractWaveform(samples, 1500);
+                } finally {
+                    decode.release();
+                }
 
-                Log.d(TAG, "Waveform extraction completed. Data: " + (waveformData != null ? waveformData.length + " points" : "null"));
+                Log.d(TAG, "Waveform extraction completed. Data: " + (waveformData != null ? waveformData.getPointCount() + " points" : "null"));
 
-                if (waveformData == null || waveformData.length == 0) {
+                if (waveformData == null) {
                     Log.e(TAG, "Failed to extract waveform");
                     mainHandler.post(() -> {
                         Toast.makeText(DJActivity.this, "Failed to extract waveform", Toast.LENGTH_SHORT).show();
                     });
                     return;
                 }
+                waveformCache.put(filePath, waveformData);
 
                 // Update waveform view on UI thread
                 mainHandler.post(() -> {
-                    waveformView.setWaveformData(waveformData);
-                    Log.d(TAG, "Waveform displayed with " + waveformData.length + " points");
+                    waveformView.setWaveform(waveformData);
+                    Log.d(TAG, "Waveform displayed with " + waveformData.getPointCount() + " points");
                     Toast.makeText(DJActivity.this, "Waveform loaded!", Toast.LENGTH_SHORT).show();
                 });
             } catch (Exception e) {
@@ -387,10 +1112,47 @@ public class DJActivity extends Activity {
         });
     }
 
+    /**
+     * Spill files left behind if the process was killed with a track loaded
+     */
+    private void deleteStaleSpillFiles() {
+        File[] files = getCacheDir().listFiles((dir, name) ->
+            name.startsWith(DECK_SPILL_PREFIX) && name.endsWith(DECK_SPILL_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        saveSession();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        cacheManager.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        cacheManager.onLowMemory();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
         audioPlayerManager.release();
+        cueLoopController.release();
+        releaseDeck();
+        queryExecutor.shutdownNow();
+        similarityExecutor.shutdownNow();
+        // The engine and its library stay open for the next activity
+        analysisEngine.setListener(null);
         executorService.shutdown();
     }
 }
\ No newline at end of file
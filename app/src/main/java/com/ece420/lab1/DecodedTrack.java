@@ -0,0 +1,131 @@
+package com.ece420.lab1;
+
+/**
+ * A track being decoded into a SampleStore that more than one reader holds: the
+ * deck plays it and the analysis engine analyzes it while it grows, so an import
+ * loaded straight into the deck is decoded only once.
+ *
+ * The creator holds the first reference. The store is closed when the last holder
+ * releases it and the decode has ended; if every holder lets go earlier, the
+ * decoding thread sees isAbandoned() and stops. Thread-safe.
+ */
+public class DecodedTrack {
+    private final String filePath;
+
+    // Guarded by this
+    private SampleStore samples;
+    private boolean finished;
+    private boolean complete;
+    private int holders = 1;
+    private long awaitedFrames = Long.MAX_VALUE;  // Frame count a reader waits for
+
+    public DecodedTrack(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * Called by the decoding thread once the store holds its first frames
+     */
+    public synchronized void start(SampleStore samples) {
+        this.samples = samples;
+    }
+
+    /**
+     * Called by the decoding thread after each append, wakes a reader once its frames are in
+     */
+    public synchronized void progress() {
+        if (samples != null && samples.getFrameCount() >= awaitedFrames) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Called by the decoding thread when it is done
+     * @param complete Whether the whole track was decoded
+     */
+    public void finish(boolean complete) {
+        SampleStore orphan = null;
+        synchronized (this) {
+            finished = true;
+            this.complete = complete && samples != null;
+            if (holders == 0) {
+                orphan = samples;
+                samples = null;
+            }
+            notifyAll();
+        }
+        WaveformExtractor.closeQuietly(orphan);
+    }
+
+    /**
+     * @return true if every holder has released the track, so decoding it is wasted work
+     */
+    public synchronized boolean isAbandoned() {
+        return holders == 0;
+    }
+
+    /**
+     * Take another reference
+     * @return false if the track was already released by everyone, it must not be used then
+     */
+    public synchronized boolean retain() {
+        if (holders == 0) {
+            return false;
+        }
+        holders++;
+        return true;
+    }
+
+    /**
+     * Drop a reference, closing the store if it was the last and the decode has ended
+     */
+    public void release() {
+        SampleStore closing;
+        synchronized (this) {
+            if (--holders > 0 || !finished) {
+                return;
+            }
+            closing = samples;
+            samples = null;
+        }
+        WaveformExtractor.closeQuietly(closing);
+    }
+
+    /**
+     * @return true if the decode has ended with the whole track in the store
+     */
+    public synchronized boolean isComplete() {
+        return finished && complete;
+    }
+
+    /**
+     * @return The store, null until the decode has started
+     */
+    public synchronized SampleStore getSamples() {
+        return samples;
+    }
+
+    /**
+     * Wait until the store holds the given number of frames or the decode has ended.
+     * Call while holding a reference.
+     * @return Frames readable now, or -1 if the track could not be decoded
+     */
+    public synchronized long awaitFrames(long frames) throws InterruptedException {
+        while (!finished && (samples == null || samples.getFrameCount() < frames)) {
+            awaitedFrames = frames;
+            try {
+                wait();
+            } finally {
+                awaitedFrames = Long.MAX_VALUE;
+            }
+        }
+        if (finished && !complete) {
+            return -1;
+        }
+        return samples.getFrameCount();
+    }
+}
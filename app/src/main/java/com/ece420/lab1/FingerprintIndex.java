@@ -0,0 +1,289 @@
+package com.ece420.lab1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Landmark fingerprints of the library's tracks, for recognizing a recording that
+ * is imported again as a different file (another rip, container or bitrate),
+ * whose content hash does not match.
+ *
+ * Landmark hashes map to posting lists of (track, anchor time) in primitive
+ * arrays: an open-addressing table holds each hash's most recent posting, which
+ * links to the previous one. A query looks up its landmarks and votes for
+ * (track, time offset) pairs; the same recording puts most of its votes on one
+ * offset, within a time unit of jitter, while unrelated tracks spread theirs.
+ *
+ * Fingerprints are appended to a file as tracks are analyzed and read back when
+ * the index is opened. A torn last record from a crash is cut off then, so the
+ * next append follows the last complete one.
+ *
+ * File layout (big-endian), repeated per track:
+ *     long contentHash, int landmarkCount, long[landmarkCount] landmarks
+ *
+ * Thread-safe.
+ */
+public class FingerprintIndex {
+    // A match needs this many votes, and at least MIN_VOTE_FRACTION of the query's landmarks
+    private static final int MIN_VOTES = 20;
+    private static final float MIN_VOTE_FRACTION = 0.05f;
+    private static final int OFFSET_JITTER = 1;  // Time units
+    private static final int MAX_LANDMARKS = 1 << 16;
+
+    private static final int EMPTY = -1;
+
+    private final File file;
+
+    // Open addressing: landmark hash and the index of its newest posting
+    private int[] tableHashes;
+    private int[] tableHeads;
+    private int tableSize;
+
+    // Postings, chained newest to oldest per hash
+    private int[] postingTracks = new int[1024];
+    private int[] postingTimes = new int[1024];
+    private int[] postingNext = new int[1024];
+    private int postingCount;
+
+    private long[] trackHashes = new long[64];
+    private int trackCount;
+
+    /**
+     * A library track that a fingerprint matched
+     */
+    public static class Match {
+        private final long contentHash;
+        private final float offsetSeconds;
+        private final int votes;
+
+        Match(long contentHash, float offsetSeconds, int votes) {
+            this.contentHash = contentHash;
+            this.offsetSeconds = offsetSeconds;
+            this.votes = votes;
+        }
+
+        /**
+         * @return Content hash the matched track is stored under in the library
+         */
+        public long getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * @return Seconds to add to a time in the queried file to get the same audio in the matched one
+         */
+        public float getOffsetSeconds() {
+            return offsetSeconds;
+        }
+
+        public int getVotes() {
+            return votes;
+        }
+    }
+
+    private FingerprintIndex(File file) {
+        this.file = file;
+        tableHashes = new int[4096];
+        tableHeads = new int[4096];
+        Arrays.fill(tableHashes, EMPTY);
+    }
+
+    /**
+     * Open the index stored in a file, or an empty one if the file does not exist
+     */
+    public static FingerprintIndex open(File file) throws IOException {
+        FingerprintIndex index = new FingerprintIndex(file);
+        if (file.exists()) {
+            index.load();
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        long end = 0;  // Just past the last complete record
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                long contentHash = in.readLong();
+                int count = in.readInt();
+                if (count < 0 || count > MAX_LANDMARKS) {
+                    break;
+                }
+                long[] landmarks = new long[count];
+                for (int i = 0; i < count; i++) {
+                    landmarks[i] = in.readLong();
+                }
+                insert(contentHash, landmarks);
+                end += 12 + 8L * count;
+            }
+        } catch (EOFException e) {
+            // Torn last record
+        }
+
+        if (end < file.length()) {
+            // Drop the torn or corrupt tail, appending after it would hide every later record
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(end);
+            }
+        }
+    }
+
+    /**
+     * Index a track's fingerprint and append it to the file
+     */
+    public synchronized void add(long contentHash, long[] landmarks) throws IOException {
+        if (landmarks == null || landmarks.length == 0) {
+            return;
+        }
+        if (landmarks.length > MAX_LANDMARKS) {
+            landmarks = Arrays.copyOf(landmarks, MAX_LANDMARKS);
+        }
+        insert(contentHash, landmarks);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)))) {
+            out.writeLong(contentHash);
+            out.writeInt(landmarks.length);
+            for (long landmark : landmarks) {
+                out.writeLong(landmark);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return trackCount;
+    }
+
+    /**
+     * Find the indexed track a fingerprint most likely comes from
+     * @return The best match, or null if no track has enough votes
+     */
+    public synchronized Match find(long[] landmarks) {
+        if (landmarks == null || landmarks.length == 0 || trackCount == 0) {
+            return null;
+        }
+
+        // One vote per posting that shares a hash: track in the upper 32 bits, time offset in the lower
+        long[] votes = new long[Math.max(16, landmarks.length)];
+        int voteCount = 0;
+        for (long landmark : landmarks) {
+            int slot = find(Fingerprinter.hashOf(landmark));
+            if (tableHashes[slot] == EMPTY) {
+                continue;
+            }
+            int time = Fingerprinter.timeOf(landmark);
+            for (int p = tableHeads[slot]; p != EMPTY; p = postingNext[p]) {
+                if (voteCount == votes.length) {
+                    votes = Arrays.copyOf(votes, voteCount * 2);
+                }
+                votes[voteCount++] = (long) postingTracks[p] << 32 | toSortable(postingTimes[p] - time);
+            }
+        }
+        if (voteCount == 0) {
+            return null;
+        }
+
+        // Sorted, the votes of a track are adjacent and ordered by offset
+        Arrays.sort(votes, 0, voteCount);
+        int bestTrack = -1;
+        int bestOffset = 0;
+        int bestVotes = 0;
+        int windowStart = 0;
+        for (int i = 0; i < voteCount; i++) {
+            int track = (int) (votes[i] >>> 32);
+            int offset = fromSortable(votes[i]);
+            while ((int) (votes[windowStart] >>> 32) != track
+                    || fromSortable(votes[windowStart]) < offset - 2 * OFFSET_JITTER) {
+                windowStart++;
+            }
+            int count = i - windowStart + 1;
+            if (count > bestVotes) {
+                bestVotes = count;
+                bestTrack = track;
+                bestOffset = offset - OFFSET_JITTER;
+            }
+        }
+
+        int needed = Math.max(MIN_VOTES, (int) Math.ceil(landmarks.length * MIN_VOTE_FRACTION));
+        if (bestVotes < needed) {
+            return null;
+        }
+        return new Match(trackHashes[bestTrack], bestOffset * Fingerprinter.TIME_UNIT_SEC, bestVotes);
+    }
+
+    // Offsets with the sign bit flipped, so they sort as unsigned in the lower half of a long
+    private static long toSortable(int offset) {
+        return (offset ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+    }
+
+    private static int fromSortable(long vote) {
+        return (int) vote ^ Integer.MIN_VALUE;
+    }
+
+    private void insert(long contentHash, long[] landmarks) {
+        if (trackCount == trackHashes.length) {
+            trackHashes = Arrays.copyOf(trackHashes, trackCount * 2);
+        }
+        int track = trackCount;
+        trackHashes[trackCount++] = contentHash;
+
+        for (long landmark : landmarks) {
+            if (postingCount == postingTracks.length) {
+                int capacity = postingCount * 2;
+                postingTracks = Arrays.copyOf(postingTracks, capacity);
+                postingTimes = Arrays.copyOf(postingTimes, capacity);
+                postingNext = Arrays.copyOf(postingNext, capacity);
+            }
+            int hash = Fingerprinter.hashOf(landmark);
+            int slot = find(hash);
+            if (tableHashes[slot] == EMPTY) {
+                tableHashes[slot] = hash;
+                tableHeads[slot] = EMPTY;
+                tableSize++;
+            }
+            postingTracks[postingCount] = track;
+            postingTimes[postingCount] = Fingerprinter.timeOf(landmark);
+            postingNext[postingCount] = tableHeads[slot];
+            tableHeads[slot] = postingCount++;
+
+            if (tableSize * 2 > tableHashes.length) {
+                rehash();
+            }
+        }
+    }
+
+    /**
+     * @return Slot holding the hash, or the empty slot where it would go
+     */
+    private int find(int hash) {
+        int mask = tableHashes.length - 1;
+        int slot = (hash * 0x9E3779B9) >>> 1 & mask;
+        while (tableHashes[slot] != EMPTY && tableHashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int[] oldHashes = tableHashes;
+        int[] oldHeads = tableHeads;
+        tableHashes = new int[oldHashes.length * 2];
+        tableHeads = new int[oldHashes.length * 2];
+        Arrays.fill(tableHashes, EMPTY);
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != EMPTY) {
+                int slot = find(oldHashes[i]);
+                tableHashes[slot] = oldHashes[i];
+                tableHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+}
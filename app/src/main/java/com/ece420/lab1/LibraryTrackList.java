@@ -0,0 +1,101 @@
+package com.ece420.lab1;
+
+/**
+ * The activity's track list: every track in the library, in library order,
+ * followed by the import the engine is analyzing once its BPM is mixable.
+ *
+ * Library rows are read from TrackLibrary's columns by position, so the list
+ * holds no Track objects for them; one is materialized only when a track is
+ * selected. Positions never change, since the library is append-only and the
+ * engine saves the track it is analyzing as the next library row. Main thread only.
+ */
+public class LibraryTrackList implements TrackListAdapter.TrackSource {
+    private TrackLibrary library;  // Null until the library is opened
+    private int libraryCount;  // Library rows shown
+    private Track analyzing;  // Shown after the library rows while not yet saved
+
+    /**
+     * Show the first count rows of the opened library
+     */
+    public void setLibrary(TrackLibrary library, int count) {
+        this.library = library;
+        libraryCount = Math.max(libraryCount, count);
+    }
+
+    public TrackLibrary getLibrary() {
+        return library;
+    }
+
+    public int getLibraryCount() {
+        return library != null ? libraryCount : 0;
+    }
+
+    /**
+     * Show a track the engine is still analyzing after the library rows
+     */
+    public void setAnalyzing(Track track) {
+        analyzing = track;
+    }
+
+    /**
+     * @return The unsaved track shown last, or null
+     */
+    public Track getAnalyzing() {
+        return analyzing;
+    }
+
+    /**
+     * The engine saved a track as the given library row
+     */
+    public void onSaved(Track track, int libraryIndex) {
+        if (track == analyzing) {
+            analyzing = null;
+        }
+        libraryCount = Math.max(libraryCount, libraryIndex + 1);
+    }
+
+    /**
+     * @return Position of the track in the list, or -1
+     */
+    public int positionOf(Track track) {
+        return track == analyzing ? getLibraryCount() : -1;
+    }
+
+    /**
+     * @return Position of the track stored with this path, or -1
+     */
+    public int positionOf(String filePath) {
+        if (analyzing != null && analyzing.getFilePath().equals(filePath)) {
+            return getLibraryCount();
+        }
+        int index = library != null ? library.indexOfPath(filePath) : -1;
+        return index < libraryCount ? index : -1;
+    }
+
+    /**
+     * Materialize the track at a position, e.g. for loading it into the deck
+     */
+    public Track getTrack(int position) {
+        return position < getLibraryCount() ? library.getTrack(position) : analyzing;
+    }
+
+    @Override
+    public int size() {
+        return getLibraryCount() + (analyzing != null ? 1 : 0);
+    }
+
+    @Override
+    public String getName(int position) {
+        return position < getLibraryCount() ? library.getName(position) : analyzing.getName();
+    }
+
+    @Override
+    public float getBpm(int position) {
+        return position < getLibraryCount() ? library.getBpm(position) : analyzing.getBpm();
+    }
+
+    @Override
+    public int getKeyCode(int position) {
+        return position < getLibraryCount() ? library.getKeyCode(position) : analyzing.getKeyCode();
+    }
+}
@@ -0,0 +1,120 @@
+package com.ece420.lab1;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.TextView;
+
+import java.nio.ShortBuffer;
+import java.util.Locale;
+
+/**
+ * Beat pulse and live BPM readout driven by the audio the deck is playing.
+ *
+ * Runs a LiveOnsetDetector on the engine's PCM tap. The tap sees each block
+ * before it is written, so a beat is usually found before it is heard; its pulse
+ * is posted for the beat's presentation time less PULSE_LEAD_MS, so the frame
+ * that draws it starts at about the moment the beat leaves the speaker.
+ *
+ * The gap between a beat being heard and the vsync of the frame showing its pulse
+ * is measured with Choreographer and logged every LATENCY_REPORT_BEATS beats
+ * against the MAX_LATENCY_MS target.
+ */
+public class LiveBeatIndicator implements AudioPlayerManager.PcmTap, LiveOnsetDetector.Listener {
+    private static final String TAG = "LiveBeatIndicator";
+
+    // Half a 60 Hz frame, so the pulse lands on the vsync nearest the beat
+    private static final long PULSE_LEAD_MS = 8;
+    private static final long PULSE_DECAY_MS = 150;
+    private static final float PULSE_REST_ALPHA = 0.15f;
+
+    private static final long MAX_LATENCY_MS = 30;
+    private static final int LATENCY_REPORT_BEATS = 32;
+
+    private final View beatPulse;
+    private final TextView tvLiveBpm;
+    private final AudioPlayerManager player;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Playback thread only
+    private LiveOnsetDetector detector;
+    private int detectorSampleRate;
+    private int detectorChannelCount;
+    private volatile boolean resetPending;
+
+    // Main thread only
+    private int latencyCount;
+    private long latencySumNs;
+    private long latencyMaxNs;
+
+    public LiveBeatIndicator(View beatPulse, TextView tvLiveBpm, AudioPlayerManager player) {
+        this.beatPulse = beatPulse;
+        this.tvLiveBpm = tvLiveBpm;
+        this.player = player;
+        beatPulse.setAlpha(PULSE_REST_ALPHA);
+    }
+
+    @Override
+    public void onPcm(ShortBuffer pcm, int sampleRate, int channelCount, long outputFrame) {
+        if (detector == null || sampleRate != detectorSampleRate || channelCount != detectorChannelCount) {
+            detector = new LiveOnsetDetector(sampleRate, channelCount, this);
+            detectorSampleRate = sampleRate;
+            detectorChannelCount = channelCount;
+            resetPending = false;
+        } else if (resetPending) {
+            resetPending = false;
+            detector.reset();
+        }
+        detector.feed(pcm, outputFrame);
+    }
+
+    @Override
+    public void onDiscontinuity() {
+        // Called with the engine's lock held, possibly mid-block; reset on the next one
+        resetPending = true;
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    @Override
+    public void onOnset(long frame, float strength, boolean isBeat, float bpm) {
+        if (!isBeat) {
+            return;
+        }
+        long heardAtNs = player.getPresentationNanos(frame);
+        long delayMs = (heardAtNs - System.nanoTime()) / 1_000_000 - PULSE_LEAD_MS;
+        mainHandler.postDelayed(() -> showBeat(heardAtNs, bpm), Math.max(0, delayMs));
+    }
+
+    private void showBeat(long heardAtNs, float bpm) {
+        beatPulse.setAlpha(1.0f);
+        beatPulse.animate().alpha(PULSE_REST_ALPHA).setDuration(PULSE_DECAY_MS).start();
+        if (bpm > 0) {
+            tvLiveBpm.setText(String.format(Locale.ROOT, "%.1f", bpm));
+        }
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos -> recordLatency(frameTimeNanos - heardAtNs));
+    }
+
+    private void recordLatency(long latencyNs) {
+        latencyCount++;
+        latencySumNs += Math.abs(latencyNs);
+        latencyMaxNs = Math.max(latencyMaxNs, Math.abs(latencyNs));
+        if (latencyCount < LATENCY_REPORT_BEATS) {
+            return;
+        }
+
+        long meanMs = latencySumNs / latencyCount / 1_000_000;
+        long maxMs = latencyMaxNs / 1_000_000;
+        String report = "Beat pulse latency over " + latencyCount + " beats: mean " + meanMs
+            + " ms, max " + maxMs + " ms (target " + MAX_LATENCY_MS + " ms)";
+        if (meanMs > MAX_LATENCY_MS) {
+            Log.w(TAG, report);
+        } else {
+            Log.d(TAG, report);
+        }
+        latencyCount = 0;
+        latencySumNs = 0;
+        latencyMaxNs = 0;
+    }
+}
@@ -0,0 +1,229 @@
+package com.ece420.lab1;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Minimal MPEG audio Layer III frame header and side info parser.
+ * Works directly on a (memory-mapped) byte buffer without running the decoder.
+ *
+ * After a successful readHeader() the public fields describe that frame.
+ */
+public class Mp3FrameParser {
+    private static final int VERSION_25 = 0;
+    private static final int VERSION_2 = 2;
+    private static final int VERSION_1 = 3;
+    private static final int LAYER_3 = 1;
+
+    private static final int[] BITRATES_V1 = {
+        0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, -1
+    };
+    private static final int[] BITRATES_V2 = {
+        0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, -1
+    };
+    private static final int[] SAMPLE_RATES_V1 = {44100, 48000, 32000, -1};
+
+    // Fields of the last parsed header
+    public boolean mpeg1;
+    public int bitrateKbps;
+    public int sampleRate;
+    public int channels;
+    public int frameLength;
+    public int samplesPerFrame;
+    public int granules;
+    public int sideInfoOffset;
+
+    // Per granule/channel side info of the last parsed frame: part2_3_length, big_values, global_gain
+    public final int[] part23Length = new int[4];
+    public final int[] bigValues = new int[4];
+    public final int[] globalGain = new int[4];
+
+    /**
+     * Skip an ID3v2 tag at the start of the buffer.
+     * @return Offset of the first byte after the tag, or 0 if there is none
+     */
+    public static int skipId3v2(ByteBuffer buf) {
+        if (buf.limit() < 10 || buf.get(0) != 'I' || buf.get(1) != 'D' || buf.get(2) != '3') {
+            return 0;
+        }
+        int flags = buf.get(5) & 0xFF;
+        // Tag size is stored as a 28-bit syncsafe integer
+        int size = ((buf.get(6) & 0x7F) << 21) | ((buf.get(7) & 0x7F) << 14)
+            | ((buf.get(8) & 0x7F) << 7) | (buf.get(9) & 0x7F);
+        int end = 10 + size + ((flags & 0x10) != 0 ? 10 : 0);
+        return Math.min(end, buf.limit());
+    }
+
+    /**
+     * Parse the 4-byte frame header at pos.
+     * @return true if it is a valid Layer III header with a known frame length
+     */
+    public boolean readHeader(ByteBuffer buf, int pos) {
+        if (pos + 4 > buf.limit()) {
+            return false;
+        }
+        int b0 = buf.get(pos) & 0xFF;
+        int b1 = buf.get(pos + 1) & 0xFF;
+        int b2 = buf.get(pos + 2) & 0xFF;
+        int b3 = buf.get(pos + 3) & 0xFF;
+
+        if (b0 != 0xFF || (b1 & 0xE0) != 0xE0) {
+            return false;
+        }
+
+        int version = (b1 >> 3) & 0x3;
+        int layer = (b1 >> 1) & 0x3;
+        boolean crc = (b1 & 0x1) == 0;
+        int bitrateIndex = b2 >> 4;
+        int sampleRateIndex = (b2 >> 2) & 0x3;
+        int padding = (b2 >> 1) & 0x1;
+        int channelMode = b3 >> 6;
+
+        // Free-format bitrate (index 0) has no computable length and is not supported
+        if (version == 1 || layer != LAYER_3 || bitrateIndex == 0 || bitrateIndex == 15
+            || sampleRateIndex == 3) {
+            return false;
+        }
+
+        mpeg1 = version == VERSION_1;
+        bitrateKbps = mpeg1 ? BITRATES_V1[bitrateIndex] : BITRATES_V2[bitrateIndex];
+        sampleRate = SAMPLE_RATES_V1[sampleRateIndex];
+        if (version == VERSION_2) {
+            sampleRate /= 2;
+        } else if (version == VERSION_25) {
+            sampleRate /= 4;
+        }
+        channels = channelMode == 3 ? 1 : 2;
+        samplesPerFrame = mpeg1 ? 1152 : 576;
+        granules = mpeg1 ? 2 : 1;
+        frameLength = (mpeg1 ? 144000 : 72000) * bitrateKbps / sampleRate + padding;
+        sideInfoOffset = pos + 4 + (crc ? 2 : 0);
+        return frameLength > 4;
+    }
+
+    /**
+     * Find the next frame at or after pos. A header only counts if the following
+     * header is also valid (or the file ends), which rejects sync words inside audio data.
+     * @return Offset of the frame, or -1 if there are no more frames
+     */
+    public int findFrame(ByteBuffer buf, int pos) {
+        int limit = buf.limit();
+        while (pos + 4 <= limit) {
+            if (readHeader(buf, pos)) {
+                int next = pos + frameLength;
+                if (next + 4 > limit || readHeader(buf, next)) {
+                    // Parse again so the fields describe this frame, not the next one
+                    readHeader(buf, pos);
+                    return pos;
+                }
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the frame whose header was last parsed is a Xing, Info or VBRI
+     *     header, which carries no audio
+     */
+    public boolean isInfoFrame(ByteBuffer buf) {
+        int xing = sideInfoOffset + (mpeg1 ? (channels == 1 ? 17 : 32) : (channels == 1 ? 9 : 17));
+        int vbri = sideInfoOffset + 32;
+        return hasTag(buf, xing, "Xing") || hasTag(buf, xing, "Info") || hasTag(buf, vbri, "VBRI");
+    }
+
+    private static boolean hasTag(ByteBuffer buf, int pos, String tag) {
+        if (pos + 4 > buf.limit()) {
+            return false;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (buf.get(pos + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walk every frame of a (memory-mapped) MP3 file, resynchronizing over junk
+     * @return The file's frame index, or null if it has no MP3 frames
+     */
+    public static SeekTable buildSeekTable(ByteBuffer buf) {
+        Mp3FrameParser parser = new Mp3FrameParser();
+        int pos = parser.findFrame(buf, skipId3v2(buf));
+        if (pos >= 0 && parser.isInfoFrame(buf)) {
+            pos = parser.findFrame(buf, pos + parser.frameLength);
+        }
+        if (pos < 0) {
+            return null;
+        }
+        int sampleRate = parser.sampleRate;
+        int samplesPerFrame = parser.samplesPerFrame;
+
+        // Estimate the frame count from the first frame, grow if the file is VBR
+        int[] offsets = new int[Math.max(16, buf.limit() / parser.frameLength + 2)];
+        int frameCount = 0;
+        int end = pos;
+        while (pos >= 0) {
+            if (frameCount + 1 == offsets.length) {
+                int[] grown = new int[offsets.length * 2];
+                System.arraycopy(offsets, 0, grown, 0, frameCount);
+                offsets = grown;
+            }
+            offsets[frameCount++] = pos;
+            end = Math.min(pos + parser.frameLength, buf.limit());
+
+            int next = pos + parser.frameLength;
+            pos = parser.readHeader(buf, next) ? next : parser.findFrame(buf, next);
+        }
+        offsets[frameCount] = end;
+
+        int[] table = new int[frameCount + 1];
+        System.arraycopy(offsets, 0, table, 0, table.length);
+        return new SeekTable(sampleRate, samplesPerFrame, table);
+    }
+
+    /**
+     * Read part2_3_length, big_values and global_gain for every granule and channel
+     * of the frame whose header was last parsed.
+     * @return Number of granule/channel entries filled
+     */
+    public int readSideInfo(ByteBuffer buf) {
+        int sideInfoLength = mpeg1 ? (channels == 1 ? 17 : 32) : (channels == 1 ? 9 : 17);
+        if (sideInfoOffset + sideInfoLength > buf.limit()) {
+            return 0;
+        }
+
+        // Bits before the first granule: main_data_begin, private_bits and scfsi
+        int bit;
+        int granuleBits;
+        if (mpeg1) {
+            bit = 9 + (channels == 1 ? 5 : 3) + 4 * channels;
+            granuleBits = 59;
+        } else {
+            bit = 8 + (channels == 1 ? 1 : 2);
+            granuleBits = 63;
+        }
+
+        int entries = 0;
+        for (int gr = 0; gr < granules; gr++) {
+            for (int ch = 0; ch < channels; ch++) {
+                part23Length[entries] = readBits(buf, sideInfoOffset, bit, 12);
+                bigValues[entries] = readBits(buf, sideInfoOffset, bit + 12, 9);
+                globalGain[entries] = readBits(buf, sideInfoOffset, bit + 21, 8);
+                bit += granuleBits;
+                entries++;
+            }
+        }
+        return entries;
+    }
+
+    private static int readBits(ByteBuffer buf, int base, int bitOffset, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int bitIndex = bitOffset + i;
+            int b = buf.get(base + (bitIndex >> 3)) & 0xFF;
+            value = (value << 1) | ((b >> (7 - (bitIndex & 7))) & 1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,130 @@
+package com.ece420.lab1;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Instant waveform preview computed in the compressed domain.
+ *
+ * The MP3 file is memory-mapped and only frame headers and side info are parsed,
+ * no decoder is run. Each granule's global_gain sets its quantizer step size
+ * (1.5 dB per step) and the Huffman bits spent per spectral line grow with the
+ * quantized magnitudes, so together they give a coarse level per frame. The
+ * result is a rough envelope meant to be shown until the decoded waveform from
+ * WaveformExtractor replaces it.
+ *
+ * With the file's SeekTable the frames are read straight from their offsets,
+ * without searching for sync words.
+ */
+public class Mp3WaveformPreview {
+    // global_gain at which the quantizer step size is 1.0
+    private static final int GAIN_REFERENCE = 210;
+    private static final float DB_PER_GAIN_STEP = 1.5f;
+    // Amplitude grows with |q|^(4/3): ~8 dB per extra bit of magnitude
+    private static final float DB_PER_MAGNITUDE_BIT = 8.03f;
+    // Approximate Huffman overhead per line that carries no magnitude information
+    private static final float HUFFMAN_OVERHEAD_BITS = 1.5f;
+    // Levels further than this below the loudest frame are drawn as silence
+    private static final float DISPLAY_RANGE_DB = 48.0f;
+
+    /**
+     * Build a coarse amplitude envelope from MP3 frame data
+     * @param filePath Path to an MP3 file
+     * @param seekTable Frame index of the file, or null to find the frames
+     * @param targetPoints Number of envelope points to generate
+     * @return Envelope values in [0, 1], or null if the file has no MP3 frames
+     */
+    public static float[] generate(String filePath, SeekTable seekTable, int targetPoints) {
+        float[] frameLevels;
+        int frameCount;
+
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r");
+             FileChannel channel = file.getChannel()) {
+            long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            Mp3FrameParser parser = new Mp3FrameParser();
+            if (seekTable != null) {
+                frameLevels = new float[seekTable.getFrameCount()];
+                for (frameCount = 0; frameCount < frameLevels.length; frameCount++) {
+                    long offset = seekTable.getByteOffset(frameCount);
+                    if (offset >= size || !parser.readHeader(buf, (int) offset)) {
+                        break;  // The table does not describe this file
+                    }
+                    frameLevels[frameCount] = frameLevelDb(parser, parser.readSideInfo(buf));
+                }
+                return toEnvelope(frameLevels, frameCount, targetPoints);
+            }
+
+            int pos = parser.findFrame(buf, Mp3FrameParser.skipId3v2(buf));
+            if (pos < 0) {
+                return null;
+            }
+
+            // Estimate the frame count from the first frame, grow if the file is VBR
+            frameLevels = new float[Math.max(16, (int) (size / parser.frameLength) + 1)];
+            frameCount = 0;
+
+            while (pos >= 0) {
+                if (frameCount == frameLevels.length) {
+                    float[] grown = new float[frameLevels.length * 2];
+                    System.arraycopy(frameLevels, 0, grown, 0, frameCount);
+                    frameLevels = grown;
+                }
+                frameLevels[frameCount++] = frameLevelDb(parser, parser.readSideInfo(buf));
+
+                int next = pos + parser.frameLength;
+                pos = parser.readHeader(buf, next) ? next : parser.findFrame(buf, next);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return toEnvelope(frameLevels, frameCount, targetPoints);
+    }
+
+    private static float frameLevelDb(Mp3FrameParser parser, int entries) {
+        float level = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < entries; i++) {
+            int bits = parser.part23Length[i];
+            int lines = 2 * parser.bigValues[i];
+            if (bits == 0 || lines == 0) {
+                continue;  // Silent granule
+            }
+
+            float magnitudeBits = Math.max(0, bits / (float) lines - HUFFMAN_OVERHEAD_BITS);
+            float db = DB_PER_GAIN_STEP * (parser.globalGain[i] - GAIN_REFERENCE)
+                + DB_PER_MAGNITUDE_BIT * magnitudeBits;
+            level = Math.max(level, db);
+        }
+        return level;
+    }
+
+    private static float[] toEnvelope(float[] frameLevels, int frameCount, int targetPoints) {
+        if (frameCount == 0) {
+            return null;
+        }
+
+        float maxDb = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < frameCount; i++) {
+            maxDb = Math.max(maxDb, frameLevels[i]);
+        }
+
+        int points = Math.min(targetPoints, frameCount);
+        float[] envelope = new float[points];
+        if (maxDb == Float.NEGATIVE_INFINITY) {
+            return envelope;  // All frames silent
+        }
+        for (int i = 0; i < frameCount; i++) {
+            int point = (int) ((long) i * points / frameCount);
+            float relativeDb = frameLevels[i] - maxDb;
+            float value = relativeDb <= -DISPLAY_RANGE_DB ? 0 : 1.0f + relativeDb / DISPLAY_RANGE_DB;
+            if (value > envelope[point]) {
+                envelope[point] = value;
+            }
+        }
+        return envelope;
+    }
+}
@@ -0,0 +1,73 @@
+package com.ece420.lab1;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool of direct byte buffers used to hand decoded PCM between threads.
+ * Shared by all decoders so concurrent decodes reuse the same native memory.
+ * Idle buffers can be given back under memory pressure through a CacheManager.
+ */
+public class PcmBufferPool implements CacheManager.TrimmableCache {
+    private static final int MAX_POOLED = 32;
+    private static final int MIN_CAPACITY = 16 * 1024;
+
+    private static final PcmBufferPool shared = new PcmBufferPool();
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    public static PcmBufferPool getShared() {
+        return shared;
+    }
+
+    /**
+     * Get a cleared little-endian direct buffer with at least the given capacity
+     */
+    public synchronized ByteBuffer acquire(int capacity) {
+        Iterator<ByteBuffer> it = free.iterator();
+        while (it.hasNext()) {
+            ByteBuffer buffer = it.next();
+            if (buffer.capacity() >= capacity) {
+                it.remove();
+                buffer.clear();
+                return buffer;
+            }
+        }
+
+        // Round up so buffers can be reused across codecs with slightly different frame sizes
+        int size = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Return a buffer obtained from acquire()
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer != null && free.size() < MAX_POOLED) {
+            buffer.clear();
+            free.addLast(buffer);
+        }
+    }
+
+    @Override
+    public synchronized long getResidentBytes() {
+        long bytes = 0;
+        for (ByteBuffer buffer : free) {
+            bytes += buffer.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Drop idle buffers, the least recently returned first; buffers in use are not counted
+     */
+    @Override
+    public synchronized void trimTo(long maxBytes) {
+        long bytes = getResidentBytes();
+        while (bytes > maxBytes && !free.isEmpty()) {
+            bytes -= free.removeFirst().capacity();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.ece420.lab1;
+
+/**
+ * A stretch of a decoded track copied out of its SampleStore into a plain array,
+ * so the playback thread can play it without touching the store, whose pages may
+ * have to come back from flash first. Hot cues keep the audio right after the cue
+ * point in one, a loop its whole body.
+ *
+ * The array is kept when the region is refilled with no more frames than it
+ * holds. Never refill a region the player may be playing.
+ */
+public class PcmRegion {
+    private short[] pcm = new short[0];
+    private long startFrame;
+    private int frameCount;
+    private int channelCount;
+
+    /**
+     * Copy frames out of the store, fewer if it ends first
+     */
+    public void fill(SampleStore samples, long startFrame, int frameCount) {
+        channelCount = samples.getChannelCount();
+        if (pcm.length < frameCount * channelCount) {
+            pcm = new short[frameCount * channelCount];
+        }
+        this.startFrame = startFrame;
+        this.frameCount = samples.read(startFrame, pcm, 0, frameCount);
+    }
+
+    /**
+     * @return Interleaved samples, valid for the first getFrameCount() frames
+     */
+    public short[] getPcm() {
+        return pcm;
+    }
+
+    /**
+     * @return Frame of the track the region starts at
+     */
+    public long getStartFrame() {
+        return startFrame;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * @return Size of the backing array, which outlives refills with fewer frames
+     */
+    public long getCapacityBytes() {
+        return 2L * pcm.length;
+    }
+
+    /**
+     * Drop the audio and its array. Never release a region the player may be playing.
+     */
+    public void release() {
+        pcm = new short[0];
+        frameCount = 0;
+    }
+}
@@ -0,0 +1,122 @@
+package com.ece420.lab1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The deck as it was left: the loaded track with what the UI shows about it, the
+ * playback position, the waveform and the search query. A few KB, written on
+ * pause and read first thing on a cold start, so the previous session is on screen
+ * before the library is open or anything is decoded.
+ *
+ * File layout (big-endian):
+ * <pre>
+ *     int magic, int version
+ *     UTF name, UTF filePath, float bpm, int keyCode, float beatOffsetSeconds, float gainDb, int durationMs
+ *     long positionFrame
+ *     UTF query
+ *     waveform, see Waveform.write()
+ * </pre>
+ */
+public class SessionSnapshot {
+    private static final int MAGIC = 0x53455331;  // "SES1"
+    private static final int VERSION = 3;
+
+    private final Track track;
+    private final long positionFrame;
+    private final String query;
+    private final Waveform waveform;
+
+    /**
+     * @param track Track loaded in the deck
+     * @param positionFrame Frame the deck was at
+     * @param query Search query, empty for none
+     * @param waveform Waveform shown for the track, may be null
+     */
+    public SessionSnapshot(Track track, long positionFrame, String query, Waveform waveform) {
+        this.track = track;
+        this.positionFrame = positionFrame;
+        this.query = query;
+        this.waveform = waveform;
+    }
+
+    /**
+     * @return A Track rebuilt from the snapshot; features are not kept, the library has them
+     */
+    public Track getTrack() {
+        return track;
+    }
+
+    public long getPositionFrame() {
+        return positionFrame;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return The waveform, or null if none was stored
+     */
+    public Waveform getWaveform() {
+        return waveform;
+    }
+
+    /**
+     * Write the snapshot, replacing the file only once it is complete
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(track.getName());
+            out.writeUTF(track.getFilePath());
+            out.writeFloat(track.getBpm());
+            out.writeInt(track.getKeyCode());
+            out.writeFloat(track.getBeatOffsetSeconds());
+            out.writeFloat(track.getGainDb());
+            out.writeInt(track.getDurationMs());
+            out.writeLong(positionFrame);
+            out.writeUTF(query);
+            Waveform.write(out, waveform);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot write session snapshot: " + file);
+        }
+    }
+
+    /**
+     * @return The stored snapshot, or null if there is none or it is unreadable
+     */
+    public static SessionSnapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            Track track = new Track(in.readUTF(), in.readUTF(), in.readFloat());
+            track.setKeyCode(in.readInt());
+            track.setBeatOffsetSeconds(in.readFloat());
+            track.setGainDb(in.readFloat());
+            track.setDurationMs(in.readInt());
+            long positionFrame = in.readLong();
+            String query = in.readUTF();
+            Waveform waveform = Waveform.read(in);
+            return new SessionSnapshot(track, positionFrame, query, waveform);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
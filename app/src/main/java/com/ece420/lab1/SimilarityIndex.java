@@ -0,0 +1,246 @@
+package com.ece420.lab1;
+
+import java.util.Arrays;
+
+/**
+ * Approximate nearest-neighbour index over track feature vectors.
+ *
+ * Vectors live in one flat row-major float[] indexed by track position. The
+ * index is an inverted file (IVF): k-means splits the vectors into about
+ * sqrt(n) clusters and a query only scans the members of the NPROBE clusters
+ * whose centroids are closest, so top-k over 100k tracks touches a few
+ * thousand vectors instead of all of them. Tracks added after training are
+ * assigned to their nearest centroid; the clusters are retrained once the
+ * index has doubled in size.
+ *
+ * Not thread-safe; callers confine the index to a single thread.
+ */
+public class SimilarityIndex {
+    private static final int DIM = FeatureExtractor.DIMENSIONS;
+    private static final int NPROBE = 8;
+    private static final int KMEANS_ITERATIONS = 8;
+    private static final int MAX_TRAINING_SAMPLES = 16384;
+    private static final int MAX_CLUSTERS = 1024;
+
+    // Vectors by track position; positions without features are not indexed
+    private float[] vectors = new float[64 * DIM];
+    private boolean[] present = new boolean[64];
+    private int[] assignment = new int[64];
+    private int capacity = 64;
+    private int indexedCount;
+
+    // Inverted lists, one per centroid
+    private float[] centroids = new float[0];
+    private int clusterCount;
+    private int[][] lists = new int[0][];
+    private int[] listSizes = new int[0];
+    private int trainedCount;
+
+    /**
+     * Rebuild the index from a row-major feature matrix
+     * @param present Which positions have a feature vector
+     */
+    public void rebuild(float[] featureMatrix, boolean[] present, int trackCount) {
+        ensureCapacity(trackCount);
+        Arrays.fill(this.present, false);
+        System.arraycopy(featureMatrix, 0, vectors, 0, trackCount * DIM);
+        System.arraycopy(present, 0, this.present, 0, trackCount);
+        indexedCount = 0;
+        for (int i = 0; i < trackCount; i++) {
+            if (present[i]) {
+                indexedCount++;
+            }
+        }
+        train();
+    }
+
+    /**
+     * Insert or replace the feature vector of a track
+     */
+    public void put(int position, float[] vector) {
+        ensureCapacity(position + 1);
+        if (present[position]) {
+            removeFromList(position);
+        } else {
+            indexedCount++;
+        }
+        System.arraycopy(vector, 0, vectors, position * DIM, DIM);
+        present[position] = true;
+
+        if (clusterCount == 0 || indexedCount >= 2 * trainedCount) {
+            train();
+        } else {
+            addToList(nearestCentroid(vectors, position * DIM), position);
+        }
+    }
+
+    public int size() {
+        return indexedCount;
+    }
+
+    /**
+     * Find the tracks closest to a feature vector
+     * @param excludePosition Track position to leave out of the results, or -1
+     * @param results Receives up to results.length positions, nearest first
+     * @return Number of results written
+     */
+    public int query(float[] vector, int excludePosition, int[] results) {
+        int k = results.length;
+        if (k == 0 || clusterCount == 0) {
+            return 0;
+        }
+
+        // Pick the NPROBE closest clusters
+        int probes = Math.min(NPROBE, clusterCount);
+        int[] probeClusters = new int[probes];
+        float[] probeDistances = new float[probes];
+        int probeCount = 0;
+        for (int c = 0; c < clusterCount; c++) {
+            probeCount = insertTopK(probeClusters, probeDistances, probeCount,
+                c, distance(vector, 0, centroids, c * DIM));
+        }
+
+        // Scan their members, keeping the k nearest in a sorted array
+        float[] distances = new float[k];
+        int found = 0;
+        for (int p = 0; p < probeCount; p++) {
+            int cluster = probeClusters[p];
+            int[] members = lists[cluster];
+            for (int m = 0; m < listSizes[cluster]; m++) {
+                int position = members[m];
+                if (position == excludePosition) {
+                    continue;
+                }
+                found = insertTopK(results, distances, found,
+                    position, distance(vector, 0, vectors, position * DIM));
+            }
+        }
+        return found;
+    }
+
+    // Insert into ids/distances sorted ascending by distance, keeping at most ids.length entries
+    private static int insertTopK(int[] ids, float[] distances, int size, int id, float distance) {
+        if (size == ids.length && distance >= distances[size - 1]) {
+            return size;
+        }
+        int i = size == ids.length ? size - 1 : size;
+        while (i > 0 && distances[i - 1] > distance) {
+            ids[i] = ids[i - 1];
+            distances[i] = distances[i - 1];
+            i--;
+        }
+        ids[i] = id;
+        distances[i] = distance;
+        return size == ids.length ? size : size + 1;
+    }
+
+    private void train() {
+        int[] positions = new int[indexedCount];
+        int n = 0;
+        for (int i = 0; i < capacity && n < indexedCount; i++) {
+            if (present[i]) {
+                positions[n++] = i;
+            }
+        }
+        trainedCount = n;
+        clusterCount = n == 0 ? 0 : Math.min(MAX_CLUSTERS, Math.max(1, (int) Math.sqrt(n)));
+        centroids = new float[clusterCount * DIM];
+        lists = new int[clusterCount][];
+        listSizes = new int[clusterCount];
+        if (n == 0) {
+            return;
+        }
+
+        // Seed centroids with evenly spaced vectors, then run k-means on a sample
+        for (int c = 0; c < clusterCount; c++) {
+            System.arraycopy(vectors, positions[(int) ((long) c * n / clusterCount)] * DIM, centroids, c * DIM, DIM);
+        }
+        int sampleStep = Math.max(1, n / MAX_TRAINING_SAMPLES);
+        float[] sums = new float[clusterCount * DIM];
+        int[] counts = new int[clusterCount];
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            for (int s = 0; s < n; s += sampleStep) {
+                int offset = positions[s] * DIM;
+                int c = nearestCentroid(vectors, offset);
+                for (int d = 0; d < DIM; d++) {
+                    sums[c * DIM + d] += vectors[offset + d];
+                }
+                counts[c]++;
+            }
+            for (int c = 0; c < clusterCount; c++) {
+                if (counts[c] == 0) {
+                    continue;  // Keep an empty cluster's centroid where it was
+                }
+                for (int d = 0; d < DIM; d++) {
+                    centroids[c * DIM + d] = sums[c * DIM + d] / counts[c];
+                }
+            }
+        }
+
+        // Assign every vector to its cluster
+        int initialListSize = Math.max(4, 2 * n / clusterCount);
+        for (int c = 0; c < clusterCount; c++) {
+            lists[c] = new int[initialListSize];
+        }
+        for (int i = 0; i < n; i++) {
+            addToList(nearestCentroid(vectors, positions[i] * DIM), positions[i]);
+        }
+    }
+
+    private int nearestCentroid(float[] source, int offset) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < clusterCount; c++) {
+            float d = distance(source, offset, centroids, c * DIM);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // Squared Euclidean distance between two DIM-long rows
+    private static float distance(float[] a, int offsetA, float[] b, int offsetB) {
+        float sum = 0;
+        for (int d = 0; d < DIM; d++) {
+            float diff = a[offsetA + d] - b[offsetB + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private void addToList(int cluster, int position) {
+        if (listSizes[cluster] == lists[cluster].length) {
+            lists[cluster] = Arrays.copyOf(lists[cluster], Math.max(4, lists[cluster].length * 2));
+        }
+        lists[cluster][listSizes[cluster]++] = position;
+        assignment[position] = cluster;
+    }
+
+    private void removeFromList(int position) {
+        int cluster = assignment[position];
+        if (cluster >= clusterCount) {
+            return;
+        }
+        int[] members = lists[cluster];
+        for (int i = 0; i < listSizes[cluster]; i++) {
+            if (members[i] == position) {
+                members[i] = members[--listSizes[cluster]];
+                return;
+            }
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= capacity) {
+            return;
+        }
+        capacity = Math.max(needed, capacity * 2);
+        vectors = Arrays.copyOf(vectors, capacity * DIM);
+        present = Arrays.copyOf(present, capacity);
+        assignment = Arrays.copyOf(assignment, capacity);
+    }
+}
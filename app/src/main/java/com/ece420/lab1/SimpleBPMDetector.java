@@ -1,357 +1,260 @@
 package com.ece420.lab1;
 
-import android.media.MediaCodec;
-import android.media.MediaExtractor;
-import android.media.MediaFormat;
 import android.util.Log;
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Decodes audio files and runs the analysis pass over them.
+ *
+ * One TrackAnalysis is reset for every file, so a detector analyzes one file at a
+ * time, and after the first track its stages reuse their scratch arrays.
+ */
 public class SimpleBPMDetector {
     private static final String TAG = "SimpleBPMDetector";
 
-    // Constants matching the Python implementation
-    private static final int HOP_LENGTH = 512;
-    private static final int MIN_BPM = 160;
-    private static final int MAX_BPM = 190;
-    private static final int WINDOW_SIZE = 16;  // For moving average
-    private static final int MAX_HARMONICS = 8;  // Check up to 8 harmonics
-
-    // Helper class for lag-score pairs
-    private static class LagScore implements Comparable<LagScore> {
-        int lag;
-        float score;
-
-        LagScore(int lag, float score) {
-            this.lag = lag;
-            this.score = score;
-        }
-
-        @Override
-        public int compareTo(LagScore other) {
-            return Float.compare(other.score, this.score);  // Descending order
-        }
+    // Limit to first 30 seconds for BPM detection
+    private static final float ANALYSIS_BUDGET_SEC = TrackAnalysis.DEFAULT_BUDGET_SEC;
+
+    // Audio a pass over a growing store waits for before it feeds again
+    private static final float FEED_STEP_SEC = 0.5f;
+
+    /**
+     * Decides, once the opening of a track is fingerprinted, whether the rest of its
+     * analysis is needed. Called on the analyzing thread.
+     */
+    public interface DuplicateCheck {
+        /**
+         * @param landmarks Fingerprint of the opening, see Fingerprinter
+         * @return true to stop the analysis, e.g. because the track is already known
+         */
+        boolean isDuplicate(long[] landmarks);
     }
 
+    // Returned by runAnalysisPass() when the duplicate check stopped it
+    private static final AnalysisResult DUPLICATE = new AnalysisResult(0, 0, KeyDetector.UNKNOWN_KEY, 0, 0,
+        null, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, null);
+
+    // Reused across files, created for the first one
+    private TrackAnalysis analysis;
+
     public SimpleBPMDetector() {
         // Constructor
     }
 
     public float detectBPM(String filePath) {
-        Log.d(TAG, "Detecting BPM for: " + filePath);
-
-        try {
-            // Step 1: Decode audio file to PCM
-            float[] audioSamples = decodeAudioFile(filePath);
-            if (audioSamples == null || audioSamples.length == 0) {
-                Log.e(TAG, "Failed to decode audio");
-                return 175.0f;  // Default
-            }
-
-            // Step 2: Compute onset strength
-            float[] onsetStrength = computeOnsetStrength(audioSamples, 44100);
-
-            // Step 3: Apply half-wave rectification
-            float[] onsetHWR = halfWaveRectify(onsetStrength);
-
-            // Step 4: Compute autocorrelation
-            float[] autocorr = computeAutocorrelation(onsetHWR);
-
-            // Step 5: Find best tempo using multi-harmonic scoring
-            float bpm = findBestTempo(autocorr, 44100);
+        return detectBPM(filePath, null);
+    }
 
-            Log.d(TAG, "Detected BPM: " + bpm);
-            return bpm;
+    /**
+     * Detect BPM, publishing provisional estimates while the file is decoded.
+     * @param filePath Path to the audio file
+     * @param listener Receives provisional and final estimates on the calling thread, may be null
+     * @return Final BPM estimate
+     */
+    public float detectBPM(String filePath, BPMSession.Listener listener) {
+        return analyze(filePath, listener).getBpm();
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Error detecting BPM", e);
-            return 175.0f;  // Default fallback
-        }
+    /**
+     * Run one analysis pass over the file. BPM, key and similarity features share the
+     * decoded, downmixed frames and their FFT, so they cost no extra decode; loudness
+     * keeps reading to the end of the file once they are done.
+     * @param filePath Path to the audio file
+     * @param listener Receives provisional and final BPM estimates on the calling thread, may be null
+     */
+    public AnalysisResult analyze(String filePath, BPMSession.Listener listener) {
+        return analyze(filePath, listener, null);
     }
 
-    private float[] decodeAudioFile(String filePath) {
-        MediaExtractor extractor = new MediaExtractor();
-        MediaCodec decoder = null;
-        List<Float> allSamples = new ArrayList<>();
+    /**
+     * Run one analysis pass, stopping early if the fingerprint of the opening turns
+     * out to be a duplicate
+     * @param duplicateCheck Consulted once when the fingerprint is complete, may be null
+     * @return The result, or null if duplicateCheck stopped the analysis
+     */
+    public synchronized AnalysisResult analyze(String filePath, BPMSession.Listener listener,
+                                               DuplicateCheck duplicateCheck) {
+        Log.d(TAG, "Analyzing: " + filePath);
 
         try {
-            extractor.setDataSource(filePath);
-
-            // Find audio track
-            int audioTrackIndex = -1;
-            for (int i = 0; i < extractor.getTrackCount(); i++) {
-                MediaFormat format = extractor.getTrackFormat(i);
-                String mime = format.getString(MediaFormat.KEY_MIME);
-                if (mime != null && mime.startsWith("audio/")) {
-                    audioTrackIndex = i;
-                    break;
-                }
-            }
-
-            if (audioTrackIndex == -1) {
-                Log.e(TAG, "No audio track found");
+            AnalysisResult result = runAnalysisPass(filePath, listener, duplicateCheck);
+            if (result == DUPLICATE) {
+                Log.d(TAG, "Stopped analysis of a duplicate");
                 return null;
             }
-
-            extractor.selectTrack(audioTrackIndex);
-            MediaFormat format = extractor.getTrackFormat(audioTrackIndex);
-            String mime = format.getString(MediaFormat.KEY_MIME);
-
-            // Create decoder
-            decoder = MediaCodec.createDecoderByType(mime);
-            decoder.configure(format, null, null, 0);
-            decoder.start();
-
-            // Decode audio
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            boolean isEOS = false;
-            long timeoutUs = 10000;
-
-            // Limit to first 30 seconds for BPM detection
-            long maxDurationUs = 30_000_000;  // 30 seconds in microseconds
-
-            while (!isEOS) {
-                // Input
-                int inputIndex = decoder.dequeueInputBuffer(timeoutUs);
-                if (inputIndex >= 0) {
-                    ByteBuffer inputBuffer = decoder.getInputBuffer(inputIndex);
-                    int sampleSize = extractor.readSampleData(inputBuffer, 0);
-
-                    if (sampleSize < 0) {
-                        decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                        isEOS = true;
-                    } else {
-                        long presentationTimeUs = extractor.getSampleTime();
-                        if (presentationTimeUs > maxDurationUs) {
-                            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                            isEOS = true;
-                        } else {
-                            decoder.queueInputBuffer(inputIndex, 0, sampleSize, presentationTimeUs, 0);
-                            extractor.advance();
-                        }
-                    }
-                }
-
-                // Output
-                int outputIndex = decoder.dequeueOutputBuffer(info, timeoutUs);
-                while (outputIndex >= 0) {
-                    ByteBuffer outputBuffer = decoder.getOutputBuffer(outputIndex);
-
-                    // Convert to float samples
-                    if (outputBuffer != null && info.size > 0) {
-                        outputBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                        outputBuffer.rewind();
-
-                        // Assuming 16-bit PCM
-                        ShortBuffer shortBuffer = outputBuffer.asShortBuffer();
-                        while (shortBuffer.hasRemaining()) {
-                            short sample = shortBuffer.get();
-                            float normalizedSample = sample / 32768.0f;
-                            allSamples.add(normalizedSample);
-                        }
-                    }
-
-                    decoder.releaseOutputBuffer(outputIndex, false);
-
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        isEOS = true;
-                        break;
-                    }
-
-                    outputIndex = decoder.dequeueOutputBuffer(info, timeoutUs);
-                }
+            if (result == null) {
+                Log.e(TAG, "Failed to decode audio");
+                return defaultResult(listener);
             }
 
-        } catch (IOException e) {
-            Log.e(TAG, "Error decoding audio", e);
-            return null;
-        } finally {
-            if (decoder != null) {
-                decoder.stop();
-                decoder.release();
-            }
-            extractor.release();
-        }
+            Log.d(TAG, "Detected BPM: " + result.getBpm() + " (confidence " + result.getBpmConfidence()
+                + ", " + result.getAnalyzedSeconds() + "s analyzed), key "
+                + KeyDetector.toCamelot(result.getKeyCode()) + ", loudness " + result.getIntegratedLoudness()
+                + " LUFS, true peak " + result.getTruePeakDb() + " dBTP");
+            return result;
 
-        // Convert to array
-        float[] samples = new float[allSamples.size()];
-        for (int i = 0; i < allSamples.size(); i++) {
-            samples[i] = allSamples.get(i);
+        } catch (Exception e) {
+            Log.e(TAG, "Error detecting BPM", e);
+            return defaultResult(listener);  // Default fallback
         }
-
-        Log.d(TAG, "Decoded " + samples.length + " samples");
-        return samples;
     }
 
-    private float[] computeOnsetStrength(float[] audio, int sampleRate) {
-        // Simple onset strength using energy (RMS) in frames
-        int frameSize = 2048;
-        int hopSize = HOP_LENGTH;
-        int numFrames = (audio.length - frameSize) / hopSize + 1;
-
-        float[] onsetStrength = new float[numFrames];
-
-        for (int i = 0; i < numFrames; i++) {
-            int start = i * hopSize;
-            int end = Math.min(start + frameSize, audio.length);
-
-            // Calculate RMS energy
-            float sum = 0;
-            for (int j = start; j < end; j++) {
-                sum += audio[j] * audio[j];
-            }
-            onsetStrength[i] = (float) Math.sqrt(sum / (end - start));
+    /**
+     * Run one analysis pass over a track the deck is decoding. While the decode runs
+     * the pass is fed from the growing store, so provisional estimates and the
+     * duplicate check come as early as they would decoding the file here; a track
+     * that is already fully decoded goes through analyze(SampleStore, ...) instead.
+     * Decodes the file itself if the shared decode fails.
+     * @param decode The deck's decode, the caller holds a reference to it
+     * @param listener Receives provisional and final BPM estimates on the calling thread, may be null
+     * @param duplicateCheck Consulted once when the fingerprint is complete, may be null
+     * @return The result, or null if duplicateCheck stopped the analysis
+     */
+    public synchronized AnalysisResult analyze(DecodedTrack decode, BPMSession.Listener listener,
+                                               DuplicateCheck duplicateCheck) throws InterruptedException {
+        if (decode.isComplete()) {
+            return analyze(decode.getSamples(), listener, duplicateCheck);
         }
 
-        return onsetStrength;
-    }
-
-    private float[] halfWaveRectify(float[] onset) {
-        // Apply moving average
-        float[] onsetMean = movingAverage(onset, WINDOW_SIZE);
-
-        // Half-wave rectification: max(0, onset - mean)
-        float[] onsetHWR = new float[onset.length];
-        for (int i = 0; i < onset.length; i++) {
-            onsetHWR[i] = Math.max(0, onset[i] - onsetMean[i]);
+        Log.d(TAG, "Analyzing " + decode.getFilePath() + " while it is decoded");
+        AnalysisResult result = runAnalysisPass(decode, listener, duplicateCheck);
+        if (result == DUPLICATE) {
+            Log.d(TAG, "Stopped analysis of a duplicate");
+            return null;
         }
-
-        return onsetHWR;
+        if (result == null) {
+            Log.w(TAG, "Shared decode failed, decoding " + decode.getFilePath() + " again");
+            return analyze(decode.getFilePath(), listener, duplicateCheck);
+        }
+        Log.d(TAG, "Detected BPM: " + result.getBpm() + " (confidence " + result.getBpmConfidence()
+            + ", " + result.getAnalyzedSeconds() + "s analyzed)");
+        return result;
     }
 
-    private float[] movingAverage(float[] signal, int windowSize) {
-        float[] averaged = new float[signal.length];
-
-        for (int i = 0; i < signal.length; i++) {
-            int start = Math.max(0, i - windowSize / 2);
-            int end = Math.min(signal.length, i + windowSize / 2 + 1);
-
-            float sum = 0;
-            for (int j = start; j < end; j++) {
-                sum += signal[j];
-            }
-            averaged[i] = sum / (end - start);
+    /**
+     * Run one analysis pass over a track that is already decoded, e.g. by the deck.
+     * The tempo is analyzed across the common ForkJoinPool, see TrackAnalysis.analyze(),
+     * so the fingerprint is only checked for a duplicate once the pass is done.
+     * @param samples The whole track
+     * @param listener Receives provisional and final BPM estimates on the calling thread, may be null
+     * @param duplicateCheck Consulted with the track's fingerprint, may be null
+     * @return The result, or null if duplicateCheck found a duplicate
+     */
+    public AnalysisResult analyze(SampleStore samples, BPMSession.Listener listener,
+                                  DuplicateCheck duplicateCheck) {
+        Log.d(TAG, "Analyzing " + samples.getDurationSeconds() + " s of decoded audio");
+        AnalysisResult result = TrackAnalysis.analyze(samples, ANALYSIS_BUDGET_SEC, listener,
+            ForkJoinPool.commonPool());
+        if (duplicateCheck != null && duplicateCheck.isDuplicate(result.getLandmarks())) {
+            Log.d(TAG, "Analyzed a duplicate");
+            return null;
         }
-
-        return averaged;
+        return result;
     }
 
-    private float[] computeAutocorrelation(float[] signal) {
-        // Compute autocorrelation for all lags up to signal length
-        int maxLag = Math.min(signal.length, 1000);  // Limit for performance
-        float[] autocorr = new float[maxLag];
-
-        for (int lag = 0; lag < maxLag; lag++) {
-            float sum = 0;
-            int count = 0;
-
-            for (int i = 0; i < signal.length - lag; i++) {
-                sum += signal[i] * signal[i + lag];
-                count++;
-            }
+    /**
+     * Start an incremental session for callers that decode PCM themselves.
+     * Feed it interleaved 16-bit blocks as they are decoded and call finish() at the end.
+     */
+    public BPMSession newSession(int sampleRate, int channelCount, BPMSession.Listener listener) {
+        return new BPMSession(sampleRate, channelCount, ANALYSIS_BUDGET_SEC, listener);
+    }
 
-            if (count > 0) {
-                autocorr[lag] = sum / count;
-            }
+    private AnalysisResult defaultResult(BPMSession.Listener listener) {
+        if (listener != null) {
+            listener.onTempoEstimate(BPMSession.DEFAULT_BPM, 0, true);
         }
-
-        return autocorr;
+        return new AnalysisResult(BPMSession.DEFAULT_BPM, 0, KeyDetector.UNKNOWN_KEY, 0, 0, null,
+            Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, null);
     }
 
-    private float findBestTempo(float[] autocorr, int sampleRate) {
-        // Calculate lag range for 160-190 BPM
-        int minLag = (int) ((60.0f / MAX_BPM) * sampleRate / HOP_LENGTH);  // ~29
-        int maxLag = (int) ((60.0f / MIN_BPM) * sampleRate / HOP_LENGTH);  // ~34
+    private AnalysisResult runAnalysisPass(String filePath, BPMSession.Listener listener,
+                                           DuplicateCheck duplicateCheck) {
+        // The whole file is decoded for loudness; BPM, key and features stop within the budget
+        AudioDecoder decoder = new AudioDecoder(filePath);
+        boolean started = false;
 
-        // Make sure lags are within bounds
-        minLag = Math.max(1, minLag);
-        maxLag = Math.min(autocorr.length - 1, maxLag);
+        try {
+            if (!decoder.start()) {
+                return null;
+            }
 
-        List<LagScore> candidates = new ArrayList<>();
+            // Analyze each block while the codec thread decodes the next ones
+            AudioDecoder.PcmBlock block;
+            while ((block = decoder.take()) != null) {
+                if (!started) {
+                    startPass(block.getSampleRate(), block.getChannelCount(), listener);
+                    started = true;
+                }
 
-        // Score each candidate lag using multi-harmonic approach
-        for (int lag = minLag; lag <= maxLag; lag++) {
-            float score = 0;
-            int count = 0;
+                analysis.feed(block.asShortBuffer());
+                decoder.recycle(block);
 
-            // Check harmonics (matching Python implementation)
-            for (int i = 1; i <= MAX_HARMONICS; i++) {
-                int harmonicLag = i * lag;
-                if (harmonicLag < autocorr.length) {
-                    score += autocorr[harmonicLag];
-                    count++;
+                if (duplicateCheck != null && analysis.isFingerprintComplete()) {
+                    if (duplicateCheck.isDuplicate(analysis.getLandmarks())) {
+                        return DUPLICATE;
+                    }
+                    duplicateCheck = null;  // Asked once
                 }
             }
 
-            if (count > 0) {
-                score = score / count;
+            if (decoder.hasFailed()) {
+                Log.e(TAG, "Decoder failed for " + filePath);
             }
 
-            candidates.add(new LagScore(lag, score));
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while decoding audio", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            decoder.release();
         }
 
-        // Sort candidates by score
-        Collections.sort(candidates);
+        return started ? analysis.finish() : null;
+    }
 
-        if (candidates.isEmpty()) {
-            return 175.0f;  // Default
-        }
+    /**
+     * Feed the pass from a store as the deck's decode appends to it
+     * @return The result, DUPLICATE, or null if the decode failed
+     */
+    private AnalysisResult runAnalysisPass(DecodedTrack decode, BPMSession.Listener listener,
+                                           DuplicateCheck duplicateCheck) throws InterruptedException {
+        long fed = 0;
+        long step = 1;  // Until the format is known
+        while (true) {
+            long available = decode.awaitFrames(fed + step);
+            if (available < 0) {
+                return null;
+            }
+            SampleStore samples = decode.getSamples();
+            if (fed == 0) {
+                startPass(samples.getSampleRate(), samples.getChannelCount(), listener);
+                step = Math.max(1, (long) (samples.getSampleRate() * FEED_STEP_SEC));
+            }
 
-        // Get best lag
-        int bestLag = candidates.get(0).lag;
-
-        // Convert lag to BPM
-        float tempo = 60.0f / (bestLag * HOP_LENGTH / (float) sampleRate);
-
-        // Check for half-time detection (matching Python logic)
-        if (tempo < 100 && candidates.size() > 1) {
-            // Try doubling the tempo
-            float doubleTempo = tempo * 2;
-            if (doubleTempo >= MIN_BPM && doubleTempo <= MAX_BPM) {
-                int halfLag = bestLag / 2;
-
-                // Check if half-lag has good score
-                for (LagScore candidate : candidates) {
-                    if (Math.abs(candidate.lag - halfLag) <= 1) {
-                        // Compare scores
-                        if (candidate.score > candidates.get(0).score * 0.4f) {
-                            tempo = doubleTempo;
-                            break;
-                        }
-                    }
-                }
+            for (ShortBuffer block : samples.blocks(fed, available)) {
+                analysis.feed(block);
             }
-        }
+            fed = available;
 
-        // Check for double-time detection
-        if (tempo > 185 && candidates.size() > 1) {
-            // Try halving the tempo
-            float halfTempo = tempo / 2;
-            if (halfTempo >= 80 && halfTempo <= 95) {
-                int doubleLag = bestLag * 2;
-
-                // Check if double-lag has good score
-                for (LagScore candidate : candidates) {
-                    if (Math.abs(candidate.lag - doubleLag) <= 1) {
-                        // Compare scores
-                        if (candidate.score > candidates.get(0).score * 0.8f) {
-                            tempo = halfTempo * 2;  // Keep in 160-190 range
-                            break;
-                        }
-                    }
+            if (duplicateCheck != null && analysis.isFingerprintComplete()) {
+                if (duplicateCheck.isDuplicate(analysis.getLandmarks())) {
+                    return DUPLICATE;
                 }
+                duplicateCheck = null;  // Asked once
+            }
+            if (decode.isComplete() && fed == samples.getFrameCount()) {
+                return analysis.finish();
             }
         }
+    }
 
-        // Clamp to expected range
-        tempo = Math.max(MIN_BPM, Math.min(MAX_BPM, tempo));
-
-        return tempo;
+    private void startPass(int sampleRate, int channelCount, BPMSession.Listener listener) {
+        if (analysis == null) {
+            analysis = new TrackAnalysis(sampleRate, channelCount, ANALYSIS_BUDGET_SEC, listener);
+        } else {
+            analysis.reset(sampleRate, channelCount, ANALYSIS_BUDGET_SEC, listener);
+        }
     }
 }
\ No newline at end of file
@@ -4,6 +4,11 @@ public class Track {
     private String name;
     private String filePath;
     private float bpm;
+    private float beatOffsetSeconds;
+    private float gainDb;
+    private int durationMs;
+    private int keyCode = KeyDetector.UNKNOWN_KEY;
+    private float[] features;
 
     public Track(String name, String filePath, float bpm) {
         this.name = name;
@@ -22,4 +27,57 @@ public class Track {
     public float getBpm() {
         return bpm;
     }
+
+    public void setBpm(float bpm) {
+        this.bpm = bpm;
+    }
+
+    /**
+     * @return Time of the first beat; with the BPM it gives the beat grid cues and loops snap to
+     */
+    public float getBeatOffsetSeconds() {
+        return beatOffsetSeconds;
+    }
+
+    public void setBeatOffsetSeconds(float beatOffsetSeconds) {
+        this.beatOffsetSeconds = beatOffsetSeconds;
+    }
+
+    /**
+     * @return Playback gain in dB that levels the track with the rest of the library
+     */
+    public float getGainDb() {
+        return gainDb;
+    }
+
+    public void setGainDb(float gainDb) {
+        this.gainDb = gainDb;
+    }
+
+    public int getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(int durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public int getKeyCode() {
+        return keyCode;
+    }
+
+    public void setKeyCode(int keyCode) {
+        this.keyCode = keyCode;
+    }
+
+    /**
+     * @return Similarity feature vector, or null if the track has not been analyzed for it
+     */
+    public float[] getFeatures() {
+        return features;
+    }
+
+    public void setFeatures(float[] features) {
+        this.features = features;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,375 @@
+package com.ece420.lab1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Persistent track library stored in a single append-only file.
+ *
+ * File layout:
+ * <pre>
+ *     header:  int magic, int version, int fixedSize, int reserved
+ *     record:  int recordLength
+ *              fixed part (fixedSize bytes): float bpm, int durationMs, long contentHash, int keyCode,
+ *                                            float[FeatureExtractor.DIMENSIONS] features, float beatOffsetSeconds,
+ *                                            float gainDb
+ *              short nameLength, UTF-8 name, short pathLength, UTF-8 path
+ * </pre>
+ * String lengths are unsigned; names are cut to fit and longer paths are rejected.
+ *
+ * Opening maps the file and scans the record headers once into columnar primitive
+ * arrays. Strings are not decoded up front: the mapped file acts as the string table
+ * and names and paths are read from it on demand, so a 100k-track library costs a
+ * few MB of heap. New tracks are appended to the end of the file, so importing
+ * never rewrites what is already stored.
+ */
+public class TrackLibrary {
+    private static final int MAGIC = 0x544C4942;  // "TLIB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    // Fixed part of a record
+    private static final int OFFSET_BPM = 0;
+    private static final int OFFSET_DURATION = 4;
+    private static final int OFFSET_HASH = 8;
+    private static final int OFFSET_KEY = 16;
+    private static final int OFFSET_FEATURES = 20;
+    private static final int OFFSET_BEAT_OFFSET = OFFSET_FEATURES + 4 * FeatureExtractor.DIMENSIONS;
+    private static final int OFFSET_GAIN = OFFSET_BEAT_OFFSET + 4;
+    private static final int FIXED_SIZE = OFFSET_GAIN + 4;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+
+    // Columnar metadata, one entry per track
+    private int count;
+    private int[] recordOffset = new int[0];
+    private float[] bpm = new float[0];
+    private int[] durationMs = new int[0];
+    private long[] contentHash = new long[0];
+    private int[] keyCode = new int[0];
+    // Row-major feature matrix, FeatureExtractor.DIMENSIONS floats per track
+    private float[] features = new float[0];
+    private float[] beatOffsetSeconds = new float[0];
+    private float[] gainDb = new float[0];
+
+    private TrackLibrary(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the library file, creating it if it does not exist yet
+     */
+    public static TrackLibrary open(File file) throws IOException {
+        TrackLibrary library = new TrackLibrary(file);
+        library.load();
+        return library;
+    }
+
+    private void load() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+
+        if (channel.size() < HEADER_SIZE) {
+            writeHeader();
+        }
+        remap();
+
+        if (mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a track library: " + file);
+        }
+        int version = mapped.getInt(4);
+        int fixedSize = mapped.getInt(8);
+        if (version != VERSION || fixedSize != FIXED_SIZE) {
+            throw new IOException("Unsupported library version " + version + ", record layout " + fixedSize);
+        }
+
+        // Count records first so every column is allocated exactly once
+        int limit = mapped.limit();
+        int records = 0;
+        int pos = HEADER_SIZE;
+        while (pos + 4 <= limit) {
+            int length = mapped.getInt(pos);
+            if (length < FIXED_SIZE + 4 || pos + 4 + length > limit) {
+                // Truncated tail from an interrupted append - drop it
+                channel.truncate(pos);
+                remap();
+                break;
+            }
+            records++;
+            pos += 4 + length;
+        }
+        ensureCapacity(records);
+
+        pos = HEADER_SIZE;
+        for (int i = 0; i < records; i++) {
+            readColumns(count++, pos);
+            pos += 4 + mapped.getInt(pos);
+        }
+    }
+
+    private void readColumns(int index, int offset) {
+        int fixed = offset + 4;
+        recordOffset[index] = offset;
+        bpm[index] = mapped.getFloat(fixed + OFFSET_BPM);
+        durationMs[index] = mapped.getInt(fixed + OFFSET_DURATION);
+        contentHash[index] = mapped.getLong(fixed + OFFSET_HASH);
+        keyCode[index] = mapped.getInt(fixed + OFFSET_KEY);
+        for (int d = 0; d < FeatureExtractor.DIMENSIONS; d++) {
+            features[index * FeatureExtractor.DIMENSIONS + d] = mapped.getFloat(fixed + OFFSET_FEATURES + 4 * d);
+        }
+        beatOffsetSeconds[index] = mapped.getFloat(fixed + OFFSET_BEAT_OFFSET);
+        gainDb[index] = mapped.getFloat(fixed + OFFSET_GAIN);
+    }
+
+    /**
+     * Append a track and return its index. A name longer than the layout allows is cut
+     * to fit, its stored copy then differs from the Track's.
+     * @throws IOException If writing fails or the path is too long to store
+     */
+    public synchronized int append(Track track, long hash) throws IOException {
+        byte[] name = clampUtf8(track.getName().getBytes(StandardCharsets.UTF_8), MAX_STRING_BYTES);
+        byte[] path = track.getFilePath().getBytes(StandardCharsets.UTF_8);
+        if (path.length > MAX_STRING_BYTES) {
+            throw new IOException("Path too long for the track library: " + path.length + " bytes");
+        }
+        int length = FIXED_SIZE + 2 + name.length + 2 + path.length;
+
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        record.putInt(length);
+        record.putFloat(track.getBpm());
+        record.putInt(track.getDurationMs());
+        record.putLong(hash);
+        record.putInt(track.getKeyCode());
+        float[] trackFeatures = track.getFeatures();
+        for (int d = 0; d < FeatureExtractor.DIMENSIONS; d++) {
+            record.putFloat(trackFeatures != null ? trackFeatures[d] : 0);
+        }
+        record.putFloat(track.getBeatOffsetSeconds());
+        record.putFloat(track.getGainDb());
+        record.putShort((short) name.length).put(name);
+        record.putShort((short) path.length).put(path);
+        record.flip();
+
+        int offset = (int) channel.size();
+        channel.write(record, offset);
+        remap();
+
+        ensureCapacity(count + 1);
+        readColumns(count, offset);
+        return count++;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized float getBpm(int index) {
+        return bpm[index];
+    }
+
+    public synchronized int getDurationMs(int index) {
+        return durationMs[index];
+    }
+
+    public synchronized long getContentHash(int index) {
+        return contentHash[index];
+    }
+
+    public synchronized int getKeyCode(int index) {
+        return keyCode[index];
+    }
+
+    public synchronized float getBeatOffsetSeconds(int index) {
+        return beatOffsetSeconds[index];
+    }
+
+    public synchronized float getGainDb(int index) {
+        return gainDb[index];
+    }
+
+    /**
+     * @return Copy of the track's feature vector, or null if it was stored without one
+     */
+    public synchronized float[] getFeatures(int index) {
+        int start = index * FeatureExtractor.DIMENSIONS;
+        for (int d = 0; d < FeatureExtractor.DIMENSIONS; d++) {
+            if (features[start + d] != 0) {
+                float[] vector = new float[FeatureExtractor.DIMENSIONS];
+                System.arraycopy(features, start, vector, 0, FeatureExtractor.DIMENSIONS);
+                return vector;
+            }
+        }
+        return null;
+    }
+
+    public synchronized String getName(int index) {
+        return readString(recordOffset[index] + 4 + FIXED_SIZE);
+    }
+
+    public synchronized String getFilePath(int index) {
+        int nameOffset = recordOffset[index] + 4 + FIXED_SIZE;
+        return readString(nameOffset + 2 + (mapped.getShort(nameOffset) & 0xFFFF));
+    }
+
+    /**
+     * Materialize a Track object for the given index
+     */
+    public synchronized Track getTrack(int index) {
+        Track track = new Track(getName(index), getFilePath(index), bpm[index]);
+        track.setDurationMs(durationMs[index]);
+        track.setKeyCode(keyCode[index]);
+        track.setFeatures(getFeatures(index));
+        track.setBeatOffsetSeconds(beatOffsetSeconds[index]);
+        track.setGainDb(gainDb[index]);
+        return track;
+    }
+
+    /**
+     * Copy the BPM and key columns of the first count tracks
+     */
+    public synchronized void copyTempoColumns(int count, float[] bpmOut, int[] keyCodeOut) {
+        System.arraycopy(bpm, 0, bpmOut, 0, count);
+        System.arraycopy(keyCode, 0, keyCodeOut, 0, count);
+    }
+
+    /**
+     * Copy the feature matrix of the first count tracks, row-major
+     * @param present Set to whether each track was stored with a feature vector
+     */
+    public synchronized void copyFeatures(int count, float[] matrix, boolean[] present) {
+        int dimensions = FeatureExtractor.DIMENSIONS;
+        System.arraycopy(features, 0, matrix, 0, count * dimensions);
+        for (int i = 0; i < count; i++) {
+            present[i] = false;
+            for (int d = 0; d < dimensions; d++) {
+                if (features[i * dimensions + d] != 0) {
+                    present[i] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Index of the track stored with this file path, or -1. Compares the
+     * encoded bytes, so no path is decoded.
+     */
+    public synchronized int indexOfPath(String filePath) {
+        byte[] target = filePath.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < count; i++) {
+            int nameOffset = recordOffset[i] + 4 + FIXED_SIZE;
+            int pathOffset = nameOffset + 2 + (mapped.getShort(nameOffset) & 0xFFFF);
+            if ((mapped.getShort(pathOffset) & 0xFFFF) != target.length) {
+                continue;
+            }
+            int k = 0;
+            while (k < target.length && mapped.get(pathOffset + 2 + k) == target[k]) {
+                k++;
+            }
+            if (k == target.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Index of the track with this content hash, or -1
+     */
+    public synchronized int indexOfHash(long hash) {
+        for (int i = 0; i < count; i++) {
+            if (contentHash[i] == hash) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized void close() throws IOException {
+        mapped = null;
+        channel.close();
+        raf.close();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(FIXED_SIZE).putInt(0);
+        header.flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+    }
+
+    private void remap() throws IOException {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    private String readString(int offset) {
+        int length = mapped.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = mapped.duplicate();
+        view.position(offset + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The bytes cut to at most maxBytes without splitting a UTF-8 sequence
+     */
+    private static byte[] clampUtf8(byte[] bytes, int maxBytes) {
+        if (bytes.length <= maxBytes) {
+            return bytes;
+        }
+        int end = maxBytes;
+        // Back up over continuation bytes to the start of the sequence that does not fit
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        byte[] clamped = new byte[end];
+        System.arraycopy(bytes, 0, clamped, 0, end);
+        return clamped;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= recordOffset.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, recordOffset.length * 3 / 2 + 16);
+        recordOffset = grow(recordOffset, newCapacity);
+        durationMs = grow(durationMs, newCapacity);
+        keyCode = grow(keyCode, newCapacity);
+
+        float[] newBpm = new float[newCapacity];
+        System.arraycopy(bpm, 0, newBpm, 0, count);
+        bpm = newBpm;
+
+        float[] newBeatOffsets = new float[newCapacity];
+        System.arraycopy(beatOffsetSeconds, 0, newBeatOffsets, 0, count);
+        beatOffsetSeconds = newBeatOffsets;
+        float[] newGains = new float[newCapacity];
+        System.arraycopy(gainDb, 0, newGains, 0, count);
+        gainDb = newGains;
+
+        long[] newHash = new long[newCapacity];
+        System.arraycopy(contentHash, 0, newHash, 0, count);
+        contentHash = newHash;
+
+        float[] newFeatures = new float[newCapacity * FeatureExtractor.DIMENSIONS];
+        System.arraycopy(features, 0, newFeatures, 0, count * FeatureExtractor.DIMENSIONS);
+        features = newFeatures;
+    }
+
+    private int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, count);
+        return grown;
+    }
+}
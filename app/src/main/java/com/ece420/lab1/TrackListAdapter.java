@@ -0,0 +1,269 @@
+package com.ece420.lab1;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RecyclerView adapter over the activity's track list.
+ *
+ * The adapter is given track positions to show, either every track or the
+ * results of a BPM query, and only materializes rows for the pages scrolled so
+ * far. Each row is an immutable snapshot of the fields it displays, read from
+ * the TrackSource by position, with its label text formatted once on first
+ * bind and cached. An update keeps the rows of the last list and only reads
+ * the source for rows it adds or for the one track refresh() names, so the main
+ * thread never walks a deeply scrolled list. Updates go through an
+ * AsyncListDiffer, so the diff runs on a background thread and only rows whose
+ * snapshot changed are rebound.
+ */
+public class TrackListAdapter extends RecyclerView.Adapter<TrackListAdapter.RowHolder> {
+    private static final int PAGE_SIZE = 200;
+    // Load the next page once the last visible row is this close to the end
+    private static final int PREFETCH_DISTANCE = 50;
+
+    public interface OnTrackClickListener {
+        void onTrackClick(int trackPosition);
+    }
+
+    /**
+     * The fields rows show, by track position. A position keeps its track for
+     * the source's lifetime; fields may change in place.
+     */
+    public interface TrackSource {
+        int size();
+
+        String getName(int position);
+
+        float getBpm(int position);
+
+        int getKeyCode(int position);
+    }
+
+    /**
+     * What one row shows, captured when the row list is built
+     */
+    static final class Row {
+        final int trackPosition;
+        final String name;
+        final float bpm;
+        final int keyCode;
+        private String info;
+
+        Row(TrackSource tracks, int trackPosition, float bpm, int keyCode) {
+            this.trackPosition = trackPosition;
+            this.name = tracks.getName(trackPosition);
+            this.bpm = bpm;
+            this.keyCode = keyCode;
+        }
+
+        boolean matches(float bpm, int keyCode) {
+            return this.bpm == bpm && this.keyCode == keyCode;
+        }
+
+        String getInfo() {
+            if (info == null) {
+                // Avoid String.format on the bind path
+                int tenths = Math.round(bpm * 10);
+                StringBuilder text = new StringBuilder(16)
+                    .append(tenths / 10).append('.').append(tenths % 10).append(" BPM");
+                String key = KeyDetector.toCamelot(keyCode);
+                if (key != null) {
+                    text.append("  ").append(key);
+                }
+                info = text.toString();
+            }
+            return info;
+        }
+    }
+
+    static final class RowHolder extends RecyclerView.ViewHolder {
+        final TextView tvName;
+        final TextView tvInfo;
+
+        RowHolder(View itemView) {
+            super(itemView);
+            tvName = itemView.findViewById(R.id.tvTrackName);
+            tvInfo = itemView.findViewById(R.id.tvTrackInfo);
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<Row> ROW_DIFF = new DiffUtil.ItemCallback<Row>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Row oldRow, @NonNull Row newRow) {
+            return oldRow.trackPosition == newRow.trackPosition;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Row oldRow, @NonNull Row newRow) {
+            return oldRow == newRow || oldRow.name.equals(newRow.name) && oldRow.matches(newRow.bpm, newRow.keyCode);
+        }
+    };
+
+    private final TrackSource tracks;
+    private final OnTrackClickListener clickListener;
+    private final AsyncListDiffer<Row> differ;
+
+    // Track positions to show; null means every track in order
+    private int[] positions;
+    private int positionCount;
+    private int loadedCount;
+
+    // The last list submitted, never modified once submitted
+    private List<Row> rows = new ArrayList<>();
+
+    private final RecyclerView.OnScrollListener pager = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+            if (!(layoutManager instanceof LinearLayoutManager)) {
+                return;
+            }
+            int lastVisible = ((LinearLayoutManager) layoutManager).findLastVisibleItemPosition();
+            if (lastVisible >= loadedCount - PREFETCH_DISTANCE && loadedCount < positionCount) {
+                loadedCount = Math.min(positionCount, loadedCount + PAGE_SIZE);
+                publish(rows.size());
+            }
+        }
+    };
+
+    public TrackListAdapter(TrackSource tracks, OnTrackClickListener clickListener) {
+        this.tracks = tracks;
+        this.clickListener = clickListener;
+        this.differ = new AsyncListDiffer<>(this, ROW_DIFF);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show every track in list order. Rows already shown are kept, since a position
+     * keeps its track; call refresh() for one whose fields changed.
+     */
+    public void showAll() {
+        int keep = positions == null ? rows.size() : 0;
+        positions = null;
+        positionCount = tracks.size();
+        loadedCount = Math.min(positionCount, Math.max(loadedCount, PAGE_SIZE));
+        publish(keep);
+    }
+
+    /**
+     * Show the given track positions. The adapter reads the first count entries
+     * now and whenever another page is loaded, so the caller must only append to
+     * the array until the next call; passing the same array again keeps the rows
+     * already built from it.
+     */
+    public void showPositions(int[] trackPositions, int count) {
+        int keep = trackPositions == positions ? rows.size() : 0;
+        positions = trackPositions;
+        positionCount = count;
+        loadedCount = Math.min(positionCount, Math.max(loadedCount, PAGE_SIZE));
+        publish(keep);
+    }
+
+    /**
+     * Rebuild the row of a track whose fields changed in place, if it is loaded
+     */
+    public void refresh(int trackPosition) {
+        int index = -1;
+        if (positions == null) {
+            index = trackPosition < rows.size() ? trackPosition : -1;
+        } else {
+            for (int i = 0; i < rows.size() && index < 0; i++) {
+                index = positions[i] == trackPosition ? i : -1;
+            }
+        }
+        if (index < 0) {
+            return;  // Read when its page is loaded
+        }
+        List<Row> next = new ArrayList<>(rows);
+        next.set(index, newRow(trackPosition));
+        submit(next);
+    }
+
+    /**
+     * Rebuild every row with the next update, e.g. because positions now name other tracks
+     */
+    public void invalidate() {
+        rows = new ArrayList<>();
+    }
+
+    /**
+     * Go back to showing only the first page, e.g. before a new query streams in
+     */
+    public void resetPaging() {
+        loadedCount = 0;
+    }
+
+    /**
+     * Submit the loaded rows, reusing the first keep rows of the last list
+     */
+    private void publish(int keep) {
+        keep = Math.min(keep, Math.min(rows.size(), loadedCount));
+        List<Row> next = new ArrayList<>(loadedCount);
+        next.addAll(rows.subList(0, keep));
+        for (int i = keep; i < loadedCount; i++) {
+            next.add(newRow(positions == null ? i : positions[i]));
+        }
+        submit(next);
+    }
+
+    private Row newRow(int trackPosition) {
+        return new Row(tracks, trackPosition, tracks.getBpm(trackPosition), tracks.getKeyCode(trackPosition));
+    }
+
+    private void submit(List<Row> next) {
+        rows = next;
+        differ.submitList(next);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(pager);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(pager);
+    }
+
+    @NonNull
+    @Override
+    public RowHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_track, parent, false);
+        RowHolder holder = new RowHolder(view);
+        view.setOnClickListener(v -> {
+            int adapterPosition = holder.getBindingAdapterPosition();
+            if (adapterPosition != RecyclerView.NO_POSITION) {
+                clickListener.onTrackClick(differ.getCurrentList().get(adapterPosition).trackPosition);
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RowHolder holder, int position) {
+        Row row = differ.getCurrentList().get(position);
+        holder.tvName.setText(row.name);
+        holder.tvInfo.setText(row.getInfo());
+    }
+
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).trackPosition;
+    }
+}
@@ -0,0 +1,170 @@
+package com.ece420.lab1;
+
+import java.util.Arrays;
+
+/**
+ * BPM range index over the track list built on sorted primitive arrays.
+ *
+ * Tracks are kept sorted by BPM in two parallel arrays, so a range query is a
+ * binary search for the lower bound followed by a linear walk over the k
+ * matches: O(log n + k). Half- and double-time matches are answered as two more
+ * ranges around bpm / 2 and bpm * 2. Each track's key is kept alongside so a
+ * harmonic key filter is applied during the same walk.
+ *
+ * Not thread-safe; callers confine the index to a single thread.
+ */
+public class TrackQueryIndex {
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Receives query results in chunks of track positions. Each chunk array is
+     * handed over to the sink and not touched by the index again.
+     */
+    public interface ResultSink {
+        /**
+         * @return false to stop the query early
+         */
+        boolean onResults(int[] positions, int count);
+    }
+
+    private float[] sortedBpm = new float[64];
+    private int[] sortedPositions = new int[64];
+    private int[] sortedKeys = new int[64];
+    private int count;
+
+    /**
+     * Rebuild the index from BPM values and key codes indexed by track position
+     */
+    public void rebuild(float[] bpms, int[] keyCodes, int trackCount) {
+        // Sort (bpm, position) pairs packed into longs to avoid boxing.
+        // Positive floats order the same as their raw int bits.
+        long[] packed = new long[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            packed[i] = ((long) Float.floatToIntBits(Math.max(0, bpms[i])) << 32) | i;
+        }
+        Arrays.sort(packed);
+
+        ensureCapacity(trackCount);
+        for (int i = 0; i < trackCount; i++) {
+            sortedBpm[i] = Float.intBitsToFloat((int) (packed[i] >>> 32));
+            sortedPositions[i] = (int) packed[i];
+            sortedKeys[i] = keyCodes[sortedPositions[i]];
+        }
+        count = trackCount;
+    }
+
+    /**
+     * Insert a track, or move it if its BPM or key changed
+     */
+    public void put(int position, float bpm, int keyCode) {
+        remove(position);
+
+        ensureCapacity(count + 1);
+        int insertAt = lowerBound(bpm);
+        System.arraycopy(sortedBpm, insertAt, sortedBpm, insertAt + 1, count - insertAt);
+        System.arraycopy(sortedPositions, insertAt, sortedPositions, insertAt + 1, count - insertAt);
+        System.arraycopy(sortedKeys, insertAt, sortedKeys, insertAt + 1, count - insertAt);
+        sortedBpm[insertAt] = bpm;
+        sortedPositions[insertAt] = position;
+        sortedKeys[insertAt] = keyCode;
+        count++;
+    }
+
+    private void remove(int position) {
+        for (int i = 0; i < count; i++) {
+            if (sortedPositions[i] == position) {
+                System.arraycopy(sortedBpm, i + 1, sortedBpm, i, count - i - 1);
+                System.arraycopy(sortedPositions, i + 1, sortedPositions, i, count - i - 1);
+                System.arraycopy(sortedKeys, i + 1, sortedKeys, i, count - i - 1);
+                count--;
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Find tracks within +/- tolerancePercent of targetBpm, streaming positions
+     * to the sink in BPM order of each range.
+     * @param includeHalfDouble Also match tracks around half and double the target
+     * @param compatibleKey Only match tracks harmonically compatible with this key code,
+     *                      or KeyDetector.UNKNOWN_KEY for any key
+     * @return Number of results delivered
+     */
+    public int query(float targetBpm, float tolerancePercent, boolean includeHalfDouble,
+                     int compatibleKey, ResultSink sink) {
+        boolean filterKey = compatibleKey != KeyDetector.UNKNOWN_KEY;
+        float factor = tolerancePercent / 100.0f;
+
+        // Up to three ranges, ordered and clipped so no track is reported twice
+        float[] lows = new float[3];
+        float[] highs = new float[3];
+        int ranges = 0;
+        float[] centers = includeHalfDouble
+            ? new float[]{targetBpm / 2, targetBpm, targetBpm * 2}
+            : new float[]{targetBpm};
+        for (float center : centers) {
+            float low = center * (1 - factor);
+            float high = center * (1 + factor);
+            if (ranges > 0 && low <= highs[ranges - 1]) {
+                highs[ranges - 1] = Math.max(highs[ranges - 1], high);
+            } else {
+                lows[ranges] = low;
+                highs[ranges] = high;
+                ranges++;
+            }
+        }
+
+        int[] chunk = new int[CHUNK_SIZE];
+        int filled = 0;
+        int delivered = 0;
+        for (int r = 0; r < ranges; r++) {
+            for (int i = lowerBound(lows[r]); i < count && sortedBpm[i] <= highs[r]; i++) {
+                if (filterKey && !KeyDetector.isCompatible(compatibleKey, sortedKeys[i])) {
+                    continue;
+                }
+                chunk[filled++] = sortedPositions[i];
+                if (filled == CHUNK_SIZE) {
+                    delivered += filled;
+                    if (!sink.onResults(chunk, filled)) {
+                        return delivered;
+                    }
+                    chunk = new int[CHUNK_SIZE];
+                    filled = 0;
+                }
+            }
+        }
+        if (filled > 0) {
+            delivered += filled;
+            sink.onResults(chunk, filled);
+        }
+        return delivered;
+    }
+
+    private int lowerBound(float bpm) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedBpm[mid] < bpm) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= sortedBpm.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, sortedBpm.length * 2);
+        sortedBpm = Arrays.copyOf(sortedBpm, newCapacity);
+        sortedPositions = Arrays.copyOf(sortedPositions, newCapacity);
+        sortedKeys = Arrays.copyOf(sortedKeys, newCapacity);
+    }
+}
@@ -0,0 +1,54 @@
+package com.ece420.lab1;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently shown waveforms by audio file path, least recently used dropped first.
+ * Going back to a track shows its waveform at once instead of waiting for the
+ * preview and the full decode. Trimmed through its CacheManager. Thread-safe.
+ */
+public class WaveformCache implements CacheManager.TrimmableCache {
+    private final CacheManager cacheManager;
+    private final LinkedHashMap<String, Waveform> waveforms = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+
+    public WaveformCache(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * @return The waveform stored for the file, or null
+     */
+    public synchronized Waveform get(String filePath) {
+        return waveforms.get(filePath);
+    }
+
+    public void put(String filePath, Waveform waveform) {
+        synchronized (this) {
+            Waveform previous = waveforms.put(filePath, waveform);
+            residentBytes += sizeOf(waveform) - (previous != null ? sizeOf(previous) : 0);
+        }
+        cacheManager.enforceBudget(this);
+    }
+
+    @Override
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    @Override
+    public synchronized void trimTo(long maxBytes) {
+        // Access order: the eldest entry is the least recently used
+        Iterator<Map.Entry<String, Waveform>> it = waveforms.entrySet().iterator();
+        while (residentBytes > maxBytes && it.hasNext()) {
+            residentBytes -= sizeOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private static long sizeOf(Waveform waveform) {
+        return waveform.getSizeBytes();
+    }
+}
@@ -9,18 +9,22 @@ import android.view.View;
 
 /**
  * Custom view for displaying audio waveform similar to Ringdroid/Logic Pro
- * Displays vertical bars representing audio amplitude over time
+ * Displays vertical bars from the smallest to the largest sample over time, colored
+ * by their band energies when the waveform has them: red for lows, green for mids,
+ * blue for highs
  */
 public class WaveformView extends View {
     private static final String TAG = "WaveformView";
 
     // Waveform data
-    private float[] waveformData;
+    private Waveform waveform;
+    private int[] pointColors;  // Bar color per data point, null for plain waveformColor bars
 
     // Paint objects for drawing
     private Paint waveformPaint;
     private Paint centerLinePaint;
     private Paint backgroundPaint;
+    private final RectF barRect = new RectF();
 
     // Colors
     private int waveformColor = 0xFF4CAF50;  // Green
@@ -68,19 +72,50 @@ public class WaveformView extends View {
 
     /**
      * Set the waveform data to display
-     * @param data Array of normalized amplitude values (-1.0 to 1.0)
+     * @param data Array of normalized amplitude values (0 to 1), drawn symmetrically
      */
     public void setWaveformData(float[] data) {
-        this.waveformData = data;
-        android.util.Log.d(TAG, "setWaveformData called with " + (data != null ? data.length : 0) + " points");
+        setWaveform(Waveform.fromEnvelope(data));
+    }
+
+    /**
+     * Set the waveform to display, colored by its band energies if it has them
+     */
+    public void setWaveform(Waveform waveform) {
+        this.waveform = waveform;
+        // Colors are worked out once here, so drawing a colored bar only costs a setColor()
+        this.pointColors = waveform.hasBands() ? bandColors(waveform) : null;
+        waveformPaint.setColor(waveformColor);
+        android.util.Log.d(TAG, "setWaveform called with " + waveform.getPointCount() + " points");
         invalidate();  // Trigger redraw
     }
 
+    /**
+     * Mix each point's low, mid and high energies into red, green and blue, scaled so
+     * the strongest band is at full brightness
+     */
+    private int[] bandColors(Waveform waveform) {
+        int[] colors = new int[waveform.getPointCount()];
+        for (int i = 0; i < colors.length; i++) {
+            int low = waveform.getBand(i, 0);
+            int mid = waveform.getBand(i, 1);
+            int high = waveform.getBand(i, 2);
+            int max = Math.max(low, Math.max(mid, high));
+            if (max == 0) {
+                colors[i] = waveformColor;
+                continue;
+            }
+            colors[i] = 0xFF000000 | (low * 255 / max) << 16 | (mid * 255 / max) << 8 | (high * 255 / max);
+        }
+        return colors;
+    }
+
     /**
      * Clear the waveform display
      */
     public void clearWaveform() {
-        this.waveformData = null;
+        this.waveform = null;
+        this.pointColors = null;
         invalidate();
     }
 
@@ -101,7 +136,7 @@ public class WaveformView extends View {
         canvas.drawRect(0, 0, getWidth(), getHeight(), backgroundPaint);
 
         // If no data, show message
-        if (waveformData == null || waveformData.length == 0) {
+        if (waveform == null) {
             android.util.Log.d(TAG, "onDraw: No waveform data to display");
             // Draw placeholder text
             Paint textPaint = new Paint();
@@ -112,7 +147,7 @@ public class WaveformView extends View {
             return;
         }
 
-        android.util.Log.d(TAG, "onDraw: Drawing waveform with " + waveformData.length + " points");
+        android.util.Log.d(TAG, "onDraw: Drawing waveform with " + waveform.getPointCount() + " points");
 
         float width = getWidth();
         float height = getHeight();
@@ -127,9 +162,10 @@ public class WaveformView extends View {
 
         // If we have more data points than bars, downsample
         // If we have fewer data points than bars, spread them out
-        int dataLength = waveformData.length;
+        int dataLength = waveform.getPointCount();
 
-        if (dataLength == 0) return;
+        // Quantized sample values to pixels, scaled to half the view height (0.9 for padding)
+        float unit = waveform.getScale() / 127.0f * (height / 2.0f) * 0.9f;
 
         // Draw each bar
         for (int i = 0; i < numBars; i++) {
@@ -137,22 +173,20 @@ public class WaveformView extends View {
             int dataIndex = (int) ((float) i / numBars * dataLength);
             if (dataIndex >= dataLength) dataIndex = dataLength - 1;
 
-            float amplitude = waveformData[dataIndex];
-
             // Calculate bar position
             float x = i * totalBarWidth;
 
-            // Calculate bar height (amplitude ranges from -1 to 1)
-            // Scale to half the view height
-            float barHeight = Math.abs(amplitude) * (height / 2.0f) * 0.9f;  // 0.9 for padding
+            // Draw bar from the largest sample above the center to the smallest below it
+            float top = centerY - waveform.getMax(dataIndex) * unit;
+            float bottom = centerY - waveform.getMin(dataIndex) * unit;
 
-            // Draw bar extending from center in both directions
-            float top = centerY - barHeight;
-            float bottom = centerY + barHeight;
+            if (pointColors != null) {
+                waveformPaint.setColor(pointColors[dataIndex]);
+            }
 
             // Draw rounded rectangle for smoother appearance
-            RectF rect = new RectF(x, top, x + barWidth, bottom);
-            canvas.drawRoundRect(rect, barWidth / 2.0f, barWidth / 2.0f, waveformPaint);
+            barRect.set(x, top, x + barWidth, bottom);
+            canvas.drawRoundRect(barRect, barWidth / 2.0f, barWidth / 2.0f, waveformPaint);
         }
     }
 